@@ -0,0 +1,98 @@
+/*
+   Java Stateful File Reader rlo_13
+   Copyright (C) 2023  Suomen Kanuuna Oy
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.teragrep.rlo_13;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FileChannelCache acquire and release from several threads, use -t to change the thread count. With more paths
+ * than the cache holds, channels are also evicted and opened again. acquireReleaseGlobalLock is the same on
+ * {@link GlobalLockFileChannelCache}, the cache before its global lock was removed, as the baseline. Lock
+ * contention only shows with at least as many cores as threads, compare the two on multi-core hardware.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class FileChannelCacheBenchmark {
+
+    @Param({"64", "1024"})
+    public int pathCount;
+
+    private Path directory;
+    private Path[] paths;
+    private FileChannelCache fileChannelCache;
+    private GlobalLockFileChannelCache globalLockFileChannelCache;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("FileChannelCacheBenchmark");
+        paths = new Path[pathCount];
+        for (int i = 0; i < pathCount; i++) {
+            paths[i] = directory.resolve(Integer.toString(i));
+            Files.write(paths[i], "test\n".getBytes());
+        }
+        fileChannelCache = new FileChannelCache();
+        globalLockFileChannelCache = new GlobalLockFileChannelCache();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        fileChannelCache.close();
+        globalLockFileChannelCache.close();
+        for (Path path : paths) {
+            Files.deleteIfExists(path);
+        }
+        Files.deleteIfExists(directory);
+    }
+
+    @Benchmark
+    public void acquireRelease() {
+        Path path = paths[ThreadLocalRandom.current().nextInt(pathCount)];
+        fileChannelCache.acquire(path).close();
+    }
+
+    @Benchmark
+    public void acquireReleaseGlobalLock() {
+        Path path = paths[ThreadLocalRandom.current().nextInt(pathCount)];
+        globalLockFileChannelCache.acquire(path);
+        globalLockFileChannelCache.release(path);
+    }
+}
@@ -0,0 +1,115 @@
+/*
+   Java Stateful File Reader rlo_13
+   Copyright (C) 2023  Suomen Kanuuna Oy
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.teragrep.rlo_13;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * FileChannelCache as it was before its global lock was removed, every acquire and release serialized on one
+ * ReentrantLock. Kept only as the baseline of {@link FileChannelCacheBenchmark}.
+ */
+class GlobalLockFileChannelCache implements AutoCloseable {
+    private final Cache<Path, FileChannel> cache;
+    private final Map<Path, FileChannel> activeFileChannels = new HashMap<>();
+
+    private final Lock lock = new ReentrantLock();
+
+    GlobalLockFileChannelCache() {
+        RemovalListener<Path, FileChannel> listener = removalNotification -> {
+            try {
+                if (!activeFileChannels.containsKey(removalNotification.getKey())) {
+                    removalNotification.getValue().close();
+                }
+            }
+            catch (IOException ioException) {
+                throw new UncheckedIOException(ioException);
+            }
+        };
+
+        this.cache = CacheBuilder
+                .newBuilder()
+                .maximumSize(512)
+                .expireAfterAccess(5, TimeUnit.MINUTES)
+                .removalListener(listener)
+                .build();
+    }
+
+    FileChannel acquire(Path path) {
+        lock.lock();
+        try {
+            FileChannel fileChannel = cache.getIfPresent(path);
+            if (fileChannel == null) {
+                fileChannel = FileChannel.open(path, READ);
+                cache.put(path, fileChannel);
+            }
+            activeFileChannels.put(path, fileChannel);
+            return fileChannel;
+        }
+        catch (IOException ioException) {
+            throw new UncheckedIOException(ioException);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    void release(Path path) {
+        lock.lock();
+        try {
+            // as in the original a path is active once, however many threads acquired it
+            FileChannel fileChannel = activeFileChannels.remove(path);
+            if (fileChannel != null && cache.getIfPresent(path) == null) {
+                try {
+                    fileChannel.close();
+                }
+                catch (IOException ioException) {
+                    throw new UncheckedIOException(ioException);
+                }
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            cache.invalidateAll();
+            cache.cleanUp();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+   Java Stateful File Reader rlo_13
+   Copyright (C) 2023  Suomen Kanuuna Oy
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.teragrep.rlo_13;
+
+import com.teragrep.rlo_13.statestore.LMDBStateStore;
+import com.teragrep.rlo_13.statestore.StateStoreDurability;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Latency of single LMDBStateStore operations over 16384 stored paths.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LMDBStateStoreBenchmark {
+
+    private static final int PATHS = 16384;
+
+    @Param({"SYNC", "NO_SYNC"})
+    public StateStoreDurability durability;
+
+    private Path storePath;
+    private LMDBStateStore stateStore;
+    private Path[] paths;
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        storePath = Files.createTempDirectory("LMDBStateStoreBenchmark");
+        stateStore = new LMDBStateStore(storePath, durability, 1000);
+        paths = new Path[PATHS];
+        for (int i = 0; i < PATHS; i++) {
+            paths[i] = Paths.get("/var/log/LMDBStateStoreBenchmark/" + i + ".log");
+            stateStore.setOffset(paths[i], i);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        stateStore.close();
+        try (Stream<Path> files = Files.walk(storePath)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private Path nextPath() {
+        next = (next + 1) & (PATHS - 1);
+        return paths[next];
+    }
+
+    @Benchmark
+    public long getOffset() {
+        return stateStore.getOffset(nextPath());
+    }
+
+    @Benchmark
+    public void setOffset() {
+        stateStore.setOffset(nextPath(), next);
+    }
+
+    /**
+     * Delete and set back, so that the store keeps its size.
+     */
+    @Benchmark
+    public void deleteOffset() {
+        Path path = nextPath();
+        stateStore.deleteOffset(path);
+        stateStore.setOffset(path, next);
+    }
+}
@@ -0,0 +1,151 @@
+/*
+   Java Stateful File Reader rlo_13
+   Copyright (C) 2023  Suomen Kanuuna Oy
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.teragrep.rlo_13;
+
+import com.teragrep.rlo_13.statestore.StateStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads a whole 8 MiB file per operation with MonitoredFileConsumer.readFile.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReadFileBenchmark {
+
+    private static final int FILE_SIZE = 8 * 1024 * 1024;
+
+    /**
+     * SHORT 64 byte lines, MIXED 16 to 4096 byte lines, LONG 16 KiB lines
+     */
+    @Param({"SHORT", "MIXED", "LONG"})
+    public String lineLengths;
+
+    @Param({"false", "true"})
+    public boolean mapped;
+
+    private Path path;
+    private FileChannelCache fileChannelCache;
+    private MonitoredFileConsumer monitoredFileConsumer;
+    private Blackhole blackhole;
+
+    @Setup(Level.Trial)
+    public void setup(Blackhole blackhole) throws IOException {
+        this.blackhole = blackhole;
+        path = Files.createTempFile("ReadFileBenchmark", lineLengths);
+        Random random = new Random(1234);
+        try (OutputStream outputStream = new BufferedOutputStream(Files.newOutputStream(path))) {
+            int written = 0;
+            while (written < FILE_SIZE) {
+                int lineLength;
+                switch (lineLengths) {
+                    case "SHORT":
+                        lineLength = 64;
+                        break;
+                    case "MIXED":
+                        lineLength = 16 + random.nextInt(4096 - 16);
+                        break;
+                    case "LONG":
+                        lineLength = 16 * 1024;
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown lineLengths <" + lineLengths + ">");
+                }
+                byte[] line = new byte[lineLength];
+                Arrays.fill(line, (byte) 'x');
+                line[lineLength - 1] = '\n';
+                outputStream.write(line);
+                written += lineLength;
+            }
+        }
+
+        StatefulFileReaderConfig config = new StatefulFileReaderConfig();
+        config.setMmapThreshold(mapped ? 1 : Long.MAX_VALUE);
+        fileChannelCache = new FileChannelCache();
+        monitoredFileConsumer = new MonitoredFileConsumer(
+                fileChannelCache,
+                new RereadStateStore(),
+                fileRecord -> this.blackhole.consume(fileRecord.getRecordLength()),
+                new ByteBufferPool(32 * 1024, 1),
+                new ByteBufferPool(1024 * 1024, 1),
+                config
+        );
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        fileChannelCache.close();
+        Files.deleteIfExists(path);
+    }
+
+    @Benchmark
+    public boolean readFile() {
+        return monitoredFileConsumer.readFile(path);
+    }
+
+    /**
+     * Always starts from the beginning so that every operation reads the whole file.
+     */
+    private static final class RereadStateStore implements StateStore {
+
+        @Override
+        public void setOffset(Path path, long offset) {
+
+        }
+
+        @Override
+        public void deleteOffset(Path path) {
+
+        }
+
+        @Override
+        public long getOffset(Path path) {
+            return 0;
+        }
+
+        @Override
+        public void close() {
+
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+   Java Stateful File Reader rlo_13
+   Copyright (C) 2023  Suomen Kanuuna Oy
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.teragrep.rlo_13;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Bytes of a buffer range as chars 0-255, so regular expressions can match records without decoding them. Non-ASCII
+ * characters are seen as their individual UTF-8 bytes.
+ */
+final class ByteBufferCharSequence implements CharSequence {
+
+    private ByteBuffer buffer;
+    private int start;
+    private int end;
+
+    ByteBufferCharSequence() {
+        this(null, 0, 0);
+    }
+
+    private ByteBufferCharSequence(ByteBuffer buffer, int start, int end) {
+        this.buffer = buffer;
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Points the sequence to [start, end) of the buffer, absolute positions.
+     */
+    void reset(ByteBuffer buffer, int start, int end) {
+        this.buffer = buffer;
+        this.start = start;
+        this.end = end;
+    }
+
+    @Override
+    public int length() {
+        return end - start;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length()) {
+            throw new IndexOutOfBoundsException("Index <" + index + "> out of length <" + length() + ">");
+        }
+        return (char) (buffer.get(start + index) & 0xFF);
+    }
+
+    @Override
+    public CharSequence subSequence(int from, int to) {
+        if (from < 0 || to > length() || from > to) {
+            throw new IndexOutOfBoundsException("Range <" + from + ", " + to + "> out of length <" + length() + ">");
+        }
+        return new ByteBufferCharSequence(buffer, start + from, start + to);
+    }
+
+    @Override
+    public String toString() {
+        char[] chars = new char[length()];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = charAt(i);
+        }
+        return new String(chars);
+    }
+}
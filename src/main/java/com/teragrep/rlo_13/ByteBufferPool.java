@@ -0,0 +1,89 @@
+/*
+   Java Stateful File Reader rlo_13
+   Copyright (C) 2023  Suomen Kanuuna Oy
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.teragrep.rlo_13;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of equally sized direct buffers. Direct memory is only reclaimed by GC, so buffers are reused instead
+ * of being allocated for each read.
+ */
+class ByteBufferPool {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ByteBufferPool.class);
+
+    private final int bufferSize;
+    private final BlockingQueue<ByteBuffer> pooled;
+
+    private final AtomicLong allocated = new AtomicLong();
+    private final AtomicLong acquired = new AtomicLong();
+    private final AtomicLong released = new AtomicLong();
+    private final AtomicLong discarded = new AtomicLong();
+
+    ByteBufferPool(int bufferSize, int maximumPooled) {
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("bufferSize must be positive, got <" + bufferSize + ">");
+        }
+        this.bufferSize = bufferSize;
+        this.pooled = new ArrayBlockingQueue<>(maximumPooled);
+    }
+
+    ByteBuffer acquire() {
+        acquired.incrementAndGet();
+        ByteBuffer byteBuffer = pooled.poll();
+        if (byteBuffer == null) {
+            allocated.incrementAndGet();
+            if (LOGGER.isTraceEnabled()) {
+                LOGGER.trace("Allocating new direct buffer of size <{}>", bufferSize);
+            }
+            byteBuffer = ByteBuffer.allocateDirect(bufferSize).order(ByteOrder.nativeOrder());
+        }
+        return byteBuffer;
+    }
+
+    void release(ByteBuffer byteBuffer) {
+        if (byteBuffer.capacity() != bufferSize) {
+            throw new IllegalArgumentException(
+                    "Attempt to release buffer of capacity <" + byteBuffer.capacity() + "> into pool of size <" + bufferSize + ">"
+            );
+        }
+        released.incrementAndGet();
+        byteBuffer.clear();
+        if (!pooled.offer(byteBuffer)) {
+            // pool full, leave it for GC
+            discarded.incrementAndGet();
+        }
+    }
+
+    ByteBufferPoolStatistics getStatistics() {
+        return new ByteBufferPoolStatistics(
+                bufferSize,
+                allocated.get(),
+                acquired.get(),
+                released.get(),
+                discarded.get(),
+                pooled.size()
+        );
+    }
+}
@@ -0,0 +1,79 @@
+/*
+   Java Stateful File Reader rlo_13
+   Copyright (C) 2023  Suomen Kanuuna Oy
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.teragrep.rlo_13;
+
+public class ByteBufferPoolStatistics {
+
+    private final int bufferSize;
+    private final long allocated;
+    private final long acquired;
+    private final long released;
+    private final long discarded;
+    private final int pooled;
+
+    ByteBufferPoolStatistics(int bufferSize, long allocated, long acquired, long released, long discarded, int pooled) {
+        this.bufferSize = bufferSize;
+        this.allocated = allocated;
+        this.acquired = acquired;
+        this.released = released;
+        this.discarded = discarded;
+        this.pooled = pooled;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * @return number of direct buffers allocated, stays constant once reads have reached steady state
+     */
+    public long getAllocated() {
+        return allocated;
+    }
+
+    public long getAcquired() {
+        return acquired;
+    }
+
+    public long getReleased() {
+        return released;
+    }
+
+    /**
+     * @return number of released buffers dropped because the pool was already full
+     */
+    public long getDiscarded() {
+        return discarded;
+    }
+
+    public int getPooled() {
+        return pooled;
+    }
+
+    @Override
+    public String toString() {
+        return "ByteBufferPoolStatistics{" +
+                "bufferSize=" + bufferSize +
+                ", allocated=" + allocated +
+                ", acquired=" + acquired +
+                ", released=" + released +
+                ", discarded=" + discarded +
+                ", pooled=" + pooled +
+                '}';
+    }
+}
@@ -0,0 +1,149 @@
+/*
+   Java Stateful File Reader rlo_13
+   Copyright (C) 2023  Suomen Kanuuna Oy
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.teragrep.rlo_13;
+
+import com.teragrep.rlo_13.metrics.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Reference counted FileChannel entry of FileChannelCache. The channel is closed once it is evicted and the last
+ * lease is released, whichever happens last. Guarded by its own lock so no lock of the cache is held while
+ * closing. A ReentrantLock instead of a monitor, so that closing the channel does not pin a virtual thread to its
+ * carrier.
+ */
+final class CachedFileChannel {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CachedFileChannel.class);
+
+    private final Path path;
+    private final FileChannel fileChannel;
+    private final Object fileKey;
+    private final Metrics metrics;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private int references;
+    private boolean evicted;
+    private boolean closed;
+    private volatile boolean identityResolved;
+
+    CachedFileChannel(Path path, FileChannel fileChannel, Metrics metrics) {
+        this(path, fileChannel, null, metrics);
+    }
+
+    CachedFileChannel(Path path, FileChannel fileChannel, Object fileKey, Metrics metrics) {
+        this.path = path;
+        this.fileChannel = fileChannel;
+        this.fileKey = fileKey;
+        this.metrics = metrics;
+        metrics.channelOpened();
+    }
+
+    FileChannel getFileChannel() {
+        return fileChannel;
+    }
+
+    Object getFileKey() {
+        return fileKey;
+    }
+
+    boolean isIdentityResolved() {
+        return identityResolved;
+    }
+
+    void identityResolved() {
+        identityResolved = true;
+    }
+
+    /**
+     * @return false if the entry was already evicted, a new one must be opened instead
+     */
+    boolean retain() {
+        lock.lock();
+        try {
+            if (evicted) {
+                return false;
+            }
+            references++;
+            return true;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    int getReferences() {
+        lock.lock();
+        try {
+            return references;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    void release() {
+        lock.lock();
+        try {
+            if (references < 1) {
+                throw new IllegalStateException("Attempt to release inactive path <[" + path + "]>");
+            }
+            references--;
+            if (references == 0 && evicted) {
+                LOGGER.trace("Path <[{}]> not present in FileChannelCache, closing!", path);
+                close();
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    void evict() {
+        lock.lock();
+        try {
+            evicted = true;
+            if (references == 0) {
+                // inactive, throw it out
+                LOGGER.trace("Removal triggered for path <[{}]>", path);
+                close();
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        metrics.channelClosed();
+        try {
+            fileChannel.close();
+        }
+        catch (IOException ioException) {
+            LOGGER.warn("Close on FileChannel for path <[{}]> caused:", path, ioException);
+        }
+    }
+}
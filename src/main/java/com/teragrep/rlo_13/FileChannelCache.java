@@ -20,6 +20,7 @@ package com.teragrep.rlo_13;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.RemovalListener;
+import com.teragrep.rlo_13.metrics.Metrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -27,65 +28,84 @@ import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.nio.channels.FileChannel;
 import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Objects;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
 
 import static java.nio.file.StandardOpenOption.READ;
 
+/**
+ * Caches open FileChannels and hands out reference counted leases to them. There is no global lock: the cache is
+ * segmented, a FileChannel is opened while holding no lock at all and each entry guards its own close. A leased
+ * channel is never closed by eviction, it is closed when its last lease is released.
+ */
 class FileChannelCache implements AutoCloseable {
     private static final Logger LOGGER = LoggerFactory.getLogger(FileChannelCache.class);
-    private final Cache<Path, FileChannel> cache;
-    private final Map<Path, FileChannel> activeFileChannels = new HashMap<>();
-
-    private final Lock lock = new ReentrantLock();
+    private static final int OPEN_ATTEMPTS = 3;
+    private final Cache<Path, CachedFileChannel> cache;
+    private final Metrics metrics;
+    private final boolean fileKeys;
 
     FileChannelCache() {
-        RemovalListener<Path, FileChannel> listener;
-        listener = removalNotification -> {
-        String cause = removalNotification.getCause().name();
-        LOGGER.trace("Entry removed because: {}", cause);
+        this(Metrics.NOOP);
+    }
 
+    FileChannelCache(Metrics metrics) {
+        this(metrics, false);
+    }
 
-            try {
-                if (!activeFileChannels.containsKey(removalNotification.getKey())) {
-                    // inactive, throw it out
-                    if(LOGGER.isTraceEnabled()) {
-                        LOGGER.trace("Removal triggered for path <[{}]>", removalNotification.getKey());
-                    }
-                    removalNotification.getValue().close();
-                }
-            } catch (IOException e) {
-                throw new UncheckedIOException(e);
+    /**
+     * @param fileKeys read the file key, e.g. device and inode, of each opened file, see
+     *                 {@link FileChannelLease#getFileKey()}
+     */
+    FileChannelCache(Metrics metrics, boolean fileKeys) {
+        this.metrics = metrics;
+        this.fileKeys = fileKeys;
+        RemovalListener<Path, CachedFileChannel> listener;
+        listener = removalNotification -> {
+            String cause = removalNotification.getCause().name();
+            LOGGER.trace("Entry removed because: {}", cause);
+            if (removalNotification.wasEvicted()) {
+                metrics.channelCacheEviction();
             }
+            removalNotification.getValue().evict();
         };
 
         this.cache = CacheBuilder
                 .newBuilder()
                 .maximumSize(512)
+                .concurrencyLevel(16)
                 .expireAfterAccess(5, TimeUnit.MINUTES)
                 .removalListener(listener)
                 .build();
     }
 
-    FileChannel acquire(Path path) {
-        lock.lock();
+    /**
+     * @return lease to be closed after use, null if the file is not present or not accessible
+     */
+    FileChannelLease acquire(Path path) {
+        LOGGER.trace("Acquiring path <[{}]>", path);
         try {
-            LOGGER.trace("Acquiring path <[{}]>", path);
+            while (true) {
+                CachedFileChannel cachedFileChannel = cache.getIfPresent(path);
+                if (cachedFileChannel != null) {
+                    metrics.channelCacheHit();
+                }
+                else {
+                    metrics.channelCacheMiss();
+                    cachedFileChannel = load(path);
+                }
 
-            FileChannel fileChannel = cache.getIfPresent(path);
-            if (fileChannel == null) {
-                LOGGER.trace("Acquire opens a new FileChannel. Not cached!");
-                fileChannel = FileChannel.open(path, READ);
-                cache.put(path, fileChannel);
-            }
+                if (cachedFileChannel.retain()) {
+                    return new FileChannelLease(cachedFileChannel);
+                }
 
-            activeFileChannels.put(path, fileChannel);
-            return fileChannel;
+                // evicted between lookup and retain, get rid of the stale entry and open again
+                cache.asMap().remove(path, cachedFileChannel);
+            }
         }
         catch (AccessDeniedException accessDeniedException) {
             LOGGER.warn("Reading of inaccessible file <[{}]> skipped.", path);
@@ -95,64 +115,70 @@ class FileChannelCache implements AutoCloseable {
             LOGGER.warn("Reading of non-present file <[{}]> skipped.", path);
             return null;
         }
-        catch (IOException e) {
-            throw new UncheckedIOException(e);
+        catch (IOException ioException) {
+            throw new UncheckedIOException(ioException);
         }
         finally {
             LOGGER.trace("Acquired path <[{}]>", path);
-            lock.unlock();
         }
     }
 
-    void release(Path path) {
-        lock.lock();
-        try {
-            LOGGER.trace("Releasing path <[{}]>", path);
-            FileChannel fileChannel = activeFileChannels.get(path);
-            if (fileChannel == null) {
-                throw new IllegalStateException("Attempt to remove inactive path <["+path+"]>");
-            }
+    /**
+     * Opens the channel without holding any lock and inserts it afterwards. Loading through the cache would open it
+     * inside a monitor of the entry, which pins a virtual thread to its carrier for the duration of the open. If two
+     * threads miss on the same path at once both open it, the one that loses the insert closes its own channel.
+     */
+    private CachedFileChannel load(Path path) throws IOException {
+        LOGGER.trace("Acquire opens a new FileChannel. Not cached!");
+        CachedFileChannel opened = open(path);
+        CachedFileChannel present = cache.asMap().putIfAbsent(path, opened);
+        if (present == null) {
+            return opened;
+        }
+        LOGGER.trace("Path <[{}]> was opened concurrently, closing the duplicate", path);
+        opened.evict();
+        return present;
+    }
 
-            if (cache.getIfPresent(path) == null) {
-                LOGGER.trace("Path <[{}]> not present in FileChannelCache, closing!", path);
-                // no longer in cache, begone now!
-                try {
-                    fileChannel.close();
-                }
-                catch (IOException ioException) {
-                    LOGGER.warn("Close on FileChannel for path <[{}]> caused:", path, ioException);
-                }
-            }
-            activeFileChannels.remove(path);
+    private CachedFileChannel open(Path path) throws IOException {
+        if (!fileKeys) {
+            return new CachedFileChannel(path, FileChannel.open(path, READ), metrics);
         }
-        finally {
-            LOGGER.trace("Released path <[{}]>", path);
-            lock.unlock();
+        // the key is read by path, the same before and after opening means it is the key of the opened file
+        for (int attempt = 1; attempt <= OPEN_ATTEMPTS; attempt++) {
+            Object fileKeyBefore = fileKeyOf(path);
+            FileChannel fileChannel = FileChannel.open(path, READ);
+            Object fileKey;
+            try {
+                fileKey = fileKeyOf(path);
+            }
+            catch (IOException ioException) {
+                fileChannel.close();
+                throw ioException;
+            }
+            if (Objects.equals(fileKeyBefore, fileKey)) {
+                return new CachedFileChannel(path, fileChannel, fileKey, metrics);
+            }
+            fileChannel.close();
+            LOGGER.debug("Path <[{}]> was replaced while opening, attempt <{}>", path, attempt);
         }
+        throw new IOException("Path <[" + path + "]> was replaced on each of <" + OPEN_ATTEMPTS + "> opens");
+    }
+
+    private Object fileKeyOf(Path path) throws IOException {
+        return Files.readAttributes(path, BasicFileAttributes.class).fileKey();
     }
 
+    /**
+     * Drops the cached channel of path. Leases still open keep using it until they are released.
+     */
     void invalidate(Path path) {
-        lock.lock();
-        try {
-            if (activeFileChannels.containsKey(path)) {
-                throw new IllegalStateException("Must not invalidate active path");
-            }
-            cache.invalidate(path);
-        }
-        finally {
-            lock.unlock();
-        }
+        cache.invalidate(path);
     }
 
     @Override
     public void close() {
-        lock.lock();
-        try {
-            cache.invalidateAll();
-            cache.cleanUp();
-        }
-        finally {
-            lock.unlock();
-        }
+        cache.invalidateAll();
+        cache.cleanUp();
     }
 }
@@ -0,0 +1,64 @@
+/*
+   Java Stateful File Reader rlo_13
+   Copyright (C) 2023  Suomen Kanuuna Oy
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.teragrep.rlo_13;
+
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A reference to a cached FileChannel. Several leases may share a channel, so it must only be read with positional
+ * reads. Closing the lease releases the reference, not the channel.
+ */
+final class FileChannelLease implements AutoCloseable {
+
+    private final CachedFileChannel cachedFileChannel;
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    FileChannelLease(CachedFileChannel cachedFileChannel) {
+        this.cachedFileChannel = cachedFileChannel;
+    }
+
+    FileChannel getFileChannel() {
+        return cachedFileChannel.getFileChannel();
+    }
+
+    /**
+     * @return file key of the channel, null if the cache does not read file keys or the file system has none
+     */
+    Object getFileKey() {
+        return cachedFileChannel.getFileKey();
+    }
+
+    /**
+     * @return true once the offset of the channel's file key has been resolved against the StateStore
+     */
+    boolean isIdentityResolved() {
+        return cachedFileChannel.isIdentityResolved();
+    }
+
+    void identityResolved() {
+        cachedFileChannel.identityResolved();
+    }
+
+    @Override
+    public void close() {
+        if (released.compareAndSet(false, true)) {
+            cachedFileChannel.release();
+        }
+    }
+}
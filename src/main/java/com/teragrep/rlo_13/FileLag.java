@@ -0,0 +1,72 @@
+/*
+   Java Stateful File Reader rlo_13
+   Copyright (C) 2023  Suomen Kanuuna Oy
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.teragrep.rlo_13;
+
+import java.nio.file.Path;
+
+/**
+ * How far the reader is behind on one file, its size when the snapshot was taken minus the offset of its last read.
+ */
+public final class FileLag {
+
+    private final Path path;
+    private final long size;
+    private final long offset;
+
+    public FileLag(Path path, long size, long offset) {
+        this.path = path;
+        this.size = size;
+        this.offset = offset;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * @return size of the file when the snapshot was taken, or when it was last read if it is gone
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return offset the reader passed to the StateStore after the last read, the end of the last record read. This
+     * is not necessarily the committed offset: with offsetCommitBatchSize above 1 or WRITE_BEHIND durability it may
+     * still be pending, and after a crash reading resumes from the last committed one.
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return bytes not yet read, never negative
+     */
+    public long getLag() {
+        return Math.max(0, size - offset);
+    }
+
+    @Override
+    public String toString() {
+        return "FileLag{" +
+                "path=" + path +
+                ", size=" + size +
+                ", offset=" + offset +
+                '}';
+    }
+}
@@ -17,17 +17,21 @@
 
 package com.teragrep.rlo_13;
 
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
 import java.util.Arrays;
 
 public class FileRecord {
+    private static final byte[] EMPTY_RECORD = new byte[0];
 
     private final String path;
     private final String directory;
     private final String filename;
     private long startOffset; // exclusive
     private long endOffset; // inclusive
-    private byte[] record;
+    private byte[] record = EMPTY_RECORD;
+    private ByteBuffer recordBuffer; // view over the reader's buffer, record is copied from it only on demand
+    private int recordLength;
 
     FileRecord(Path path) {
         this.path = path.toString();
@@ -45,6 +49,18 @@ public class FileRecord {
 
     void setRecord(byte[] record) {
         this.record = record;
+        this.recordBuffer = null;
+        this.recordLength = record.length;
+    }
+
+    void setRecordBuffer(ByteBuffer recordBuffer, int recordLength) {
+        this.record = null;
+        this.recordBuffer = recordBuffer;
+        this.recordLength = recordLength;
+    }
+
+    void clearRecord() {
+        setRecord(EMPTY_RECORD);
     }
 
     public String getPath() {
@@ -59,10 +75,38 @@ public class FileRecord {
         return endOffset;
     }
 
+    /**
+     * @return copy of the record bytes, owned by the caller
+     */
     public byte[] getRecord() {
+        if (record == null) {
+            byte[] bytes = new byte[recordLength];
+            ByteBuffer source = recordBuffer.duplicate();
+            source.clear();
+            source.limit(recordLength);
+            source.get(bytes);
+            record = bytes;
+        }
         return record;
     }
 
+    /**
+     * Read-only view of the record bytes positioned at the start of the record, without copying them. The view
+     * refers to the reader's internal buffer and is valid only until the consumer returns from accept.
+     */
+    public ByteBuffer getRecordBuffer() {
+        if (recordBuffer == null) {
+            return ByteBuffer.wrap(record).asReadOnlyBuffer();
+        }
+        recordBuffer.clear();
+        recordBuffer.limit(recordLength);
+        return recordBuffer;
+    }
+
+    public int getRecordLength() {
+        return recordLength;
+    }
+
     public String getDirectory() {
         return directory;
     }
@@ -79,7 +123,7 @@ public class FileRecord {
                 ", filename='" + filename + '\'' +
                 ", startOffset=" + startOffset +
                 ", endOffset=" + endOffset +
-                ", record=" + Arrays.toString(record) +
+                ", record=" + Arrays.toString(getRecord()) +
                 '}';
     }
 }
@@ -0,0 +1,192 @@
+/*
+   Java Stateful File Reader rlo_13
+   Copyright (C) 2023  Suomen Kanuuna Oy
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.teragrep.rlo_13;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+/**
+ * Consecutive records of a single file. Records are contiguous, so the batch covers file bytes from
+ * getStartOffset() to getEndOffset() exactly. The buffer holds fewer bytes than that when the framing leaves parts of
+ * frames out of records, such as octet-counting length prefixes. The batch and the buffers it returns are reused and valid only until
+ * the consumer returns from accept.
+ */
+public class FileRecordBatch {
+
+    private final int maximumRecords;
+    private final int maximumBytes;
+    private final int[] recordEnds; // exclusive end position of each record within the buffer
+    private final long[] recordEndOffsets;
+
+    private Path filePath;
+    private String path;
+    private String directory;
+    private String filename;
+
+    private ByteBuffer buffer;
+    private ByteBuffer batchView;
+    private ByteBuffer recordView;
+
+    private long startOffset;
+    private int size;
+
+    FileRecordBatch(int maximumRecords, int maximumBytes) {
+        this.maximumRecords = maximumRecords;
+        this.maximumBytes = maximumBytes;
+        this.recordEnds = new int[maximumRecords];
+        this.recordEndOffsets = new long[maximumRecords];
+    }
+
+    void reset(Path filePath, ByteBuffer buffer, long startOffset) {
+        this.filePath = filePath;
+        this.path = filePath.toString();
+        this.directory = filePath.getParent().toString();
+        this.filename = filePath.getFileName().toString();
+        this.buffer = buffer;
+        this.batchView = buffer.asReadOnlyBuffer();
+        this.recordView = buffer.asReadOnlyBuffer();
+        clear(startOffset);
+    }
+
+    void clear(long startOffset) {
+        this.startOffset = startOffset;
+        this.size = 0;
+        buffer.clear();
+    }
+
+    boolean hasRoom(int recordLength) {
+        if (size == 0) {
+            // a record larger than maximumBytes makes a batch of its own
+            return buffer.remaining() >= recordLength;
+        }
+        return size < maximumRecords && buffer.position() + recordLength <= maximumBytes;
+    }
+
+    boolean isFull() {
+        return size == maximumRecords || buffer.position() >= maximumBytes;
+    }
+
+    void add(FileRecord fileRecord) {
+        buffer.put(fileRecord.getRecordBuffer());
+        recordEnds[size] = buffer.position();
+        recordEndOffsets[size] = fileRecord.getEndOffset();
+        size++;
+    }
+
+    Path getFilePath() {
+        return filePath;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public String getDirectory() {
+        return directory;
+    }
+
+    public String getFilename() {
+        return filename;
+    }
+
+    public long getStartOffset() {
+        return startOffset;
+    }
+
+    public long getEndOffset() {
+        if (size == 0) {
+            return startOffset;
+        }
+        return recordEndOffsets[size - 1];
+    }
+
+    /**
+     * @return read-only view of all records of the batch back to back
+     */
+    public ByteBuffer getBuffer() {
+        batchView.clear();
+        batchView.limit(buffer.position());
+        return batchView;
+    }
+
+    public long getRecordStartOffset(int index) {
+        checkIndex(index);
+        if (index == 0) {
+            return startOffset;
+        }
+        return recordEndOffsets[index - 1];
+    }
+
+    public long getRecordEndOffset(int index) {
+        checkIndex(index);
+        return recordEndOffsets[index];
+    }
+
+    /**
+     * @return read-only view of a single record. The same view object is repositioned on every call.
+     */
+    public ByteBuffer getRecordBuffer(int index) {
+        int start = recordStart(index);
+        recordView.clear();
+        recordView.limit(recordEnds[index]);
+        recordView.position(start);
+        return recordView;
+    }
+
+    /**
+     * @return copy of a single record, owned by the caller
+     */
+    public byte[] getRecord(int index) {
+        ByteBuffer source = getRecordBuffer(index);
+        byte[] bytes = new byte[source.remaining()];
+        source.get(bytes);
+        return bytes;
+    }
+
+    private int recordStart(int index) {
+        checkIndex(index);
+        if (index == 0) {
+            return 0;
+        }
+        return recordEnds[index - 1];
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index <" + index + "> out of batch size <" + size + ">");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "FileRecordBatch{" +
+                "path='" + path + '\'' +
+                ", startOffset=" + startOffset +
+                ", endOffset=" + getEndOffset() +
+                ", size=" + size +
+                '}';
+    }
+}
@@ -0,0 +1,27 @@
+/*
+   Java Stateful File Reader rlo_13
+   Copyright (C) 2023  Suomen Kanuuna Oy
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.teragrep.rlo_13;
+
+/**
+ * Receives records of one file in batches. Returning from accept acknowledges the batch and the stored offset
+ * advances past it, throwing leaves the batch to be read again.
+ */
+@FunctionalInterface
+public interface FileRecordBatchConsumer {
+    void accept(FileRecordBatch fileRecordBatch);
+}
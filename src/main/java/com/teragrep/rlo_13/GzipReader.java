@@ -0,0 +1,340 @@
+/*
+   Java Stateful File Reader rlo_13
+   Copyright (C) 2023  Suomen Kanuuna Oy
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.teragrep.rlo_13;
+
+import com.teragrep.rlo_13.metrics.Metrics;
+import com.teragrep.rlo_13.statestore.RestartPoint;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Streams the decompressed content of a gzip file (RFC 1952) with positional reads of a shared FileChannel. Members
+ * are decompressed one after another, the start of each member is a restart point. Between reads of the same file
+ * the reader is suspended with its Inflater state, and the decompressed bytes not yet framed into records are kept
+ * to be returned again on resume, so a member is not decompressed again from its start on every event. Member
+ * checksums are not verified.
+ */
+class GzipReader {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int HEADER_SIZE = 10;
+    private static final int TRAILER_SIZE = 8;
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+
+    private enum State {
+        HEADER, DATA, TRAILER
+    }
+
+    private final Inflater inflater = new Inflater(true);
+    private final ByteBuffer input = ByteBuffer.allocate(BUFFER_SIZE); // compressed bytes not yet consumed
+    private final ByteBuffer output = ByteBuffer.allocate(BUFFER_SIZE);
+    private final Metrics metrics;
+
+    private FileChannel fileChannel;
+    private long filePosition; // of the next byte read into input
+    private long uncompressedPosition; // end of the decompressed bytes so far
+    private long skipTo; // decompressed bytes before this are not returned
+    private State state;
+    private RestartPoint restartPoint;
+
+    // decompressed bytes from tailStart to uncompressedPosition, not framed into records yet
+    private ByteBuffer tail = ByteBuffer.allocate(0);
+    private long tailStart;
+    private ByteBuffer replay; // of tail, returned first after resume
+    private boolean tailReturned; // the buffer returned last is replay instead of output
+
+    GzipReader(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Starts decompressing at restartPoint, bytes before uncompressedOffset are decompressed but not returned.
+     */
+    void open(FileChannel fileChannel, RestartPoint restartPoint, long uncompressedOffset) {
+        if (uncompressedOffset < restartPoint.getUncompressedOffset()) {
+            throw new IllegalArgumentException(
+                    "uncompressedOffset <" + uncompressedOffset + "> is before restart point <" + restartPoint + ">"
+            );
+        }
+        this.fileChannel = fileChannel;
+        this.filePosition = restartPoint.getCompressedOffset();
+        this.uncompressedPosition = restartPoint.getUncompressedOffset();
+        this.skipTo = uncompressedOffset;
+        this.restartPoint = restartPoint;
+        this.state = State.HEADER;
+        input.clear().flip();
+        inflater.reset();
+        tail.clear();
+        tailStart = uncompressedOffset;
+        replay = null;
+        tailReturned = false;
+    }
+
+    /**
+     * Continues where the previous read of the file stopped, returning the kept bytes from uncompressedOffset first.
+     * @return false if the reader is not positioned for uncompressedOffset, it must be opened instead
+     */
+    boolean resume(FileChannel fileChannel, long uncompressedOffset) throws IOException {
+        if (state == null || uncompressedOffset < tailStart || uncompressedOffset > uncompressedPosition) {
+            return false;
+        }
+        if (fileChannel.size() < filePosition) {
+            // not the file decompressed before
+            return false;
+        }
+        this.fileChannel = fileChannel;
+        this.skipTo = uncompressedOffset;
+        discardTail(uncompressedOffset);
+        replay = tail.duplicate();
+        replay.flip();
+        tailReturned = false;
+        return true;
+    }
+
+    /**
+     * Keeps the bytes from recordEnd on of the buffer returned last, they are returned again after
+     * {@link #resume(FileChannel, long)}. Called after every read.
+     */
+    void retainUnframed(long recordEnd) {
+        if (tailReturned) {
+            discardTail(recordEnd);
+            return;
+        }
+        long outputStart = uncompressedPosition - output.limit();
+        if (recordEnd >= outputStart) {
+            tail.clear();
+            tailStart = recordEnd;
+        }
+        else {
+            discardTail(recordEnd);
+        }
+        int from = (int) (Math.max(recordEnd, outputStart) - outputStart);
+        int length = output.limit() - from;
+        if (tail.remaining() < length) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(tail.position() + length, 2 * tail.capacity()));
+            tail.flip();
+            grown.put(tail);
+            tail = grown;
+        }
+        tail.put(output.array(), output.arrayOffset() + from, length);
+    }
+
+    private void discardTail(long recordEnd) {
+        if (recordEnd > tailStart) {
+            tail.flip();
+            tail.position((int) (recordEnd - tailStart));
+            tail.compact();
+            tailStart = recordEnd;
+        }
+    }
+
+    void close() {
+        inflater.end();
+    }
+
+    /**
+     * @return decompressed bytes following the ones returned before, valid until the next call. Null once the
+     * available compressed bytes are consumed.
+     */
+    ByteBuffer read() throws IOException {
+        if (replay != null) {
+            ByteBuffer replayed = replay;
+            replay = null;
+            if (replayed.hasRemaining()) {
+                tailReturned = true;
+                return replayed;
+            }
+        }
+        tailReturned = false;
+        while (true) {
+            ByteBuffer decompressed = inflate();
+            if (decompressed == null) {
+                return null;
+            }
+            if (uncompressedPosition <= skipTo) {
+                continue;
+            }
+            long decompressedStart = uncompressedPosition - decompressed.remaining();
+            if (decompressedStart < skipTo) {
+                decompressed.position((int) (skipTo - decompressedStart));
+            }
+            return decompressed;
+        }
+    }
+
+    /**
+     * @return file offset of the compressed bytes consumed so far
+     */
+    long getCompressedPosition() {
+        return filePosition - input.remaining();
+    }
+
+    /**
+     * @return start of the latest member reached, or the restart point given to open
+     */
+    RestartPoint getRestartPoint() {
+        return restartPoint;
+    }
+
+    private ByteBuffer inflate() throws IOException {
+        while (true) {
+            switch (state) {
+                case HEADER:
+                    if (!input.hasRemaining() && !fill()) {
+                        // end of the last member
+                        return null;
+                    }
+                    int headerLength = headerLength();
+                    if (headerLength < 0) {
+                        if (input.remaining() == input.capacity()) {
+                            throw new ZipException("Gzip header at <" + getCompressedPosition() + "> is too long");
+                        }
+                        if (!fill()) {
+                            return null;
+                        }
+                        break;
+                    }
+                    input.position(input.position() + headerLength);
+                    inflater.reset();
+                    state = State.DATA;
+                    break;
+                case DATA:
+                    if (inflater.needsInput()) {
+                        if (!input.hasRemaining() && !fill()) {
+                            return null;
+                        }
+                        inflater.setInput(input.array(), input.arrayOffset() + input.position(), input.remaining());
+                    }
+                    int inflated;
+                    try {
+                        inflated = inflater.inflate(output.array(), output.arrayOffset(), output.capacity());
+                    }
+                    catch (DataFormatException dataFormatException) {
+                        throw new ZipException(
+                                "Invalid deflate data before <" + filePosition + ">: " + dataFormatException.getMessage()
+                        );
+                    }
+                    // input given to the inflater ends at the limit
+                    input.position(input.limit() - inflater.getRemaining());
+                    if (inflater.finished()) {
+                        state = State.TRAILER;
+                    }
+                    else if (inflated == 0 && inflater.needsDictionary()) {
+                        throw new ZipException("Deflate data with a preset dictionary is not supported");
+                    }
+                    if (inflated > 0) {
+                        output.clear();
+                        output.limit(inflated);
+                        uncompressedPosition = uncompressedPosition + inflated;
+                        return output;
+                    }
+                    break;
+                case TRAILER:
+                    if (input.remaining() < TRAILER_SIZE) {
+                        if (!fill()) {
+                            return null;
+                        }
+                        break;
+                    }
+                    input.position(input.position() + TRAILER_SIZE);
+                    state = State.HEADER;
+                    restartPoint = new RestartPoint(getCompressedPosition(), uncompressedPosition);
+                    break;
+                default:
+                    throw new IllegalStateException("Invalid state <" + state + ">");
+            }
+        }
+    }
+
+    /**
+     * @return false if there were no more bytes to read
+     */
+    private boolean fill() throws IOException {
+        input.compact();
+        int read = fileChannel.read(input, filePosition);
+        input.flip();
+        if (read < 1) {
+            return false;
+        }
+        filePosition = filePosition + read;
+        metrics.bytesRead(read);
+        return true;
+    }
+
+    /**
+     * @return length of the member header at the start of input, -1 if input does not hold all of it
+     */
+    private int headerLength() throws ZipException {
+        int start = input.position();
+        int end = input.limit();
+        if (end - start < HEADER_SIZE) {
+            return -1;
+        }
+        if ((input.get(start) & 0xFF) != 0x1F || (input.get(start + 1) & 0xFF) != 0x8B) {
+            throw new ZipException("Not in gzip format at <" + getCompressedPosition() + ">");
+        }
+        if (input.get(start + 2) != 8) {
+            throw new ZipException("Unsupported compression method <" + input.get(start + 2) + ">");
+        }
+        int flags = input.get(start + 3) & 0xFF;
+
+        int i = start + HEADER_SIZE;
+        if ((flags & FEXTRA) != 0) {
+            if (end - i < 2) {
+                return -1;
+            }
+            i = i + 2 + ((input.get(i) & 0xFF) | (input.get(i + 1) & 0xFF) << 8);
+        }
+        if ((flags & FNAME) != 0) {
+            i = skipZeroTerminated(i, end);
+        }
+        if ((flags & FCOMMENT) != 0) {
+            i = skipZeroTerminated(i, end);
+        }
+        if ((flags & FHCRC) != 0 && i >= 0) {
+            i = i + 2;
+        }
+        if (i < 0 || i > end) {
+            return -1;
+        }
+        return i - start;
+    }
+
+    /**
+     * @return index following the terminating zero, -1 if not found before end
+     */
+    private int skipZeroTerminated(int i, int end) {
+        if (i < 0) {
+            return -1;
+        }
+        for (; i < end; i++) {
+            if (input.get(i) == 0) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,67 @@
+/*
+   Java Stateful File Reader rlo_13
+   Copyright (C) 2023  Suomen Kanuuna Oy
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.teragrep.rlo_13;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Backlog of all files read so far and the files lagging the most, see {@link StatefulFileReader#getLagSnapshot(int)}.
+ */
+public final class LagSnapshot {
+
+    private final int fileCount;
+    private final long totalBacklogBytes;
+    private final List<FileLag> worstFiles;
+
+    public LagSnapshot(int fileCount, long totalBacklogBytes, List<FileLag> worstFiles) {
+        this.fileCount = fileCount;
+        this.totalBacklogBytes = totalBacklogBytes;
+        this.worstFiles = Collections.unmodifiableList(worstFiles);
+    }
+
+    /**
+     * @return number of files tracked
+     */
+    public int getFileCount() {
+        return fileCount;
+    }
+
+    /**
+     * @return sum of the lag of all tracked files
+     */
+    public long getTotalBacklogBytes() {
+        return totalBacklogBytes;
+    }
+
+    /**
+     * @return files with the largest lag, largest first
+     */
+    public List<FileLag> getWorstFiles() {
+        return worstFiles;
+    }
+
+    @Override
+    public String toString() {
+        return "LagSnapshot{" +
+                "fileCount=" + fileCount +
+                ", totalBacklogBytes=" + totalBacklogBytes +
+                ", worstFiles=" + worstFiles +
+                '}';
+    }
+}
@@ -0,0 +1,130 @@
+/*
+   Java Stateful File Reader rlo_13
+   Copyright (C) 2023  Suomen Kanuuna Oy
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.teragrep.rlo_13;
+
+import com.teragrep.rlo_12.MonitoredFile;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ToLongFunction;
+
+/**
+ * Offset of each file as of its last read, updated by MonitoredFileConsumer. A file is tracked from the moment its
+ * event is received, with its committed offset until it is first read. Snapshots take the current size of each file,
+ * so growth is shown while its event still waits in a lane queue.
+ */
+class LagTracker {
+
+    private final Map<Path, FileLag> entries = new ConcurrentHashMap<>();
+    private final ToLongFunction<Path> committedOffset;
+
+    LagTracker() {
+        this(path -> 0L);
+    }
+
+    /**
+     * @param committedOffset offset of a file received but not read yet
+     */
+    LagTracker(ToLongFunction<Path> committedOffset) {
+        this.committedOffset = committedOffset;
+    }
+
+    /**
+     * Tracks the file from the committed offset if it is not tracked yet. A file already tracked keeps the offset of
+     * its last read, which is the more recent one.
+     */
+    void received(MonitoredFile monitoredFile) {
+        if (monitoredFile.getStatus() == MonitoredFile.Status.SYNC_DELETED) {
+            // removed once its lane handles it
+            return;
+        }
+        Path path = monitoredFile.getPath();
+        if (!entries.containsKey(path)) {
+            long offset = committedOffset.applyAsLong(path);
+            entries.putIfAbsent(path, new FileLag(path, offset, offset));
+        }
+    }
+
+    /**
+     * @param offset offset passed to the StateStore for the read, which may not be committed yet
+     */
+    void update(Path path, long size, long offset) {
+        entries.put(path, new FileLag(path, size, offset));
+    }
+
+    void remove(Path path) {
+        entries.remove(path);
+    }
+
+    LagSnapshot snapshot(int worstFiles) {
+        if (worstFiles < 0) {
+            throw new IllegalArgumentException("worstFiles must not be negative, got <" + worstFiles + ">");
+        }
+
+        int fileCount = 0;
+        long totalBacklogBytes = 0;
+        // smallest lag on top, replaced by larger ones
+        PriorityQueue<FileLag> worst = new PriorityQueue<>(
+                Math.max(1, worstFiles),
+                Comparator.comparingLong(FileLag::getLag)
+        );
+        for (FileLag tracked : entries.values()) {
+            FileLag fileLag = withCurrentSize(tracked);
+            fileCount++;
+            totalBacklogBytes += fileLag.getLag();
+            if (worstFiles == 0) {
+                continue;
+            }
+            if (worst.size() < worstFiles) {
+                worst.add(fileLag);
+            }
+            else if (worst.peek().getLag() < fileLag.getLag()) {
+                worst.poll();
+                worst.add(fileLag);
+            }
+        }
+
+        List<FileLag> worstList = new ArrayList<>(worst);
+        worstList.sort(Comparator.comparingLong(FileLag::getLag).reversed());
+        return new LagSnapshot(fileCount, totalBacklogBytes, worstList);
+    }
+
+    /**
+     * @return lag against the size of the file now, or as of its last read if it can not be read anymore
+     */
+    private FileLag withCurrentSize(FileLag fileLag) {
+        long size;
+        try {
+            size = Files.size(fileLag.getPath());
+        }
+        catch (IOException ioException) {
+            return fileLag;
+        }
+        if (size == fileLag.getSize()) {
+            return fileLag;
+        }
+        return new FileLag(fileLag.getPath(), size, fileLag.getOffset());
+    }
+}
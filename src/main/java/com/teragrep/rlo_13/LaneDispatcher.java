@@ -0,0 +1,241 @@
+/*
+   Java Stateful File Reader rlo_13
+   Copyright (C) 2023  Suomen Kanuuna Oy
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.teragrep.rlo_13;
+
+import com.teragrep.rlo_12.MonitoredFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Spreads MonitoredFile events over worker lanes by path. Events of one path always go to the same lane and are
+ * handled in order, different paths are read in parallel. A full lane queue blocks the caller. Lane threads come
+ * from the given ThreadFactory, with virtual threads a lane is cheap enough to have one for every few files. A lane
+ * that dies on an Error fails every later event of its paths instead of blocking the caller.
+ */
+class LaneDispatcher implements Consumer<MonitoredFile>, AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(LaneDispatcher.class);
+
+    private final List<Lane> lanes;
+    private final LagTracker lagTracker;
+    private volatile boolean closed = false;
+
+    LaneDispatcher(
+            int laneCount,
+            int queueCapacity,
+            ThreadFactory threadFactory,
+            Supplier<MonitoredFileConsumer> monitoredFileConsumerSupplier
+    ) {
+        this(laneCount, queueCapacity, threadFactory, monitoredFileConsumerSupplier, new LagTracker());
+    }
+
+    /**
+     * @param lagTracker tracks the file of each event as it is enqueued, before its lane reads it
+     */
+    LaneDispatcher(
+            int laneCount,
+            int queueCapacity,
+            ThreadFactory threadFactory,
+            Supplier<MonitoredFileConsumer> monitoredFileConsumerSupplier,
+            LagTracker lagTracker
+    ) {
+        this.lagTracker = lagTracker;
+        if (laneCount < 1) {
+            throw new IllegalArgumentException("laneCount must be positive, got <" + laneCount + ">");
+        }
+        this.lanes = new ArrayList<>(laneCount);
+        for (int i = 0; i < laneCount; i++) {
+            Lane lane = new Lane(i, queueCapacity, monitoredFileConsumerSupplier.get());
+            lane.thread = threadFactory.newThread(lane);
+            lanes.add(lane);
+        }
+        for (Lane lane : lanes) {
+            lane.thread.start();
+        }
+    }
+
+    static ThreadFactory platformThreadFactory() {
+        return new ThreadFactory() {
+            private int index = 0;
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "rlo_13-lane-" + index++);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    @Override
+    public void accept(MonitoredFile monitoredFile) {
+        if (closed) {
+            throw new IllegalStateException("LaneDispatcher is closed");
+        }
+        // spread so that paths differing only in the low bits do not pile up on one lane
+        int hash = monitoredFile.getPath().hashCode();
+        hash = hash ^ (hash >>> 16);
+        Lane lane = lanes.get(Math.floorMod(hash, lanes.size()));
+        lagTracker.received(monitoredFile);
+        try {
+            lane.enqueue(new LaneEvent(monitoredFile));
+        }
+        catch (InterruptedException interruptedException) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(
+                    "Interrupted while waiting for lane <" + lane.index + ">",
+                    interruptedException
+            );
+        }
+    }
+
+    /**
+     * Lets the lanes finish already queued events, then stops them.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (Lane lane : lanes) {
+            try {
+                lane.enqueue(LaneEvent.STOP);
+            }
+            catch (IllegalStateException illegalStateException) {
+                // lane is already dead, nothing to stop
+            }
+            catch (InterruptedException interruptedException) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        for (Lane lane : lanes) {
+            try {
+                lane.thread.join();
+            }
+            catch (InterruptedException interruptedException) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private static final class LaneEvent {
+        private static final LaneEvent STOP = new LaneEvent(null);
+
+        private final MonitoredFile monitoredFile;
+
+        private LaneEvent(MonitoredFile monitoredFile) {
+            this.monitoredFile = monitoredFile;
+        }
+    }
+
+    private static final class Lane implements Runnable {
+        private final int index;
+        private final BlockingQueue<LaneEvent> queue;
+        private final MonitoredFileConsumer monitoredFileConsumer;
+        private Thread thread;
+        private volatile Throwable failure = null;
+        private volatile boolean dead = false;
+
+        private Lane(int index, int queueCapacity, MonitoredFileConsumer monitoredFileConsumer) {
+            this.index = index;
+            // not preallocated, there may be thousands of mostly idle lanes
+            this.queue = new LinkedBlockingQueue<>(queueCapacity);
+            this.monitoredFileConsumer = monitoredFileConsumer;
+        }
+
+        private void enqueue(LaneEvent laneEvent) throws InterruptedException {
+            while (!queue.offer(laneEvent, 100, TimeUnit.MILLISECONDS)) {
+                checkAlive();
+            }
+            checkAlive();
+        }
+
+        private void checkAlive() {
+            if (dead) {
+                throw new IllegalStateException("Lane <" + index + "> is dead", failure);
+            }
+        }
+
+        @Override
+        public void run() {
+            LOGGER.trace("Lane <{}> started", index);
+            try {
+                process();
+            }
+            catch (Throwable throwable) {
+                failure = throwable;
+                LOGGER.error("Lane <{}> died", index, throwable);
+            }
+            finally {
+                dead = true;
+                queue.clear();
+            }
+        }
+
+        private void process() {
+            while (true) {
+                LaneEvent laneEvent;
+                try {
+                    long nanosUntilFlush = monitoredFileConsumer.nanosUntilFlush();
+                    if (monitoredFileConsumer.hasContinuations()) {
+                        // continue unfinished reads while there is nothing else to do
+                        laneEvent = queue.poll();
+                    }
+                    else if (nanosUntilFlush != Long.MAX_VALUE) {
+                        // wake up for pending multi-line events
+                        laneEvent = queue.poll(nanosUntilFlush, TimeUnit.NANOSECONDS);
+                    }
+                    else {
+                        laneEvent = queue.take();
+                    }
+                }
+                catch (InterruptedException interruptedException) {
+                    LOGGER.warn("Lane <{}> interrupted, stopping", index);
+                    return;
+                }
+
+                if (laneEvent == LaneEvent.STOP) {
+                    LOGGER.trace("Lane <{}> stopped", index);
+                    return;
+                }
+
+                try {
+                    if (laneEvent == null) {
+                        monitoredFileConsumer.runContinuations();
+                        monitoredFileConsumer.flushPendingEvents();
+                    }
+                    else {
+                        monitoredFileConsumer.handle(laneEvent.monitoredFile);
+                    }
+                }
+                catch (RuntimeException runtimeException) {
+                    // offsets were not advanced past the failure, the file is read again on its next event
+                    LOGGER.error("Lane <{}> failed to process event", index, runtimeException);
+                }
+            }
+        }
+    }
+}
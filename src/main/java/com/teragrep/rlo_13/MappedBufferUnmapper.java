@@ -0,0 +1,83 @@
+/*
+   Java Stateful File Reader rlo_13
+   Copyright (C) 2023  Suomen Kanuuna Oy
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.teragrep.rlo_13;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+
+/**
+ * Releases a mapping right away instead of waiting for GC. There is no public API for it on Java 8, so the cleaner
+ * is looked up reflectively: Unsafe.invokeCleaner on Java 9+ and DirectBuffer.cleaner().clean() on Java 8. If
+ * neither is accessible the mapping is left for GC.
+ */
+final class MappedBufferUnmapper {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MappedBufferUnmapper.class);
+
+    private static final Unmap UNMAP = resolve();
+
+    private interface Unmap {
+        void unmap(ByteBuffer byteBuffer) throws ReflectiveOperationException;
+    }
+
+    private MappedBufferUnmapper() {
+
+    }
+
+    private static Unmap resolve() {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            Object unsafe = theUnsafe.get(null);
+            return byteBuffer -> invokeCleaner.invoke(unsafe, byteBuffer);
+        }
+        catch (ReflectiveOperationException | RuntimeException java9Exception) {
+            try {
+                Method cleanerMethod = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+                Method cleanMethod = Class.forName("sun.misc.Cleaner").getMethod("clean");
+                return byteBuffer -> {
+                    Object cleaner = cleanerMethod.invoke(byteBuffer);
+                    if (cleaner != null) {
+                        cleanMethod.invoke(cleaner);
+                    }
+                };
+            }
+            catch (ReflectiveOperationException | RuntimeException java8Exception) {
+                LOGGER.warn("Unmapping is not available, mapped buffers are released by GC: <{}>", java8Exception.toString());
+                return byteBuffer -> {
+                    // left for GC
+                };
+            }
+        }
+    }
+
+    static void unmap(MappedByteBuffer mappedByteBuffer) {
+        try {
+            UNMAP.unmap(mappedByteBuffer);
+        }
+        catch (ReflectiveOperationException | RuntimeException exception) {
+            LOGGER.warn("Unmapping failed, mapped buffer is released by GC", exception);
+        }
+    }
+}
@@ -17,7 +17,12 @@
 
 package com.teragrep.rlo_13;
 
+import com.google.common.hash.Hashing;
 import com.teragrep.rlo_12.MonitoredFile;
+import com.teragrep.rlo_13.framing.Framer;
+import com.teragrep.rlo_13.metrics.Metrics;
+import com.teragrep.rlo_13.statestore.Fingerprint;
+import com.teragrep.rlo_13.statestore.RestartPoint;
 import com.teragrep.rlo_13.statestore.StateStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -25,55 +30,338 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
 import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 class MonitoredFileConsumer implements Consumer<MonitoredFile> {
     private static final Logger LOGGER = LoggerFactory.getLogger(MonitoredFileConsumer.class);
+    // compressed files whose decompression state is kept between reads
+    private static final int SUSPENDED_GZIP_READERS = 8;
 
     private final FileChannelCache fileChannelCache;
     private final StateStore stateStore;
 
     private final Consumer<FileRecord> fileRecordConsumer;
 
+    // batch delivery, used instead of fileRecordConsumer when set
+    private final FileRecordBatchConsumer fileRecordBatchConsumer;
+    private final FileRecordBatch fileRecordBatch;
+
+    private final ByteBufferPool readBufferPool;
+    private final ByteBufferPool recordBufferPool;
+    private final ByteBufferPool batchBufferPool;
+
+    private final StatefulFileReaderConfig config;
+    private final Metrics metrics;
+    private final LagTracker lagTracker;
+
+    private final Framer framer;
+    // framers of path patterns, matched in order before falling back to framer
+    private final PathMatcher[] pathMatchers;
+    private final Framer[] pathFramers;
+
+    private final MultiLineAggregator multiLineAggregator; // null when records are not joined
+
+    private final PathMatcher gzipMatcher; // null without compressed files
+    private final ReadAhead readAhead; // null when reads are not pipelined
+    // suspended between reads of their files, least recently read first
+    private final Map<Path, GzipReader> gzipReaders = new LinkedHashMap<>(16, 0.75f, true);
+    private ByteBuffer fingerprintBuffer; // created for the first fingerprint
+
+    // files whose read slice ended before the end of file, in order of continuation
+    private final Set<Path> continuations = new LinkedHashSet<>();
+    // events are handled by one thread, pending multi-line events may be flushed by a timer of StatefulFileReader
+    private final ReentrantLock lock = new ReentrantLock();
+
     public MonitoredFileConsumer(FileChannelCache fileChannelCache, StateStore stateStore, Consumer<FileRecord> fileRecordConsumer) {
+        this(
+                fileChannelCache,
+                stateStore,
+                fileRecordConsumer,
+                new ByteBufferPool(32*1024, 1),
+                new ByteBufferPool(1024*1024, 1),
+                new StatefulFileReaderConfig()
+        );
+    }
+
+    public MonitoredFileConsumer(
+            FileChannelCache fileChannelCache,
+            StateStore stateStore,
+            Consumer<FileRecord> fileRecordConsumer,
+            ByteBufferPool readBufferPool,
+            ByteBufferPool recordBufferPool,
+            StatefulFileReaderConfig config
+    ) {
+        this(fileChannelCache, stateStore, fileRecordConsumer, readBufferPool, recordBufferPool, config, new LagTracker());
+    }
+
+    public MonitoredFileConsumer(
+            FileChannelCache fileChannelCache,
+            StateStore stateStore,
+            Consumer<FileRecord> fileRecordConsumer,
+            ByteBufferPool readBufferPool,
+            ByteBufferPool recordBufferPool,
+            StatefulFileReaderConfig config,
+            LagTracker lagTracker
+    ) {
+        this(fileChannelCache, stateStore, fileRecordConsumer, readBufferPool, recordBufferPool, config, lagTracker, null);
+    }
+
+    /**
+     * @param readAheadExecutor runs the read stage of pipelined reads, see
+     *                          {@link StatefulFileReaderConfig#setReadAheadBuffers(int)}, null reads without one
+     */
+    public MonitoredFileConsumer(
+            FileChannelCache fileChannelCache,
+            StateStore stateStore,
+            Consumer<FileRecord> fileRecordConsumer,
+            ByteBufferPool readBufferPool,
+            ByteBufferPool recordBufferPool,
+            StatefulFileReaderConfig config,
+            LagTracker lagTracker,
+            ExecutorService readAheadExecutor
+    ) {
         this.fileChannelCache = fileChannelCache;
         this.stateStore = stateStore;
         this.fileRecordConsumer = fileRecordConsumer;
+        this.fileRecordBatchConsumer = null;
+        this.fileRecordBatch = null;
+        this.readBufferPool = readBufferPool;
+        this.recordBufferPool = recordBufferPool;
+        this.batchBufferPool = null;
+        this.config = config;
+        this.metrics = config.getMetrics();
+        this.lagTracker = lagTracker;
+
+        this.framer = config.getFramerSupplier().get();
+        this.pathMatchers = pathMatchers(config);
+        this.pathFramers = pathFramers(config);
+        this.multiLineAggregator = multiLineAggregator(config);
+        this.gzipMatcher = gzipMatcher(config);
+        this.readAhead = readAhead(readAheadExecutor, readBufferPool, config);
+    }
+
+    public MonitoredFileConsumer(
+            FileChannelCache fileChannelCache,
+            StateStore stateStore,
+            FileRecordBatchConsumer fileRecordBatchConsumer,
+            ByteBufferPool readBufferPool,
+            ByteBufferPool recordBufferPool,
+            ByteBufferPool batchBufferPool,
+            StatefulFileReaderConfig config
+    ) {
+        this(
+                fileChannelCache,
+                stateStore,
+                fileRecordBatchConsumer,
+                readBufferPool,
+                recordBufferPool,
+                batchBufferPool,
+                config,
+                new LagTracker()
+        );
+    }
+
+    public MonitoredFileConsumer(
+            FileChannelCache fileChannelCache,
+            StateStore stateStore,
+            FileRecordBatchConsumer fileRecordBatchConsumer,
+            ByteBufferPool readBufferPool,
+            ByteBufferPool recordBufferPool,
+            ByteBufferPool batchBufferPool,
+            StatefulFileReaderConfig config,
+            LagTracker lagTracker
+    ) {
+        this(
+                fileChannelCache,
+                stateStore,
+                fileRecordBatchConsumer,
+                readBufferPool,
+                recordBufferPool,
+                batchBufferPool,
+                config,
+                lagTracker,
+                null
+        );
     }
 
-    void readFile(Path filePath) {
+    /**
+     * @param readAheadExecutor runs the read stage of pipelined reads, see
+     *                          {@link StatefulFileReaderConfig#setReadAheadBuffers(int)}, null reads without one
+     */
+    public MonitoredFileConsumer(
+            FileChannelCache fileChannelCache,
+            StateStore stateStore,
+            FileRecordBatchConsumer fileRecordBatchConsumer,
+            ByteBufferPool readBufferPool,
+            ByteBufferPool recordBufferPool,
+            ByteBufferPool batchBufferPool,
+            StatefulFileReaderConfig config,
+            LagTracker lagTracker,
+            ExecutorService readAheadExecutor
+    ) {
+        if (batchBufferPool.getStatistics().getBufferSize() < recordBufferPool.getStatistics().getBufferSize()) {
+            throw new IllegalArgumentException("Batch buffers must be able to hold a record of maximum size");
+        }
+        this.fileChannelCache = fileChannelCache;
+        this.stateStore = stateStore;
+        this.fileRecordConsumer = null;
+        this.fileRecordBatchConsumer = fileRecordBatchConsumer;
+        this.fileRecordBatch = new FileRecordBatch(config.getBatchMaximumRecords(), config.getBatchMaximumBytes());
+        this.readBufferPool = readBufferPool;
+        this.recordBufferPool = recordBufferPool;
+        this.batchBufferPool = batchBufferPool;
+        this.config = config;
+        this.metrics = config.getMetrics();
+        this.lagTracker = lagTracker;
+
+        this.framer = config.getFramerSupplier().get();
+        this.pathMatchers = pathMatchers(config);
+        this.pathFramers = pathFramers(config);
+        this.multiLineAggregator = multiLineAggregator(config);
+        this.gzipMatcher = gzipMatcher(config);
+        this.readAhead = readAhead(readAheadExecutor, readBufferPool, config);
+    }
+
+    private static PathMatcher[] pathMatchers(StatefulFileReaderConfig config) {
+        PathMatcher[] pathMatchers = new PathMatcher[config.getPathFramerSuppliers().size()];
+        int i = 0;
+        for (String syntaxAndPattern : config.getPathFramerSuppliers().keySet()) {
+            pathMatchers[i++] = FileSystems.getDefault().getPathMatcher(syntaxAndPattern);
+        }
+        return pathMatchers;
+    }
+
+    private static Framer[] pathFramers(StatefulFileReaderConfig config) {
+        Framer[] pathFramers = new Framer[config.getPathFramerSuppliers().size()];
+        int i = 0;
+        for (Supplier<Framer> framerSupplier : config.getPathFramerSuppliers().values()) {
+            pathFramers[i++] = framerSupplier.get();
+        }
+        return pathFramers;
+    }
+
+    private static MultiLineAggregator multiLineAggregator(StatefulFileReaderConfig config) {
+        if (!config.isMultiLineEnabled()) {
+            return null;
+        }
+        return new MultiLineAggregator(
+                config.getMultiLineStartPattern(),
+                config.getMultiLineContinuationPattern(),
+                config.getMultiLineMaximumBytes(),
+                config.getMultiLineFlushMillis()
+        );
+    }
+
+    private static PathMatcher gzipMatcher(StatefulFileReaderConfig config) {
+        if (config.getGzipPattern() == null) {
+            return null;
+        }
+        return FileSystems.getDefault().getPathMatcher(config.getGzipPattern());
+    }
+
+    private static ReadAhead readAhead(
+            ExecutorService readAheadExecutor,
+            ByteBufferPool readBufferPool,
+            StatefulFileReaderConfig config
+    ) {
+        if (readAheadExecutor == null || config.getReadAheadBuffers() == 0) {
+            return null;
+        }
+        return new ReadAhead(
+                readAheadExecutor,
+                readBufferPool.getStatistics().getBufferSize(),
+                config.getReadAheadBuffers()
+        );
+    }
+
+    private Framer framerOf(Path filePath) {
+        for (int i = 0; i < pathMatchers.length; i++) {
+            if (pathMatchers[i].matches(filePath)) {
+                return pathFramers[i];
+            }
+        }
+        return framer;
+    }
+
+    boolean readFile(Path filePath) {
+        return readFile(filePath, false);
+    }
+
+    /**
+     * @param bounded stop after the configured read slice and leave the rest for a continuation
+     * @return true if the file was read to its end, false if the slice ended first
+     */
+    boolean readFile(Path filePath, boolean bounded) {
+        return readFile(filePath, bounded, false);
+    }
+
+    /**
+     * @param endOfFile emit a pending multi-line event without waiting for its flush timeout, the file is not
+     * written to anymore
+     */
+    private boolean readFile(Path filePath, boolean bounded, boolean endOfFile) {
 
         // object to pass metadata within
         FileRecord fileRecord = new FileRecord(filePath);
 
-        FileChannel fileChannel = fileChannelCache.acquire(filePath);
-        if (fileChannel == null) {
+        FileChannelLease fileChannelLease = fileChannelCache.acquire(filePath);
+        if (fileChannelLease == null) {
             if(LOGGER.isTraceEnabled()) {
                 LOGGER.trace("Gave up on <[{}]> due to null FileChannel.",filePath);
             }
-            stateStore.deleteOffset(filePath);
-            return;
+            forgetOffset(filePath);
+            lagTracker.remove(filePath);
+            if (multiLineAggregator != null) {
+                multiLineAggregator.forget(filePath);
+            }
+            return true;
         }
+        // shared with other leases, read only with positional reads
+        FileChannel fileChannel = fileChannelLease.getFileChannel();
 
         if (LOGGER.isTraceEnabled()) {
             try {
-                LOGGER.trace("fileChannel position <{}> size <{}>", fileChannel.position(), fileChannel.size());
+                LOGGER.trace("fileChannel size <{}>", fileChannel.size());
             } catch (IOException ignored) {
 
             }
         }
 
 
-        ByteBuffer byteBuffer = ByteBuffer.allocateDirect(32*1024);
-        ByteBuffer outputBuffer = ByteBuffer.allocateDirect(1024*1024); // todo configurable
+        ByteBuffer byteBuffer = null; // not needed when the read is pipelined
+        ByteBuffer outputBuffer = recordBufferPool.acquire();
+        ByteBuffer recordView = outputBuffer.asReadOnlyBuffer(); // records are passed on as views of outputBuffer
+        ByteBuffer batchBuffer = null;
+
+
+        // partial frames of earlier reads are re-read
+        Framer framer = framerOf(filePath);
+        framer.reset();
+        if (multiLineAggregator != null) {
+            multiLineAggregator.clear();
+        }
 
+        // offsets of compressed files are offsets of the decompressed content
+        boolean compressed = gzipMatcher != null && gzipMatcher.matches(filePath);
 
-        long lastRecordEnd = stateStore.getOffset(filePath);
+        long lastRecordEnd = offsetOf(filePath, fileChannelLease);
         try {
-            if (fileChannel.size() < lastRecordEnd) {
+            if (!compressed && fileChannel.size() < lastRecordEnd) {
                 if(LOGGER.isTraceEnabled()) {
                     LOGGER.trace(
                             "Path <[{}]> truncated: size: <{}> is LT position <{}>.",
@@ -86,78 +374,662 @@ class MonitoredFileConsumer implements Consumer<MonitoredFile> {
                 stateStore.setOffset(filePath, lastRecordEnd);
             }
 
+            boolean fingerprinted = config.getFingerprintBytes() > 0 && !compressed;
+            Fingerprint fingerprint = null;
+            if (fingerprinted && lastRecordEnd > 0) {
+                fingerprint = stateStore.getFingerprint(filePath);
+                if (fingerprint != null && !isHeadOf(fileChannel, fingerprint)) {
+                    LOGGER.debug("Path <[{}]> rewritten, head differs from <{}>", filePath, fingerprint);
+                    fingerprint = null;
+                    lastRecordEnd = 0;
+                    stateStore.setOffset(filePath, lastRecordEnd);
+                }
+            }
+
+            if (fileRecordBatch != null) {
+                batchBuffer = batchBufferPool.acquire();
+                fileRecordBatch.reset(filePath, batchBuffer, lastRecordEnd);
+            }
+
             LOGGER.trace("lastRecordEnd <{}> for <{}>", lastRecordEnd, filePath);
 
-            fileChannel.position(lastRecordEnd);
             fileRecord.setStartOffset(lastRecordEnd); // set initial startingPosition
 
-            long bytesRead = 0;
-            while (fileChannel.position() < fileChannel.size()) {
-                bytesRead = fileChannel.read(byteBuffer);
+            ReadSlice readSlice;
+            if (bounded) {
+                readSlice = ReadSlice.bounded(lastRecordEnd, config);
+            }
+            else {
+                readSlice = ReadSlice.unbounded(lastRecordEnd);
+            }
+            boolean sliceExhausted = false;
 
-                if (bytesRead  < 1) {
-                    return;
+            if (compressed) {
+                lastRecordEnd = readCompressed(
+                        filePath,
+                        gzipReaderOf(filePath),
+                        fileChannel,
+                        framer,
+                        fileRecord,
+                        outputBuffer,
+                        recordView,
+                        lastRecordEnd
+                );
+            }
+            else {
+                long backlog = fileChannel.size() - lastRecordEnd;
+                if (backlog >= config.getMmapThreshold()) {
+                    try {
+                        lastRecordEnd = readMapped(
+                                fileChannel,
+                                framer,
+                                fileRecord,
+                                outputBuffer,
+                                recordView,
+                                lastRecordEnd,
+                                readSlice.limit(fileChannel.size()),
+                                readSlice
+                        );
+                    }
+                    catch (MappedAccessFault mappedAccessFault) {
+                        // file was truncated while mapped. continue from last full record
+                        LOGGER.warn(
+                                "Mapped read of <[{}]> faulted, falling back to FileChannel read: <{}>",
+                                filePath,
+                                mappedAccessFault.getCause().toString()
+                        );
+                        lastRecordEnd = fileRecord.getStartOffset();
+                        framer.reset();
+                        if (multiLineAggregator != null) {
+                            multiLineAggregator.clear();
+                        }
+                        outputBuffer.clear();
+                    }
                 }
 
-                byteBuffer.flip(); // reading
-                while (byteBuffer.hasRemaining()) {
-                    byte b = byteBuffer.get();
+                // partial record from mapped read, if any, is already in the outputBuffer
+                long readPosition = lastRecordEnd + framer.getFrameBytes();
+                if (multiLineAggregator != null) {
+                    readPosition = readPosition + multiLineAggregator.getEventFrameBytes();
+                }
 
-                    boolean maximumRecordSize = outputBuffer.position() == outputBuffer.capacity() - 1;
+                long unread = fileChannel.size() - readPosition;
+                if (readAhead != null && unread > 0 && unread >= config.getReadAheadThresholdBytes()) {
+                    readAhead.start(fileChannel, readPosition);
+                    try {
+                        while (true) {
+                            if (readSlice.isExhausted(lastRecordEnd, readPosition)) {
+                                LOGGER.trace("Read slice of <[{}]> exhausted at <{}>", filePath, lastRecordEnd);
+                                sliceExhausted = true;
+                                break;
+                            }
 
-                    if (b != '\n' && !maximumRecordSize) {
-                        outputBuffer.put(b);
+                            ByteBuffer readAheadBuffer = readAhead.take();
+                            if (readAheadBuffer == null) {
+                                break;
+                            }
+                            try {
+                                metrics.bytesRead(readAheadBuffer.remaining());
+                                readPosition = readPosition + readAheadBuffer.remaining();
+                                lastRecordEnd = frameRecords(readAheadBuffer, framer, fileRecord, outputBuffer, recordView, lastRecordEnd);
+                            }
+                            finally {
+                                readAhead.release(readAheadBuffer);
+                            }
+                        }
                     }
-                    else {
-                        outputBuffer.put(b);
-                        long recordEnd = lastRecordEnd + outputBuffer.position();
-                        outputBuffer.flip();
-
-
-                        if (LOGGER.isTraceEnabled()) {
-                            LOGGER.trace(
-                                    "Produced fileRecord from start <{}> end <{}>, maximumRecordSize <{}>",
-                                    lastRecordEnd,
-                                    recordEnd,
-                                    maximumRecordSize
-                            );
+                    finally {
+                        // the channel is released after this
+                        readAhead.stop();
+                    }
+                }
+                else {
+                    long bytesRead = 0;
+                    byteBuffer = readBufferPool.acquire();
+                    while (readPosition < fileChannel.size()) {
+                        if (readSlice.isExhausted(lastRecordEnd, readPosition)) {
+                            // partial record is re-read by the continuation
+                            LOGGER.trace("Read slice of <[{}]> exhausted at <{}>", filePath, lastRecordEnd);
+                            sliceExhausted = true;
+                            break;
                         }
 
-                        byte[] bytes = new byte[outputBuffer.remaining()];
-                        outputBuffer.get(bytes);
-
-                        fileRecord.setEndOffset(recordEnd);
-                        fileRecord.setRecord(bytes);
-                        //LOGGER.info("bytesRead <{}>", bytesRead);
-
-                        fileRecordConsumer.accept(fileRecord);
-
-                        // record complete
+                        bytesRead = fileChannel.read(byteBuffer, readPosition);
 
+                        if (bytesRead  < 1) {
+                            return true;
+                        }
+                        metrics.bytesRead(bytesRead);
+                        readPosition = readPosition + bytesRead;
 
-                        // for next one
-                        fileRecord.setStartOffset(recordEnd); // next if any
-                        lastRecordEnd = recordEnd;
-                        fileRecord.setRecord(new byte[0]); // clear record
-                        outputBuffer.clear();
+                        byteBuffer.flip(); // reading
+                        lastRecordEnd = frameRecords(byteBuffer, framer, fileRecord, outputBuffer, recordView, lastRecordEnd);
+                        byteBuffer.clear();
                     }
-                    bytesRead--;
                 }
-                byteBuffer.clear();
+            }
+            if (multiLineAggregator != null) {
+                lastRecordEnd = endMultiLineRead(
+                        filePath,
+                        framer,
+                        fileRecord,
+                        outputBuffer,
+                        recordView,
+                        lastRecordEnd,
+                        sliceExhausted,
+                        endOfFile
+                );
+            }
+            if (fileRecordBatch != null && !fileRecordBatch.isEmpty()) {
+                deliverBatch();
+            }
+            Fingerprint head = null;
+            if (fingerprinted) {
+                // doubled up to fingerprintBytes as the file is read, the head is not read again after that
+                int length = (int) Math.min(config.getFingerprintBytes(), lastRecordEnd);
+                boolean grown = fingerprint == null ? length > 0 : length > fingerprint.getLength()
+                        && (length == config.getFingerprintBytes() || length >= 2L * fingerprint.getLength());
+                if (grown) {
+                    head = fingerprintOf(fileChannel, length);
+                }
             }
             // persistence at lastRecordStart, partial ones will be re-read
-            stateStore.setOffset(filePath, lastRecordEnd);
+            if (head == null) {
+                stateStore.setOffset(filePath, lastRecordEnd);
+            }
+            else {
+                // one commit for both
+                stateStore.setOffset(filePath, lastRecordEnd, head);
+            }
+            if (compressed) {
+                lagTracker.update(filePath, fileChannel.size(), gzipReaderOf(filePath).getCompressedPosition());
+            }
+            else {
+                lagTracker.update(filePath, fileChannel.size(), lastRecordEnd);
+            }
+            return !sliceExhausted;
         }
         catch (IOException ioException) {
             throw new UncheckedIOException(ioException);
         }
         finally {
-            fileChannelCache.release(filePath);
+            if (byteBuffer != null) {
+                readBufferPool.release(byteBuffer);
+            }
+            recordBufferPool.release(outputBuffer);
+            if (batchBuffer != null) {
+                batchBufferPool.release(batchBuffer);
+            }
+            fileChannelLease.close();
+        }
+    }
+
+    private GzipReader gzipReaderOf(Path filePath) {
+        GzipReader gzipReader = gzipReaders.get(filePath);
+        if (gzipReader == null) {
+            if (gzipReaders.size() >= SUSPENDED_GZIP_READERS) {
+                Iterator<GzipReader> leastRecentlyRead = gzipReaders.values().iterator();
+                leastRecentlyRead.next().close();
+                leastRecentlyRead.remove();
+            }
+            gzipReader = new GzipReader(metrics);
+            gzipReaders.put(filePath, gzipReader);
+        }
+        return gzipReader;
+    }
+
+    private void closeGzipReader(Path filePath) {
+        GzipReader gzipReader = gzipReaders.remove(filePath);
+        if (gzipReader != null) {
+            gzipReader.close();
+        }
+    }
+
+    /**
+     * Continues decompressing where the previous read of the file stopped, or from the latest restart point at or
+     * before lastRecordEnd, and frames the content after lastRecordEnd.
+     * @return end offset of the last emitted record
+     */
+    private long readCompressed(
+            Path filePath,
+            GzipReader gzipReader,
+            FileChannel fileChannel,
+            Framer framer,
+            FileRecord fileRecord,
+            ByteBuffer outputBuffer,
+            ByteBuffer recordView,
+            long lastRecordEnd
+    ) throws IOException {
+        RestartPoint restartPoint = stateStore.getRestartPoint(filePath);
+        if (restartPoint == null || restartPoint.getUncompressedOffset() > lastRecordEnd) {
+            // none yet, or ahead of an offset not committed before a crash
+            restartPoint = new RestartPoint(0, 0);
+        }
+
+        boolean read = false;
+        try {
+            if (gzipReader.resume(fileChannel, lastRecordEnd)) {
+                LOGGER.trace("Decompressing <[{}]> from <{}> where the previous read stopped", filePath, lastRecordEnd);
+            }
+            else {
+                LOGGER.trace("Decompressing <[{}]> from <{}>", filePath, restartPoint);
+                gzipReader.open(fileChannel, restartPoint, lastRecordEnd);
+            }
+
+            RestartPoint nextRestartPoint = restartPoint;
+            while (true) {
+                ByteBuffer decompressed = gzipReader.read();
+                // usable once every record before it is emitted
+                if (gzipReader.getRestartPoint().getUncompressedOffset() <= lastRecordEnd) {
+                    nextRestartPoint = gzipReader.getRestartPoint();
+                }
+                if (decompressed == null) {
+                    break;
+                }
+                lastRecordEnd = frameRecords(decompressed, framer, fileRecord, outputBuffer, recordView, lastRecordEnd);
+                gzipReader.retainUnframed(lastRecordEnd);
+            }
+            read = true;
+
+            long sinceRestartPoint = nextRestartPoint.getUncompressedOffset() - restartPoint.getUncompressedOffset();
+            if (sinceRestartPoint >= config.getGzipRestartPointInterval()) {
+                stateStore.setRestartPoint(filePath, nextRestartPoint);
+            }
+            return lastRecordEnd;
+        }
+        finally {
+            if (!read) {
+                // state of the reader is not known, the next read opens it again
+                closeGzipReader(filePath);
+            }
+        }
+    }
+
+    private long readMapped(
+            FileChannel fileChannel,
+            Framer framer,
+            FileRecord fileRecord,
+            ByteBuffer outputBuffer,
+            ByteBuffer recordView,
+            long lastRecordEnd,
+            long mappedEnd,
+            ReadSlice readSlice
+    ) throws IOException {
+        long windowStart = lastRecordEnd;
+        while (windowStart < mappedEnd) {
+            if (readSlice.isExhausted(lastRecordEnd, windowStart)) {
+                // channel path stops right away too
+                break;
+            }
+
+            // do not map past a truncated end, channel path handles the rest
+            if (fileChannel.size() < mappedEnd) {
+                LOGGER.trace("Size decreased below <{}> during mapped read", mappedEnd);
+                break;
+            }
+
+            long windowSize = Math.min(config.getMmapWindowSize(), mappedEnd - windowStart);
+            MappedByteBuffer window = fileChannel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowSize);
+            try {
+                window.order(ByteOrder.nativeOrder());
+                lastRecordEnd = frameRecords(window, framer, fileRecord, outputBuffer, recordView, lastRecordEnd);
+                metrics.bytesRead(windowSize);
+            }
+            finally {
+                MappedBufferUnmapper.unmap(window);
+            }
+            windowStart = windowStart + windowSize;
+        }
+        return lastRecordEnd;
+    }
+
+    /**
+     * Frames remaining bytes of source into outputBuffer and emits each completed record.
+     * @return end offset of the last emitted record
+     */
+    private long frameRecords(
+            ByteBuffer source,
+            Framer framer,
+            FileRecord fileRecord,
+            ByteBuffer outputBuffer,
+            ByteBuffer recordView,
+            long lastRecordEnd
+    ) {
+        while (source.hasRemaining()) {
+            boolean complete;
+            try {
+                complete = framer.frame(source, outputBuffer);
+            }
+            catch (InternalError internalError) {
+                // access fault on a mapping surfaces as InternalError, only framing touches the mapped source
+                if (source instanceof MappedByteBuffer) {
+                    throw new MappedAccessFault(internalError);
+                }
+                throw internalError;
+            }
+            boolean maximumRecordSize = !complete && !outputBuffer.hasRemaining();
+
+            if (multiLineAggregator != null && multiLineAggregator.getEventLength() > 0) {
+                if (complete) {
+                    boolean continuation = multiLineAggregator.isContinuation(
+                            outputBuffer,
+                            multiLineAggregator.getEventLength(),
+                            outputBuffer.position()
+                    );
+                    if (!continuation || multiLineAggregator.isFull(outputBuffer.position())) {
+                        lastRecordEnd = emitEvent(fileRecord, outputBuffer, recordView, lastRecordEnd);
+                    }
+                    multiLineAggregator.join(outputBuffer.position(), framer.getFrameBytes());
+                    framer.next();
+                }
+                else if (maximumRecordSize) {
+                    // record continues in the room left by the event
+                    lastRecordEnd = emitEvent(fileRecord, outputBuffer, recordView, lastRecordEnd);
+                }
+            }
+            else if (multiLineAggregator != null && complete) {
+                // first record of an event
+                multiLineAggregator.join(outputBuffer.position(), framer.getFrameBytes());
+                framer.next();
+            }
+            else if (complete || maximumRecordSize) {
+                lastRecordEnd = emitRecord(
+                        fileRecord,
+                        recordView,
+                        lastRecordEnd,
+                        outputBuffer.position(),
+                        framer.getFrameBytes(),
+                        maximumRecordSize
+                );
+                outputBuffer.clear();
+                framer.next();
+            }
+        }
+        return lastRecordEnd;
+    }
+
+    /**
+     * @return end offset of the record
+     */
+    private long emitRecord(
+            FileRecord fileRecord,
+            ByteBuffer recordView,
+            long lastRecordEnd,
+            int recordLength,
+            long frameBytes,
+            boolean maximumRecordSize
+    ) {
+        long recordEnd = lastRecordEnd + frameBytes;
+
+
+        if (LOGGER.isTraceEnabled()) {
+            LOGGER.trace(
+                    "Produced fileRecord from start <{}> end <{}>, maximumRecordSize <{}>",
+                    lastRecordEnd,
+                    recordEnd,
+                    maximumRecordSize
+            );
+        }
+
+        fileRecord.setEndOffset(recordEnd);
+        fileRecord.setRecordBuffer(recordView, recordLength);
+
+        emit(fileRecord);
+        metrics.recordEmitted();
+        if (maximumRecordSize) {
+            metrics.recordSplit();
+        }
+
+        // record complete
+
+
+        // for next one
+        fileRecord.setStartOffset(recordEnd); // next if any
+        fileRecord.clearRecord();
+        return recordEnd;
+    }
+
+    /**
+     * Emits the multi-line event at the beginning of outputBuffer and moves the bytes after it to the beginning.
+     * @return end offset of the event
+     */
+    private long emitEvent(FileRecord fileRecord, ByteBuffer outputBuffer, ByteBuffer recordView, long lastRecordEnd) {
+        int eventLength = multiLineAggregator.getEventLength();
+        long eventEnd = emitRecord(
+                fileRecord,
+                recordView,
+                lastRecordEnd,
+                eventLength,
+                multiLineAggregator.getEventFrameBytes(),
+                false
+        );
+        outputBuffer.flip();
+        outputBuffer.position(eventLength);
+        outputBuffer.compact();
+        multiLineAggregator.clear();
+        return eventEnd;
+    }
+
+    /**
+     * The last event of a read may still be continued by records not yet written. It is emitted once the file has
+     * not grown for the flush timeout, its offset is committed only then.
+     * @return end offset of the last emitted record
+     */
+    private long endMultiLineRead(
+            Path filePath,
+            Framer framer,
+            FileRecord fileRecord,
+            ByteBuffer outputBuffer,
+            ByteBuffer recordView,
+            long lastRecordEnd,
+            boolean sliceExhausted,
+            boolean endOfFile
+    ) {
+        if (multiLineAggregator.getEventLength() == 0 || sliceExhausted) {
+            multiLineAggregator.forget(filePath);
+            return lastRecordEnd;
+        }
+
+        long pendingEnd = lastRecordEnd + multiLineAggregator.getEventFrameBytes() + framer.getFrameBytes();
+        if (endOfFile) {
+            multiLineAggregator.forget(filePath);
+        }
+        else if (!multiLineAggregator.isFlushDue(filePath, pendingEnd)) {
+            LOGGER.trace("Multi-line event of <[{}]> pending up to <{}>", filePath, pendingEnd);
+            return lastRecordEnd;
+        }
+        return emitEvent(fileRecord, outputBuffer, recordView, lastRecordEnd);
+    }
+
+    private void emit(FileRecord fileRecord) {
+        if (fileRecordBatch == null) {
+            fileRecordConsumer.accept(fileRecord);
+            return;
+        }
+
+        if (!fileRecordBatch.hasRoom(fileRecord.getRecordLength())) {
+            deliverBatch();
+        }
+        fileRecordBatch.add(fileRecord);
+        if (fileRecordBatch.isFull()) {
+            deliverBatch();
+        }
+    }
+
+    private void deliverBatch() {
+        if (LOGGER.isTraceEnabled()) {
+            LOGGER.trace("Delivering <{}>", fileRecordBatch);
+        }
+        fileRecordBatchConsumer.accept(fileRecordBatch);
+
+        // acknowledged
+        long batchEnd = fileRecordBatch.getEndOffset();
+        stateStore.setOffset(fileRecordBatch.getFilePath(), batchEnd);
+        fileRecordBatch.clear(batchEnd);
+    }
+
+    private void readSlice(Path filePath) {
+        if (!readFile(filePath, true)) {
+            continuations.add(filePath);
+        }
+    }
+
+    /**
+     * Reads one slice of each file left unfinished by earlier slices, so a large backlog drains a slice per event
+     * while other files are served in between.
+     */
+    void runContinuations() {
+        lock.lock();
+        try {
+            int pending = continuations.size();
+            for (int i = 0; i < pending && !continuations.isEmpty(); i++) {
+                Iterator<Path> iterator = continuations.iterator();
+                Path filePath = iterator.next();
+                iterator.remove();
+
+                if (LOGGER.isTraceEnabled()) {
+                    LOGGER.trace("Continuing read of <[{}]>", filePath);
+                }
+                readSlice(filePath); // back to the end if still unfinished
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    boolean hasContinuations() {
+        return !continuations.isEmpty();
+    }
+
+    /**
+     * @return nanoseconds until a pending multi-line event is due to be flushed, Long.MAX_VALUE if there is none
+     */
+    long nanosUntilFlush() {
+        if (multiLineAggregator == null || !multiLineAggregator.hasPendingEvents()) {
+            return Long.MAX_VALUE;
+        }
+        return multiLineAggregator.nanosUntilFlush();
+    }
+
+    /**
+     * Reads files whose pending multi-line event is due, emitting the event unless the file has grown. A failed flush
+     * is logged and retried later.
+     */
+    void flushPendingEvents() {
+        lock.lock();
+        try {
+            if (multiLineAggregator == null || !multiLineAggregator.hasPendingEvents()) {
+                return;
+            }
+            for (Path filePath : multiLineAggregator.flushDue()) {
+                if (LOGGER.isTraceEnabled()) {
+                    LOGGER.trace("Flushing multi-line event of <[{}]>", filePath);
+                }
+                try {
+                    readSlice(filePath);
+                }
+                catch (RuntimeException runtimeException) {
+                    multiLineAggregator.postpone(filePath);
+                    LOGGER.error("Flush of multi-line event of <[{}]> failed", filePath, runtimeException);
+                }
+            }
+        }
+        finally {
+            lock.unlock();
         }
     }
 
+    /**
+     * Flushes due multi-line events unless an event is being handled, which flushes them itself when done.
+     */
+    void flushPendingEventsIfIdle() {
+        if (lock.tryLock()) {
+            try {
+                flushPendingEvents();
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private boolean isHeadOf(FileChannel fileChannel, Fingerprint fingerprint) throws IOException {
+        Fingerprint head = fingerprintOf(fileChannel, fingerprint.getLength());
+        return head != null && head.getHash() == fingerprint.getHash();
+    }
+
+    /**
+     * @return fingerprint of the first length bytes of the file, null if it is shorter
+     */
+    private Fingerprint fingerprintOf(FileChannel fileChannel, int length) throws IOException {
+        if (fingerprintBuffer == null || fingerprintBuffer.capacity() < length) {
+            fingerprintBuffer = ByteBuffer.allocate(length);
+        }
+        fingerprintBuffer.clear().limit(length);
+        while (fingerprintBuffer.hasRemaining()) {
+            if (fileChannel.read(fingerprintBuffer, fingerprintBuffer.position()) < 1) {
+                return null;
+            }
+        }
+        return new Fingerprint(length, Hashing.murmur3_128().hashBytes(fingerprintBuffer.array(), 0, length).asLong());
+    }
+
+    /**
+     * Offset of the file of the lease. The first read of a channel with a file key resolves it against the
+     * StateStore, so that a renamed file continues from the offset of its former path.
+     */
+    private long offsetOf(Path filePath, FileChannelLease fileChannelLease) {
+        Object fileKey = fileChannelLease.getFileKey();
+        if (fileKey == null || fileChannelLease.isIdentityResolved()) {
+            return stateStore.getOffset(filePath);
+        }
+        long offset = stateStore.resolveOffset(filePath, fileKey);
+        fileChannelLease.identityResolved();
+        return offset;
+    }
+
+    private void forgetOffset(Path filePath) {
+        closeGzipReader(filePath);
+        if (!config.isFileIdentity()) {
+            stateStore.deleteOffset(filePath);
+        }
+        // otherwise kept for the file if it was renamed, removed by garbage collection once its path is gone
+    }
+
+    /**
+     * Handles the event, then keeps reading slices of unfinished files in turn until every file is read to its end.
+     * Without dispatcher lanes no other thread resumes them, an unfinished file would wait for its next event.
+     */
     @Override
     public void accept(MonitoredFile monitoredFile) {
+        lock.lock();
+        try {
+            handle(monitoredFile);
+            while (hasContinuations()) {
+                runContinuations();
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Handles the event and reads one slice of each file left unfinished by earlier events. Lanes resume the rest
+     * while idle.
+     */
+    void handle(MonitoredFile monitoredFile) {
+        lock.lock();
+        try {
+            handleEvent(monitoredFile);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private void handleEvent(MonitoredFile monitoredFile) {
         if(LOGGER.isTraceEnabled()) {
             LOGGER.trace(
                     "Accept path <[{}]> with status <{}>",
@@ -169,30 +1041,46 @@ class MonitoredFileConsumer implements Consumer<MonitoredFile> {
         if (LOGGER.isTraceEnabled()) {
             LOGGER.trace("<{}> entry for <{}>", monitoredFile.getStatus(), monitoredFile.getPath());
         }
+        // handled now, continued below if needed
+        continuations.remove(monitoredFile.getPath());
+
         switch (monitoredFile.getStatus()) {
             case SYNC_NEW:
-                readFile(monitoredFile.getPath());
+                readSlice(monitoredFile.getPath());
                 break;
             case SYNC_MODIFIED:
-                readFile(monitoredFile.getPath());
+                readSlice(monitoredFile.getPath());
                 break;
             case SYNC_DELETED:
-                readFile(monitoredFile.getPath());
+                readFile(monitoredFile.getPath(), false, true);
                 fileChannelCache.invalidate(monitoredFile.getPath());
-                stateStore.deleteOffset(monitoredFile.getPath());
+                forgetOffset(monitoredFile.getPath());
+                lagTracker.remove(monitoredFile.getPath());
                 break;
             case SYNC_RECREATED:
-                readFile(monitoredFile.getPath());
+                readFile(monitoredFile.getPath(), false, true);
                 fileChannelCache.invalidate(monitoredFile.getPath());
-                stateStore.deleteOffset(monitoredFile.getPath());
-                readFile(monitoredFile.getPath());
+                forgetOffset(monitoredFile.getPath());
+                readSlice(monitoredFile.getPath());
                 break;
             default:
                 throw new IllegalStateException("monitoredFile.getStatus() provided invalid state <" + monitoredFile.getStatus() + ">");
         }
 
+        runContinuations();
+        flushPendingEvents();
+
         if(LOGGER.isTraceEnabled()) {
             LOGGER.trace("<{}> exit for <{}>", monitoredFile.getStatus(), monitoredFile.getPath());
         }
     }
+
+    /**
+     * InternalError of an access to a mapped window, as opposed to one thrown by the consumer of the records.
+     */
+    private static final class MappedAccessFault extends RuntimeException {
+        private MappedAccessFault(InternalError internalError) {
+            super(internalError);
+        }
+    }
 }
@@ -0,0 +1,170 @@
+/*
+   Java Stateful File Reader rlo_13
+   Copyright (C) 2023  Suomen Kanuuna Oy
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.teragrep.rlo_13;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Joins records into multi-line events for MonitoredFileConsumer. Records are matched in place in the record buffer,
+ * see {@link StatefulFileReaderConfig#setMultiLineStartPattern(String)}. Also keeps the events left pending at the
+ * end of files, so they are flushed once no record has been added to them for the flush timeout.
+ */
+class MultiLineAggregator {
+
+    private final Matcher startMatcher; // null if not set
+    private final Matcher continuationMatcher; // null if not set
+    private final ByteBufferCharSequence record = new ByteBufferCharSequence();
+    private final int maximumBytes;
+    private final long flushNanos;
+
+    private final Map<Path, PendingEvent> pendingEvents = new HashMap<>();
+
+    // event being aggregated, starts at the beginning of the record buffer
+    private int eventLength;
+    private long eventFrameBytes;
+
+    MultiLineAggregator(Pattern startPattern, Pattern continuationPattern, int maximumBytes, long flushMillis) {
+        if (startPattern == null && continuationPattern == null) {
+            throw new IllegalArgumentException("startPattern or continuationPattern must be set");
+        }
+        this.startMatcher = startPattern == null ? null : startPattern.matcher("");
+        this.continuationMatcher = continuationPattern == null ? null : continuationPattern.matcher("");
+        this.maximumBytes = maximumBytes;
+        this.flushNanos = TimeUnit.MILLISECONDS.toNanos(flushMillis);
+    }
+
+    /**
+     * @return true if the record at [start, end) of the buffer continues the event before it
+     */
+    boolean isContinuation(ByteBuffer buffer, int start, int end) {
+        record.reset(buffer, start, end);
+        if (continuationMatcher != null && continuationMatcher.reset(record).lookingAt()) {
+            return true;
+        }
+        return startMatcher != null && !startMatcher.reset(record).lookingAt();
+    }
+
+    /**
+     * @return true if an event of eventLength bytes can not take more records
+     */
+    boolean isFull(int eventLength) {
+        return eventLength > maximumBytes;
+    }
+
+    void join(int eventLength, long frameBytes) {
+        this.eventLength = eventLength;
+        this.eventFrameBytes += frameBytes;
+    }
+
+    void clear() {
+        eventLength = 0;
+        eventFrameBytes = 0;
+    }
+
+    int getEventLength() {
+        return eventLength;
+    }
+
+    long getEventFrameBytes() {
+        return eventFrameBytes;
+    }
+
+    /**
+     * Called when a read of the file ends with a pending event.
+     *
+     * @param pendingEnd offset up to which the file was read
+     * @return true if the file has not grown since the flush timeout started, so the event is to be emitted
+     */
+    boolean isFlushDue(Path filePath, long pendingEnd) {
+        long now = System.nanoTime();
+        PendingEvent pendingEvent = pendingEvents.get(filePath);
+        if (pendingEvent != null && pendingEvent.end == pendingEnd) {
+            if (now - pendingEvent.deadline >= 0) {
+                pendingEvents.remove(filePath);
+                return true;
+            }
+            return false;
+        }
+        pendingEvents.put(filePath, new PendingEvent(pendingEnd, now + flushNanos));
+        return false;
+    }
+
+    /**
+     * Moves the flush deadline of the pending event of the file after a failed flush, by the flush time but at least
+     * a second so that a failing file is not retried in a loop.
+     */
+    void postpone(Path filePath) {
+        PendingEvent pendingEvent = pendingEvents.get(filePath);
+        if (pendingEvent != null) {
+            long retryNanos = Math.max(flushNanos, TimeUnit.SECONDS.toNanos(1));
+            pendingEvents.put(filePath, new PendingEvent(pendingEvent.end, System.nanoTime() + retryNanos));
+        }
+    }
+
+    void forget(Path filePath) {
+        pendingEvents.remove(filePath);
+    }
+
+    boolean hasPendingEvents() {
+        return !pendingEvents.isEmpty();
+    }
+
+    /**
+     * @return nanoseconds until the earliest flush deadline, not negative
+     */
+    long nanosUntilFlush() {
+        long now = System.nanoTime();
+        long nanos = Long.MAX_VALUE;
+        for (PendingEvent pendingEvent : pendingEvents.values()) {
+            nanos = Math.min(nanos, Math.max(0, pendingEvent.deadline - now));
+        }
+        return nanos;
+    }
+
+    /**
+     * @return files whose flush deadline has passed
+     */
+    List<Path> flushDue() {
+        long now = System.nanoTime();
+        List<Path> due = new ArrayList<>();
+        for (Map.Entry<Path, PendingEvent> entry : pendingEvents.entrySet()) {
+            if (now - entry.getValue().deadline >= 0) {
+                due.add(entry.getKey());
+            }
+        }
+        return due;
+    }
+
+    private static final class PendingEvent {
+        private final long end;
+        private final long deadline;
+
+        private PendingEvent(long end, long deadline) {
+            this.end = end;
+            this.deadline = deadline;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/*
+   Java Stateful File Reader rlo_13
+   Copyright (C) 2023  Suomen Kanuuna Oy
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.teragrep.rlo_13;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Read stage of a pipelined read. A task on the executor reads the file ahead into a fixed number of buffers while
+ * the caller frames the ones already read. Once all buffers are filled the task waits for the caller to hand one
+ * back, so a slow consumer holds reading back instead of growing memory. The buffers are its own, allocated on the
+ * first read and kept for the next ones, so read stages do not compete for the shared read buffers. Not thread
+ * safe, one read at a time.
+ */
+final class ReadAhead {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReadAhead.class);
+
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    private final ExecutorService executor;
+    private final int bufferSize;
+    private final int buffers;
+
+    private final List<ByteBuffer> owned = new ArrayList<>();
+    private final BlockingQueue<ByteBuffer> free;
+    private final BlockingQueue<ByteBuffer> filled;
+
+    private volatile boolean stopped;
+    private volatile IOException failure;
+    private volatile long readPosition;
+    private Future<?> task; // null when not reading
+
+    ReadAhead(ExecutorService executor, int bufferSize, int buffers) {
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("bufferSize must be positive, got <" + bufferSize + ">");
+        }
+        if (buffers < 1) {
+            throw new IllegalArgumentException("buffers must be positive, got <" + buffers + ">");
+        }
+        this.executor = executor;
+        this.bufferSize = bufferSize;
+        this.buffers = buffers;
+        this.free = new ArrayBlockingQueue<>(buffers);
+        this.filled = new ArrayBlockingQueue<>(buffers + 1); // room for END
+    }
+
+    /**
+     * Starts reading fileChannel from position until its end, with positional reads only.
+     */
+    void start(FileChannel fileChannel, long position) {
+        if (task != null) {
+            throw new IllegalStateException("ReadAhead already started");
+        }
+        while (owned.size() < buffers) {
+            owned.add(ByteBuffer.allocateDirect(bufferSize).order(ByteOrder.nativeOrder()));
+        }
+        free.addAll(owned);
+        stopped = false;
+        failure = null;
+        readPosition = position;
+        try {
+            task = executor.submit(() -> read(fileChannel, position));
+        }
+        catch (RejectedExecutionException rejectedExecutionException) {
+            reset();
+            throw rejectedExecutionException;
+        }
+    }
+
+    private void read(FileChannel fileChannel, long position) {
+        try {
+            while (!stopped && position < fileChannel.size()) {
+                ByteBuffer byteBuffer = free.take();
+                if (stopped) {
+                    break;
+                }
+                byteBuffer.clear();
+                int bytesRead = fileChannel.read(byteBuffer, position);
+                if (bytesRead < 1) {
+                    break;
+                }
+                position = position + bytesRead;
+                readPosition = position;
+                byteBuffer.flip();
+                filled.add(byteBuffer);
+            }
+        }
+        catch (IOException ioException) {
+            failure = ioException;
+        }
+        catch (InterruptedException interruptedException) {
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            filled.add(END);
+        }
+    }
+
+    /**
+     * @return next bytes of the file in order, flipped, to be handed back with {@link #release(ByteBuffer)}. Null
+     * once the end of the file is reached.
+     */
+    ByteBuffer take() throws IOException {
+        ByteBuffer byteBuffer;
+        try {
+            byteBuffer = filled.take();
+        }
+        catch (InterruptedException interruptedException) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for read ahead", interruptedException);
+        }
+        if (byteBuffer == END) {
+            if (failure != null) {
+                throw failure;
+            }
+            return null;
+        }
+        return byteBuffer;
+    }
+
+    void release(ByteBuffer byteBuffer) {
+        free.add(byteBuffer);
+    }
+
+    /**
+     * @return position up to which the read stage has read the file
+     */
+    long getReadPosition() {
+        return readPosition;
+    }
+
+    /**
+     * Stops reading and waits for the read task, the channel must not be released before. Every taken buffer must be
+     * released first.
+     */
+    void stop() {
+        if (task == null) {
+            return;
+        }
+        stopped = true;
+        // a task waiting for a buffer gets one and sees it is stopped
+        ByteBuffer unread = filled.poll();
+        while (unread != null) {
+            if (unread != END) {
+                free.add(unread);
+            }
+            unread = filled.poll();
+        }
+        try {
+            task.get();
+        }
+        catch (InterruptedException interruptedException) {
+            // the task may still be reading into a buffer, leave them to GC
+            Thread.currentThread().interrupt();
+            LOGGER.warn("Interrupted while stopping read ahead, its buffers are not reused");
+            owned.clear();
+            reset();
+            return;
+        }
+        catch (ExecutionException executionException) {
+            reset();
+            throw new IllegalStateException("Read ahead failed", executionException.getCause());
+        }
+        reset();
+    }
+
+    private void reset() {
+        free.clear();
+        filled.clear();
+        task = null;
+    }
+}
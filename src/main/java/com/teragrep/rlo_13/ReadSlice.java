@@ -0,0 +1,75 @@
+/*
+   Java Stateful File Reader rlo_13
+   Copyright (C) 2023  Suomen Kanuuna Oy
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.teragrep.rlo_13;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Byte and time budget of one readFile invocation.
+ */
+final class ReadSlice {
+
+    private final long startOffset;
+    private final long maximumBytes;
+    private final long startNanos;
+    private final long maximumNanos;
+
+    private ReadSlice(long startOffset, long maximumBytes, long maximumMillis) {
+        this.startOffset = startOffset;
+        this.maximumBytes = maximumBytes;
+        if (maximumMillis == Long.MAX_VALUE) {
+            this.startNanos = 0;
+            this.maximumNanos = Long.MAX_VALUE;
+        }
+        else {
+            this.startNanos = System.nanoTime();
+            this.maximumNanos = TimeUnit.MILLISECONDS.toNanos(maximumMillis);
+        }
+    }
+
+    static ReadSlice bounded(long startOffset, StatefulFileReaderConfig config) {
+        return new ReadSlice(startOffset, config.getReadSliceBytes(), config.getReadSliceMillis());
+    }
+
+    static ReadSlice unbounded(long startOffset) {
+        return new ReadSlice(startOffset, Long.MAX_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * @return end clamped to the byte budget of this slice
+     */
+    long limit(long end) {
+        if (end - startOffset <= maximumBytes) {
+            return end;
+        }
+        return startOffset + maximumBytes;
+    }
+
+    /**
+     * A slice always completes at least one record so that records longer than the budget still make progress.
+     */
+    boolean isExhausted(long lastRecordEnd, long readPosition) {
+        if (lastRecordEnd == startOffset) {
+            return false;
+        }
+        if (readPosition - startOffset >= maximumBytes) {
+            return true;
+        }
+        return maximumNanos != Long.MAX_VALUE && System.nanoTime() - startNanos >= maximumNanos;
+    }
+}
@@ -0,0 +1,112 @@
+/*
+   Java Stateful File Reader rlo_13
+   Copyright (C) 2023  Suomen Kanuuna Oy
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.teragrep.rlo_13;
+
+import com.teragrep.rlo_13.statestore.GarbageCollectionStep;
+import com.teragrep.rlo_13.statestore.StateStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Removes offsets of files that no longer exist, for example ones deleted while the reader was not running. Works in
+ * steps of stepSize entries, see {@link StateStore#collectGarbage}.
+ */
+class StateStoreGarbageCollector implements Runnable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(StateStoreGarbageCollector.class);
+
+    private final StateStore stateStore;
+    private final int stepSize;
+
+    private final AtomicLong reclaimed = new AtomicLong();
+    private final Lock lock = new ReentrantLock();
+    private long reclaimedInPass = 0;
+
+    StateStoreGarbageCollector(StateStore stateStore, int stepSize) {
+        this.stateStore = stateStore;
+        this.stepSize = stepSize;
+    }
+
+    private static boolean isStale(Path path) {
+        // unknown, such as inaccessible, is not stale
+        return Files.notExists(path);
+    }
+
+    /**
+     * Runs one step.
+     */
+    @Override
+    public void run() {
+        try {
+            step();
+        }
+        catch (RuntimeException runtimeException) {
+            // next step tries again
+            LOGGER.error("StateStore garbage collection failed", runtimeException);
+        }
+    }
+
+    GarbageCollectionStep step() {
+        lock.lock();
+        try {
+            GarbageCollectionStep garbageCollectionStep = stateStore.collectGarbage(
+                    stepSize,
+                    StateStoreGarbageCollector::isStale,
+                    path -> LOGGER.trace("Reclaimed offset of vanished path <[{}]>", path)
+            );
+            reclaimed.addAndGet(garbageCollectionStep.getRemoved());
+            reclaimedInPass += garbageCollectionStep.getRemoved();
+            if (garbageCollectionStep.isPassComplete()) {
+                LOGGER.info("StateStore garbage collection pass reclaimed <{}> offsets", reclaimedInPass);
+                reclaimedInPass = 0;
+            }
+            return garbageCollectionStep;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Runs steps until the current pass is complete.
+     *
+     * @return number of offsets reclaimed by these steps
+     */
+    long collect() {
+        long reclaimedNow = 0;
+        GarbageCollectionStep garbageCollectionStep;
+        do {
+            garbageCollectionStep = step();
+            reclaimedNow += garbageCollectionStep.getRemoved();
+        }
+        while (!garbageCollectionStep.isPassComplete());
+        return reclaimedNow;
+    }
+
+    /**
+     * @return offsets reclaimed since creation
+     */
+    long getReclaimed() {
+        return reclaimed.get();
+    }
+}
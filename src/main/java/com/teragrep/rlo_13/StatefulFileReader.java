@@ -18,34 +18,380 @@
 package com.teragrep.rlo_13;
 
 import com.teragrep.rlo_12.MonitoredFile;
+import com.teragrep.rlo_13.metrics.Metrics;
+import com.teragrep.rlo_13.statestore.BatchingStateStore;
+import com.teragrep.rlo_13.statestore.CachingStateStore;
 import com.teragrep.rlo_13.statestore.LMDBStateStore;
+import com.teragrep.rlo_13.statestore.MeteredStateStore;
 import com.teragrep.rlo_13.statestore.StateStore;
+import com.teragrep.rlo_13.statestore.StateStoreDurability;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 
 public class StatefulFileReader implements Supplier<Consumer<MonitoredFile>>, AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(StatefulFileReader.class);
 
     private final FileChannelCache fileChannelCache;
+    private final BatchingStateStore batchingStateStore;
     private final StateStore stateStore;
 
+    private final ByteBufferPool readBufferPool = new ByteBufferPool(32*1024, 64);
+    private final ByteBufferPool recordBufferPool = new ByteBufferPool(1024*1024, 64); // todo configurable
+    private final ByteBufferPool batchBufferPool;
+
+    // exactly one of these is set
     private final Supplier<Consumer<FileRecord>> fileRecordConsumerSupplier;
+    private final Supplier<FileRecordBatchConsumer> fileRecordBatchConsumerSupplier;
+
+    private final StatefulFileReaderConfig config;
+
+    private final LagTracker lagTracker;
+
+    private final LaneDispatcher laneDispatcher; // null when events are read on the caller's thread
+    private final ExecutorService readAheadExecutor; // null when reads are not pipelined
+
+    // consumers handed out by get() without lanes, flushed by multiLineFlushExecutor. Weak, so that consumers the
+    // caller has dropped do not accumulate.
+    private final Set<MonitoredFileConsumer> callerConsumers = Collections.newSetFromMap(new WeakHashMap<>());
+    private final Lock callerConsumersLock = new ReentrantLock();
+    private final ScheduledExecutorService multiLineFlushExecutor; // null with lanes or without multi-line events
+
+    private final StateStoreGarbageCollector garbageCollector;
+    private final ScheduledExecutorService garbageCollectionExecutor; // null without background garbage collection
 
     public StatefulFileReader(Path stateStorePath, Supplier<Consumer<FileRecord>> fileRecordConsumerSupplier) {
-        this.stateStore = new LMDBStateStore(stateStorePath);
-        this.fileChannelCache = new FileChannelCache();
+        this(stateStorePath, fileRecordConsumerSupplier, new StatefulFileReaderConfig());
+    }
+
+    public StatefulFileReader(
+            Path stateStorePath,
+            Supplier<Consumer<FileRecord>> fileRecordConsumerSupplier,
+            StatefulFileReaderConfig config
+    ) {
+        this(stateStorePath, config, fileRecordConsumerSupplier, null);
+    }
+
+    /**
+     * Delivers records in batches, see {@link StatefulFileReaderConfig#setBatchMaximumRecords(int)} and
+     * {@link StatefulFileReaderConfig#setBatchMaximumBytes(int)}.
+     */
+    public StatefulFileReader(
+            Path stateStorePath,
+            StatefulFileReaderConfig config,
+            Supplier<FileRecordBatchConsumer> fileRecordBatchConsumerSupplier
+    ) {
+        this(stateStorePath, config, null, fileRecordBatchConsumerSupplier);
+    }
+
+    private StatefulFileReader(
+            Path stateStorePath,
+            StatefulFileReaderConfig config,
+            Supplier<Consumer<FileRecord>> fileRecordConsumerSupplier,
+            Supplier<FileRecordBatchConsumer> fileRecordBatchConsumerSupplier
+    ) {
+        boolean writeBehind = config.getStateStoreDurability() == StateStoreDurability.WRITE_BEHIND;
+        if (writeBehind && config.getOffsetCommitBatchSize() < 2) {
+            // every offset would be committed at once, as with SYNC
+            throw new IllegalArgumentException(
+                    "offsetCommitBatchSize must be greater than 1 with WRITE_BEHIND, got <"
+                            + config.getOffsetCommitBatchSize() + ">"
+            );
+        }
+        StateStore lmdbStateStore;
+        if (writeBehind) {
+            // each flush is a synced commit
+            lmdbStateStore = new LMDBStateStore(
+                    stateStorePath,
+                    StateStoreDurability.SYNC,
+                    0,
+                    config.getStateStoreInitialMapSize(),
+                    config.getStateStoreMapGrowthFactor()
+            );
+        }
+        else {
+            lmdbStateStore = new LMDBStateStore(
+                    stateStorePath,
+                    config.getStateStoreDurability(),
+                    config.getStateStoreSyncMillis(),
+                    config.getStateStoreInitialMapSize(),
+                    config.getStateStoreMapGrowthFactor()
+            );
+        }
+        if (config.getMetrics() != Metrics.NOOP) {
+            lmdbStateStore = new MeteredStateStore(lmdbStateStore, config.getMetrics());
+        }
+        if (writeBehind) {
+            this.batchingStateStore = new BatchingStateStore(
+                    lmdbStateStore,
+                    config.getOffsetCommitBatchSize(),
+                    config.getStateStoreSyncMillis()
+            );
+        }
+        else {
+            this.batchingStateStore = new BatchingStateStore(lmdbStateStore, config.getOffsetCommitBatchSize());
+        }
+        if (config.getOffsetCacheMaximumSize() > 0) {
+            // cached reads skip the lock of the batching store too
+            this.stateStore = new CachingStateStore(batchingStateStore, config.getOffsetCacheMaximumSize());
+        }
+        else {
+            this.stateStore = batchingStateStore;
+        }
+        this.lagTracker = new LagTracker(stateStore::getOffset);
+        this.garbageCollector = new StateStoreGarbageCollector(stateStore, config.getGarbageCollectionStepSize());
+        if (config.getGarbageCollectionIntervalMillis() > 0) {
+            this.garbageCollectionExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "rlo_13-statestore-gc");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.garbageCollectionExecutor.scheduleWithFixedDelay(
+                    garbageCollector,
+                    config.getGarbageCollectionIntervalMillis(),
+                    config.getGarbageCollectionIntervalMillis(),
+                    TimeUnit.MILLISECONDS
+            );
+        }
+        else {
+            this.garbageCollectionExecutor = null;
+        }
+        this.fileChannelCache = new FileChannelCache(config.getMetrics(), config.isFileIdentity());
         this.fileRecordConsumerSupplier = fileRecordConsumerSupplier;
+        this.fileRecordBatchConsumerSupplier = fileRecordBatchConsumerSupplier;
+        this.config = config;
+
+        if (fileRecordBatchConsumerSupplier != null) {
+            // must fit a record of maximum size
+            int batchBufferSize = Math.max(config.getBatchMaximumBytes(), recordBufferPool.getStatistics().getBufferSize());
+            this.batchBufferPool = new ByteBufferPool(batchBufferSize, 64);
+        }
+        else {
+            this.batchBufferPool = null;
+        }
+
+        if (config.getReadAheadBuffers() > 0) {
+            ThreadFactory threadFactory;
+            if (config.isDispatcherVirtualThreads()) {
+                threadFactory = VirtualThreads.factory("rlo_13-read-ahead-");
+            }
+            else {
+                AtomicInteger index = new AtomicInteger();
+                threadFactory = runnable -> {
+                    Thread thread = new Thread(runnable, "rlo_13-read-ahead-" + index.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                };
+            }
+            // one read stage per reading thread at a time, idle threads are let go
+            this.readAheadExecutor = Executors.newCachedThreadPool(threadFactory);
+        }
+        else {
+            this.readAheadExecutor = null;
+        }
+
+        if (config.getDispatcherLanes() > 0) {
+            ThreadFactory threadFactory;
+            if (config.isDispatcherVirtualThreads()) {
+                threadFactory = VirtualThreads.factory("rlo_13-lane-");
+            }
+            else {
+                threadFactory = LaneDispatcher.platformThreadFactory();
+            }
+            this.laneDispatcher = new LaneDispatcher(
+                    config.getDispatcherLanes(),
+                    config.getDispatcherQueueCapacity(),
+                    threadFactory,
+                    this::newMonitoredFileConsumer,
+                    lagTracker
+            );
+        }
+        else {
+            this.laneDispatcher = null;
+        }
+
+        if (config.isMultiLineEnabled() && laneDispatcher == null) {
+            // lanes flush while idle, consumers on the caller's thread would flush only on their next event
+            this.multiLineFlushExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "rlo_13-multiline-flush");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long flushIntervalMillis = Math.max(10, config.getMultiLineFlushMillis() / 10);
+            this.multiLineFlushExecutor.scheduleWithFixedDelay(
+                    this::flushPendingEvents,
+                    flushIntervalMillis,
+                    flushIntervalMillis,
+                    TimeUnit.MILLISECONDS
+            );
+        }
+        else {
+            this.multiLineFlushExecutor = null;
+        }
+    }
+
+    private void flushPendingEvents() {
+        List<MonitoredFileConsumer> consumers;
+        callerConsumersLock.lock();
+        try {
+            consumers = new ArrayList<>(callerConsumers);
+        }
+        finally {
+            callerConsumersLock.unlock();
+        }
+        for (MonitoredFileConsumer monitoredFileConsumer : consumers) {
+            try {
+                monitoredFileConsumer.flushPendingEventsIfIdle();
+            }
+            catch (RuntimeException runtimeException) {
+                // keep the schedule running
+                LOGGER.error("Flush of multi-line events failed", runtimeException);
+            }
+        }
     }
 
 
+    /**
+     * With multi-line events and without lanes, the last multi-line event of a file is flushed by a daemon thread of
+     * this reader. Its records then reach the record consumer on that thread, not on the caller's thread. A consumer
+     * the caller no longer references is not flushed, its pending event is read again after a restart.
+     *
+     * @return a new consumer reading on the caller's thread, or the shared dispatcher when
+     * {@link StatefulFileReaderConfig#setDispatcherLanes(int)} is set
+     */
     @Override
     public Consumer<MonitoredFile> get() {
-        return new MonitoredFileConsumer(fileChannelCache, stateStore, fileRecordConsumerSupplier.get());
+        if (laneDispatcher != null) {
+            return laneDispatcher;
+        }
+        MonitoredFileConsumer monitoredFileConsumer = newMonitoredFileConsumer();
+        if (multiLineFlushExecutor != null) {
+            callerConsumersLock.lock();
+            try {
+                callerConsumers.add(monitoredFileConsumer);
+            }
+            finally {
+                callerConsumersLock.unlock();
+            }
+        }
+        return monitoredFileConsumer;
+    }
+
+    private MonitoredFileConsumer newMonitoredFileConsumer() {
+        if (fileRecordBatchConsumerSupplier != null) {
+            return new MonitoredFileConsumer(
+                    fileChannelCache,
+                    stateStore,
+                    fileRecordBatchConsumerSupplier.get(),
+                    readBufferPool,
+                    recordBufferPool,
+                    batchBufferPool,
+                    config,
+                    lagTracker,
+                    readAheadExecutor
+            );
+        }
+        return new MonitoredFileConsumer(
+                fileChannelCache,
+                stateStore,
+                fileRecordConsumerSupplier.get(),
+                readBufferPool,
+                recordBufferPool,
+                config,
+                lagTracker,
+                readAheadExecutor
+        );
+    }
+
+    /**
+     * Commits offsets still pending from batching, see {@link StatefulFileReaderConfig#setOffsetCommitBatchSize(int)}.
+     */
+    public void commitOffsets() {
+        batchingStateStore.commit();
+    }
+
+    /**
+     * Removes offsets of files that no longer exist, such as ones deleted while the reader was not running. Runs in
+     * steps of {@link StatefulFileReaderConfig#setGarbageCollectionStepSize(int)} entries until the current pass is
+     * complete, reads continue in between. Useful at startup.
+     *
+     * @return number of offsets reclaimed
+     */
+    public long collectGarbage() {
+        return garbageCollector.collect();
+    }
+
+    /**
+     * @return offsets of vanished files reclaimed since start, by background steps and {@link #collectGarbage()}
+     */
+    public long getReclaimedOffsets() {
+        return garbageCollector.getReclaimed();
+    }
+
+    /**
+     * Lag of each file is its current size minus its offset as of the last read of the file, the size of every
+     * tracked file is read to compute the snapshot. With lanes a file is tracked once its event is enqueued, a file
+     * not read yet lags from its committed offset. Offsets are the ones passed to the StateStore, pending ones
+     * included, see {@link FileLag#getOffset()}.
+     *
+     * @param worstFiles number of files with the largest lag to include
+     * @return total backlog and the files lagging the most
+     */
+    public LagSnapshot getLagSnapshot(int worstFiles) {
+        return lagTracker.snapshot(worstFiles);
+    }
+
+    public ByteBufferPoolStatistics getReadBufferPoolStatistics() {
+        return readBufferPool.getStatistics();
+    }
+
+    public ByteBufferPoolStatistics getRecordBufferPoolStatistics() {
+        return recordBufferPool.getStatistics();
     }
 
     @Override
     public void close() {
+        if (multiLineFlushExecutor != null) {
+            multiLineFlushExecutor.shutdown();
+            try {
+                multiLineFlushExecutor.awaitTermination(1, TimeUnit.MINUTES);
+            }
+            catch (InterruptedException interruptedException) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (garbageCollectionExecutor != null) {
+            garbageCollectionExecutor.shutdown();
+            try {
+                garbageCollectionExecutor.awaitTermination(1, TimeUnit.MINUTES);
+            }
+            catch (InterruptedException interruptedException) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (laneDispatcher != null) {
+            laneDispatcher.close();
+        }
+        if (readAheadExecutor != null) {
+            // read stages end with the reads that started them
+            readAheadExecutor.shutdown();
+        }
         fileChannelCache.close();
         stateStore.close();
     }
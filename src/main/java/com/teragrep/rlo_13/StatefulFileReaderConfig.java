@@ -0,0 +1,562 @@
+/*
+   Java Stateful File Reader rlo_13
+   Copyright (C) 2023  Suomen Kanuuna Oy
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.teragrep.rlo_13;
+
+import com.teragrep.rlo_13.framing.DelimiterFramer;
+import com.teragrep.rlo_13.framing.Framer;
+import com.teragrep.rlo_13.metrics.Metrics;
+import com.teragrep.rlo_13.statestore.StateStoreDurability;
+
+import java.nio.file.FileSystems;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+public class StatefulFileReaderConfig {
+
+    private long mmapThreshold = 16L * 1024 * 1024;
+    private int mmapWindowSize = 64 * 1024 * 1024;
+    private int offsetCommitBatchSize = 0; // 0 for the default of the durability
+    private int batchMaximumRecords = 1024;
+    private int batchMaximumBytes = 1024 * 1024;
+    private long readSliceBytes = Long.MAX_VALUE;
+    private long readSliceMillis = Long.MAX_VALUE;
+    private int dispatcherLanes = 0;
+    private int dispatcherQueueCapacity = 1024;
+    private boolean dispatcherVirtualThreads = false;
+    private long offsetCacheMaximumSize = 64 * 1024;
+    private StateStoreDurability stateStoreDurability = StateStoreDurability.SYNC;
+    private long stateStoreSyncMillis = 1000;
+    private long garbageCollectionIntervalMillis = 0;
+    private long stateStoreInitialMapSize = 64L * 1024 * 1024;
+    private double stateStoreMapGrowthFactor = 2.0;
+    private int garbageCollectionStepSize = 1024;
+    private Metrics metrics = Metrics.NOOP;
+    private Supplier<Framer> framerSupplier = DelimiterFramer::lineFeed;
+    private final Map<String, Supplier<Framer>> pathFramerSuppliers = new LinkedHashMap<>();
+    private Pattern multiLineStartPattern = null;
+    private Pattern multiLineContinuationPattern = null;
+    private int multiLineMaximumBytes = 1024 * 1024;
+    private long multiLineFlushMillis = 1000;
+    private String gzipPattern = null;
+    private long gzipRestartPointInterval = 64L * 1024 * 1024;
+    private boolean fileIdentity = false;
+    private int fingerprintBytes = 0;
+    private int readAheadBuffers = 0;
+    private long readAheadThresholdBytes = 1024 * 1024;
+
+    public long getMmapThreshold() {
+        return mmapThreshold;
+    }
+
+    /**
+     * Unread backlog in bytes at or above which the file is read through memory mapped windows instead of
+     * FileChannel.read. Long.MAX_VALUE disables memory mapped reads.
+     */
+    public void setMmapThreshold(long mmapThreshold) {
+        if (mmapThreshold < 0) {
+            throw new IllegalArgumentException("mmapThreshold must not be negative, got <" + mmapThreshold + ">");
+        }
+        this.mmapThreshold = mmapThreshold;
+    }
+
+    public int getMmapWindowSize() {
+        return mmapWindowSize;
+    }
+
+    public void setMmapWindowSize(int mmapWindowSize) {
+        if (mmapWindowSize < 1) {
+            throw new IllegalArgumentException("mmapWindowSize must be positive, got <" + mmapWindowSize + ">");
+        }
+        this.mmapWindowSize = mmapWindowSize;
+    }
+
+    public int getOffsetCommitBatchSize() {
+        if (offsetCommitBatchSize == 0) {
+            return stateStoreDurability == StateStoreDurability.WRITE_BEHIND ? 1024 : 1;
+        }
+        return offsetCommitBatchSize;
+    }
+
+    /**
+     * Number of files whose offsets are collected before they are committed to the StateStore in one transaction.
+     * Offsets not yet committed are re-read after a crash. Pending offsets are committed on close. Defaults to 1, and
+     * to 1024 with WRITE_BEHIND, which must collect more than one.
+     */
+    public void setOffsetCommitBatchSize(int offsetCommitBatchSize) {
+        if (offsetCommitBatchSize < 1) {
+            throw new IllegalArgumentException(
+                    "offsetCommitBatchSize must be positive, got <" + offsetCommitBatchSize + ">"
+            );
+        }
+        this.offsetCommitBatchSize = offsetCommitBatchSize;
+    }
+
+    public int getBatchMaximumRecords() {
+        return batchMaximumRecords;
+    }
+
+    /**
+     * Maximum number of records in one FileRecordBatch.
+     */
+    public void setBatchMaximumRecords(int batchMaximumRecords) {
+        if (batchMaximumRecords < 1) {
+            throw new IllegalArgumentException("batchMaximumRecords must be positive, got <" + batchMaximumRecords + ">");
+        }
+        this.batchMaximumRecords = batchMaximumRecords;
+    }
+
+    public int getBatchMaximumBytes() {
+        return batchMaximumBytes;
+    }
+
+    /**
+     * Size in bytes after which a FileRecordBatch is delivered. A single record larger than this is delivered as a
+     * batch of its own.
+     */
+    public void setBatchMaximumBytes(int batchMaximumBytes) {
+        if (batchMaximumBytes < 1) {
+            throw new IllegalArgumentException("batchMaximumBytes must be positive, got <" + batchMaximumBytes + ">");
+        }
+        this.batchMaximumBytes = batchMaximumBytes;
+    }
+
+    public long getReadSliceBytes() {
+        return readSliceBytes;
+    }
+
+    /**
+     * Bytes read from one file per event before the offset is persisted and the file is set aside for continuation,
+     * letting other files be served in between. Dispatcher lanes continue files while idle, without lanes the
+     * unfinished files are continued in turn before the event returns. Long.MAX_VALUE reads each file to its end.
+     */
+    public void setReadSliceBytes(long readSliceBytes) {
+        if (readSliceBytes < 1) {
+            throw new IllegalArgumentException("readSliceBytes must be positive, got <" + readSliceBytes + ">");
+        }
+        this.readSliceBytes = readSliceBytes;
+    }
+
+    public long getReadSliceMillis() {
+        return readSliceMillis;
+    }
+
+    /**
+     * Time spent reading one file per event before it is set aside for continuation, see
+     * {@link #setReadSliceBytes(long)}. Long.MAX_VALUE disables the time budget.
+     */
+    public void setReadSliceMillis(long readSliceMillis) {
+        if (readSliceMillis < 1) {
+            throw new IllegalArgumentException("readSliceMillis must be positive, got <" + readSliceMillis + ">");
+        }
+        this.readSliceMillis = readSliceMillis;
+    }
+
+    public int getDispatcherLanes() {
+        return dispatcherLanes;
+    }
+
+    /**
+     * Number of worker threads events are dispatched to by path. Events of a path stay in order on its lane, different
+     * paths are read in parallel. 0 reads on the thread delivering the events.
+     */
+    public void setDispatcherLanes(int dispatcherLanes) {
+        if (dispatcherLanes < 0) {
+            throw new IllegalArgumentException("dispatcherLanes must not be negative, got <" + dispatcherLanes + ">");
+        }
+        this.dispatcherLanes = dispatcherLanes;
+    }
+
+    public int getDispatcherQueueCapacity() {
+        return dispatcherQueueCapacity;
+    }
+
+    /**
+     * Events queued per lane before the thread delivering events is blocked.
+     */
+    public void setDispatcherQueueCapacity(int dispatcherQueueCapacity) {
+        if (dispatcherQueueCapacity < 1) {
+            throw new IllegalArgumentException(
+                    "dispatcherQueueCapacity must be positive, got <" + dispatcherQueueCapacity + ">"
+            );
+        }
+        this.dispatcherQueueCapacity = dispatcherQueueCapacity;
+    }
+
+    public boolean isDispatcherVirtualThreads() {
+        return dispatcherVirtualThreads;
+    }
+
+    /**
+     * Runs the dispatcher lanes on virtual threads, allowing a lane for every few files when combined with a large
+     * {@link #setDispatcherLanes(int)}. Requires Java 21 or newer.
+     */
+    public void setDispatcherVirtualThreads(boolean dispatcherVirtualThreads) {
+        if (dispatcherVirtualThreads && !VirtualThreads.isSupported()) {
+            throw new UnsupportedOperationException("Virtual threads require Java 21 or newer");
+        }
+        this.dispatcherVirtualThreads = dispatcherVirtualThreads;
+    }
+
+    public long getOffsetCacheMaximumSize() {
+        return offsetCacheMaximumSize;
+    }
+
+    /**
+     * Number of paths whose offsets are kept in memory in front of the StateStore, least recently used ones are
+     * evicted. 0 disables the cache.
+     */
+    public void setOffsetCacheMaximumSize(long offsetCacheMaximumSize) {
+        if (offsetCacheMaximumSize < 0) {
+            throw new IllegalArgumentException(
+                    "offsetCacheMaximumSize must not be negative, got <" + offsetCacheMaximumSize + ">"
+            );
+        }
+        this.offsetCacheMaximumSize = offsetCacheMaximumSize;
+    }
+
+    public StateStoreDurability getStateStoreDurability() {
+        return stateStoreDurability;
+    }
+
+    /**
+     * How offsets are made durable, see {@link StateStoreDurability} for the offsets each mode can lose on crash.
+     */
+    public void setStateStoreDurability(StateStoreDurability stateStoreDurability) {
+        if (stateStoreDurability == null) {
+            throw new IllegalArgumentException("stateStoreDurability must not be null");
+        }
+        this.stateStoreDurability = stateStoreDurability;
+    }
+
+    public long getStateStoreSyncMillis() {
+        return stateStoreSyncMillis;
+    }
+
+    /**
+     * Interval of syncing the StateStore for NO_META_SYNC and NO_SYNC, and of flushing pending offsets for
+     * WRITE_BEHIND. Unused with SYNC.
+     */
+    public void setStateStoreSyncMillis(long stateStoreSyncMillis) {
+        if (stateStoreSyncMillis < 1) {
+            throw new IllegalArgumentException(
+                    "stateStoreSyncMillis must be positive, got <" + stateStoreSyncMillis + ">"
+            );
+        }
+        this.stateStoreSyncMillis = stateStoreSyncMillis;
+    }
+
+    public long getGarbageCollectionIntervalMillis() {
+        return garbageCollectionIntervalMillis;
+    }
+
+    /**
+     * Interval of background steps removing offsets of files that no longer exist, see
+     * {@link StatefulFileReader#collectGarbage()} for a whole pass. 0 disables the background steps.
+     */
+    public void setGarbageCollectionIntervalMillis(long garbageCollectionIntervalMillis) {
+        if (garbageCollectionIntervalMillis < 0) {
+            throw new IllegalArgumentException(
+                    "garbageCollectionIntervalMillis must not be negative, got <" + garbageCollectionIntervalMillis + ">"
+            );
+        }
+        this.garbageCollectionIntervalMillis = garbageCollectionIntervalMillis;
+    }
+
+    public int getGarbageCollectionStepSize() {
+        return garbageCollectionStepSize;
+    }
+
+    /**
+     * StateStore entries examined in one garbage collection step.
+     */
+    public void setGarbageCollectionStepSize(int garbageCollectionStepSize) {
+        if (garbageCollectionStepSize < 1) {
+            throw new IllegalArgumentException(
+                    "garbageCollectionStepSize must be positive, got <" + garbageCollectionStepSize + ">"
+            );
+        }
+        this.garbageCollectionStepSize = garbageCollectionStepSize;
+    }
+
+    public long getStateStoreInitialMapSize() {
+        return stateStoreInitialMapSize;
+    }
+
+    /**
+     * Size in bytes of the StateStore map when it is created. The map is grown whenever it is full, see
+     * {@link #setStateStoreMapGrowthFactor(double)}.
+     */
+    public void setStateStoreInitialMapSize(long stateStoreInitialMapSize) {
+        if (stateStoreInitialMapSize < 1) {
+            throw new IllegalArgumentException(
+                    "stateStoreInitialMapSize must be positive, got <" + stateStoreInitialMapSize + ">"
+            );
+        }
+        this.stateStoreInitialMapSize = stateStoreInitialMapSize;
+    }
+
+    public double getStateStoreMapGrowthFactor() {
+        return stateStoreMapGrowthFactor;
+    }
+
+    /**
+     * Factor the StateStore map is grown by when full. Growing briefly waits for all StateStore transactions.
+     */
+    public void setStateStoreMapGrowthFactor(double stateStoreMapGrowthFactor) {
+        if (!(stateStoreMapGrowthFactor > 1.0)) {
+            throw new IllegalArgumentException(
+                    "stateStoreMapGrowthFactor must be greater than 1, got <" + stateStoreMapGrowthFactor + ">"
+            );
+        }
+        this.stateStoreMapGrowthFactor = stateStoreMapGrowthFactor;
+    }
+
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Receives the instrumentation of the reader, for example {@link com.teragrep.rlo_13.metrics.JmxMetrics}.
+     * Metrics.NOOP, the default, disables it.
+     */
+    public void setMetrics(Metrics metrics) {
+        if (metrics == null) {
+            throw new IllegalArgumentException("metrics must not be null");
+        }
+        this.metrics = metrics;
+    }
+
+    public Supplier<Framer> getFramerSupplier() {
+        return framerSupplier;
+    }
+
+    /**
+     * Framing of files not matched by a pattern of {@link #setFramerSupplier(String, Supplier)}. Each reading thread
+     * gets its own Framer. Default is LF terminated records, see {@link com.teragrep.rlo_13.framing} for the others.
+     */
+    public void setFramerSupplier(Supplier<Framer> framerSupplier) {
+        if (framerSupplier == null) {
+            throw new IllegalArgumentException("framerSupplier must not be null");
+        }
+        this.framerSupplier = framerSupplier;
+    }
+
+    /**
+     * @return framings by path pattern, in the order they are matched
+     */
+    public Map<String, Supplier<Framer>> getPathFramerSuppliers() {
+        return Collections.unmodifiableMap(pathFramerSuppliers);
+    }
+
+    /**
+     * Framing of files matching syntaxAndPattern, as accepted by {@link java.nio.file.FileSystem#getPathMatcher},
+     * for example "glob:**.octet". Patterns are matched in the order they were first set, the first match is used.
+     */
+    public void setFramerSupplier(String syntaxAndPattern, Supplier<Framer> framerSupplier) {
+        if (framerSupplier == null) {
+            throw new IllegalArgumentException("framerSupplier must not be null");
+        }
+        FileSystems.getDefault().getPathMatcher(syntaxAndPattern); // validates
+        pathFramerSuppliers.put(syntaxAndPattern, framerSupplier);
+    }
+
+    /**
+     * @return true if a multi-line start or continuation pattern is set
+     */
+    public boolean isMultiLineEnabled() {
+        return multiLineStartPattern != null || multiLineContinuationPattern != null;
+    }
+
+    public Pattern getMultiLineStartPattern() {
+        return multiLineStartPattern;
+    }
+
+    /**
+     * Joins records into multi-line events, a record matching the pattern starts a new event and other records
+     * continue the event before them. Matched with Matcher.lookingAt at the start of the record against its bytes as
+     * chars 0-255, no decoding is done. Null disables, the default.
+     */
+    public void setMultiLineStartPattern(String multiLineStartPattern) {
+        if (multiLineStartPattern == null) {
+            this.multiLineStartPattern = null;
+            return;
+        }
+        this.multiLineStartPattern = Pattern.compile(multiLineStartPattern);
+    }
+
+    public Pattern getMultiLineContinuationPattern() {
+        return multiLineContinuationPattern;
+    }
+
+    /**
+     * Joins records into multi-line events, a record matching the pattern continues the event before it. Matched as
+     * {@link #setMultiLineStartPattern(String)}. With both set, a record continues the event if it matches this
+     * pattern or does not match the start pattern. Null disables, the default.
+     */
+    public void setMultiLineContinuationPattern(String multiLineContinuationPattern) {
+        if (multiLineContinuationPattern == null) {
+            this.multiLineContinuationPattern = null;
+            return;
+        }
+        this.multiLineContinuationPattern = Pattern.compile(multiLineContinuationPattern);
+    }
+
+    public int getMultiLineMaximumBytes() {
+        return multiLineMaximumBytes;
+    }
+
+    /**
+     * Size at which a multi-line event is emitted even if the next record continues it. Events are also bounded by
+     * the record buffer size.
+     */
+    public void setMultiLineMaximumBytes(int multiLineMaximumBytes) {
+        if (multiLineMaximumBytes < 1) {
+            throw new IllegalArgumentException(
+                    "multiLineMaximumBytes must be positive, got <" + multiLineMaximumBytes + ">"
+            );
+        }
+        this.multiLineMaximumBytes = multiLineMaximumBytes;
+    }
+
+    public long getMultiLineFlushMillis() {
+        return multiLineFlushMillis;
+    }
+
+    /**
+     * Time the last multi-line event of a file waits for continuation records before it is emitted. Until then its
+     * offset is not committed. Flushes are run by dispatcher lanes when idle. Without lanes they are run by a daemon
+     * thread of the StatefulFileReader, so the records of a flushed event reach the record consumer on a thread the
+     * caller does not own.
+     */
+    public void setMultiLineFlushMillis(long multiLineFlushMillis) {
+        if (multiLineFlushMillis < 0) {
+            throw new IllegalArgumentException(
+                    "multiLineFlushMillis must not be negative, got <" + multiLineFlushMillis + ">"
+            );
+        }
+        this.multiLineFlushMillis = multiLineFlushMillis;
+    }
+
+    public String getGzipPattern() {
+        return gzipPattern;
+    }
+
+    /**
+     * Files matching syntaxAndPattern, as accepted by {@link java.nio.file.FileSystem#getPathMatcher}, are gzip
+     * compressed and read decompressed, for example "glob:**.gz". Their offsets are offsets of the decompressed
+     * content. Compressed files are read to their end on every event regardless of the read slice, as continuing a
+     * slice would decompress again from the restart point. Null disables, the default.
+     */
+    public void setGzipPattern(String syntaxAndPattern) {
+        if (syntaxAndPattern != null) {
+            FileSystems.getDefault().getPathMatcher(syntaxAndPattern); // validates
+        }
+        this.gzipPattern = syntaxAndPattern;
+    }
+
+    public long getGzipRestartPointInterval() {
+        return gzipRestartPointInterval;
+    }
+
+    /**
+     * Decompressed bytes between restart points stored for a gzip file. Reading resumes from the latest restart
+     * point at or before the offset instead of the beginning of the file. Restart points are at gzip member
+     * boundaries, so a single member file is always decompressed from its beginning.
+     */
+    public void setGzipRestartPointInterval(long gzipRestartPointInterval) {
+        if (gzipRestartPointInterval < 1) {
+            throw new IllegalArgumentException(
+                    "gzipRestartPointInterval must be positive, got <" + gzipRestartPointInterval + ">"
+            );
+        }
+        this.gzipRestartPointInterval = gzipRestartPointInterval;
+    }
+
+    public boolean isFileIdentity() {
+        return fileIdentity;
+    }
+
+    /**
+     * Identifies files by their file key, device and inode on POSIX file systems, alongside their path. A file
+     * renamed to a new path, as by logrotate in create mode, continues from the offset stored for its old path, and
+     * a file recreated at its path starts from the beginning. Offsets of deleted and recreated files are then left
+     * to garbage collection, as a renamed file may still need them, see {@link
+     * #setGarbageCollectionIntervalMillis(long)}. Needs a file system with file keys and a StateStore that stores
+     * identities, e.g. LMDBStateStore. Disabled by default.
+     */
+    public void setFileIdentity(boolean fileIdentity) {
+        this.fileIdentity = fileIdentity;
+    }
+
+    public int getFingerprintBytes() {
+        return fingerprintBytes;
+    }
+
+    /**
+     * Bytes from the beginning of a file kept as its fingerprint in the StateStore, up to its offset. Before a file
+     * is read from its offset its head is read once and compared with the fingerprint. A file whose head differs has
+     * been rewritten and is read from its beginning, even if it has grown past its offset again. Compressed files are
+     * not fingerprinted. 0 disables, the default.
+     */
+    public void setFingerprintBytes(int fingerprintBytes) {
+        if (fingerprintBytes < 0) {
+            throw new IllegalArgumentException("fingerprintBytes must not be negative, got <" + fingerprintBytes + ">");
+        }
+        this.fingerprintBytes = fingerprintBytes;
+    }
+
+    public int getReadAheadBuffers() {
+        return readAheadBuffers;
+    }
+
+    /**
+     * Pipelines reads through the FileChannel: a read stage on its own thread fills up to readAheadBuffers read
+     * buffers ahead while the reading thread frames and emits records from the filled ones. A slow consumer then
+     * does not leave the disk idle, nor a slow disk the consumer. The read stage waits once all buffers are filled,
+     * so memory stays bounded per reading thread. Read stages run on virtual threads with
+     * {@link #setDispatcherVirtualThreads(boolean)}. Mapped and compressed reads are not pipelined, nor reads below
+     * {@link #setReadAheadThresholdBytes(long)}. 0 disables, the default.
+     */
+    public void setReadAheadBuffers(int readAheadBuffers) {
+        if (readAheadBuffers < 0) {
+            throw new IllegalArgumentException("readAheadBuffers must not be negative, got <" + readAheadBuffers + ">");
+        }
+        this.readAheadBuffers = readAheadBuffers;
+    }
+
+    public long getReadAheadThresholdBytes() {
+        return readAheadThresholdBytes;
+    }
+
+    /**
+     * Unread backlog in bytes at or above which reads are pipelined with {@link #setReadAheadBuffers(int)}. Smaller
+     * reads, such as a few appended lines, are read on the calling thread without the handoff to the read stage.
+     * Defaults to 1 MiB.
+     */
+    public void setReadAheadThresholdBytes(long readAheadThresholdBytes) {
+        if (readAheadThresholdBytes < 0) {
+            throw new IllegalArgumentException(
+                    "readAheadThresholdBytes must not be negative, got <" + readAheadThresholdBytes + ">"
+            );
+        }
+        this.readAheadThresholdBytes = readAheadThresholdBytes;
+    }
+}
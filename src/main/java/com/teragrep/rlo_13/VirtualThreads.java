@@ -0,0 +1,39 @@
+/*
+   Java Stateful File Reader rlo_13
+   Copyright (C) 2023  Suomen Kanuuna Oy
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.teragrep.rlo_13;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Virtual threads are not available before Java 21. The multi-release jar replaces this class with
+ * src/main/java21/com/teragrep/rlo_13/VirtualThreads.java when built with JDK 21 or newer.
+ */
+final class VirtualThreads {
+
+    private VirtualThreads() {
+
+    }
+
+    static boolean isSupported() {
+        return false;
+    }
+
+    static ThreadFactory factory(String namePrefix) {
+        throw new UnsupportedOperationException("Virtual threads require Java 21 or newer");
+    }
+}
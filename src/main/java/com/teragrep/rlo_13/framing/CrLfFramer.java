@@ -0,0 +1,58 @@
+/*
+   Java Stateful File Reader rlo_13
+   Copyright (C) 2023  Suomen Kanuuna Oy
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.teragrep.rlo_13.framing;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Records terminated by CR LF. A LF without a CR before it is part of the record. The terminator is part of the
+ * record.
+ */
+public final class CrLfFramer implements Framer {
+
+    private final DelimiterFramer lineFeedFramer = DelimiterFramer.lineFeed();
+
+    @Override
+    public boolean frame(ByteBuffer source, ByteBuffer record) {
+        while (lineFeedFramer.frame(source, record)) {
+            int end = record.position();
+            if (end >= 2 && record.get(end - 2) == '\r') {
+                return true;
+            }
+            if (!source.hasRemaining() || !record.hasRemaining()) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public long getFrameBytes() {
+        return lineFeedFramer.getFrameBytes();
+    }
+
+    @Override
+    public void next() {
+        lineFeedFramer.next();
+    }
+
+    @Override
+    public void reset() {
+        lineFeedFramer.reset();
+    }
+}
@@ -0,0 +1,75 @@
+/*
+   Java Stateful File Reader rlo_13
+   Copyright (C) 2023  Suomen Kanuuna Oy
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.teragrep.rlo_13.framing;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Records terminated by a single byte, such as LF or NUL. The terminator is part of the record.
+ */
+public final class DelimiterFramer implements Framer {
+
+    private final DelimiterScanner delimiterScanner;
+    private long frameBytes;
+
+    public DelimiterFramer(byte delimiter) {
+        this.delimiterScanner = new DelimiterScanner(delimiter);
+    }
+
+    public static DelimiterFramer lineFeed() {
+        return new DelimiterFramer((byte) '\n');
+    }
+
+    public static DelimiterFramer nul() {
+        return new DelimiterFramer((byte) 0);
+    }
+
+    @Override
+    public boolean frame(ByteBuffer source, ByteBuffer record) {
+        // bytes that still fit into the record, the last one ends it regardless of its value
+        int span = Math.min(source.remaining(), record.remaining());
+        int spanEnd = source.position() + span;
+        int delimiterIndex = delimiterScanner.indexOf(source, source.position(), spanEnd);
+        if (delimiterIndex >= 0) {
+            spanEnd = delimiterIndex + 1;
+        }
+
+        frameBytes += spanEnd - source.position();
+        int limit = source.limit();
+        source.limit(spanEnd);
+        record.put(source);
+        source.limit(limit);
+
+        return delimiterIndex >= 0;
+    }
+
+    @Override
+    public long getFrameBytes() {
+        return frameBytes;
+    }
+
+    @Override
+    public void next() {
+        frameBytes = 0;
+    }
+
+    @Override
+    public void reset() {
+        frameBytes = 0;
+    }
+}
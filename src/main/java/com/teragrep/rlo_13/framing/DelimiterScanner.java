@@ -0,0 +1,74 @@
+/*
+   Java Stateful File Reader rlo_13
+   Copyright (C) 2023  Suomen Kanuuna Oy
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.teragrep.rlo_13.framing;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Finds a delimiter byte eight bytes at a time by treating the buffer as a sequence of longs (SWAR). There is no
+ * Vector API variant in the Java 21 multi-release classes: jdk.incubator.vector is still incubating there and would
+ * have to be added with --add-modules by every application, SWAR works on every supported JDK as is.
+ */
+class DelimiterScanner {
+
+    private static final long HIGH_MASK = 0x7F7F7F7F7F7F7F7FL;
+
+    private final byte delimiter;
+    private final long pattern;
+
+    DelimiterScanner(byte delimiter) {
+        this.delimiter = delimiter;
+        this.pattern = (delimiter & 0xFFL) * 0x0101010101010101L;
+    }
+
+    byte getDelimiter() {
+        return delimiter;
+    }
+
+    /**
+     * @return absolute index of the first delimiter in [from, to) of the buffer, or -1 if not present. Buffer
+     * position and limit are not modified.
+     */
+    int indexOf(ByteBuffer buffer, int from, int to) {
+        boolean littleEndian = buffer.order() == ByteOrder.LITTLE_ENDIAN;
+
+        int i = from;
+        for (; i + Long.BYTES <= to; i += Long.BYTES) {
+            long input = buffer.getLong(i) ^ pattern;
+            // high bit set only in bytes that equal zero, carries can not cross byte boundaries
+            long tmp = (input & HIGH_MASK) + HIGH_MASK;
+            tmp = ~(tmp | input | HIGH_MASK);
+            if (tmp != 0) {
+                if (littleEndian) {
+                    return i + (Long.numberOfTrailingZeros(tmp) >>> 3);
+                }
+                else {
+                    return i + (Long.numberOfLeadingZeros(tmp) >>> 3);
+                }
+            }
+        }
+
+        for (; i < to; i++) {
+            if (buffer.get(i) == delimiter) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
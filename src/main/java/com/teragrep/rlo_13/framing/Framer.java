@@ -0,0 +1,52 @@
+/*
+   Java Stateful File Reader rlo_13
+   Copyright (C) 2023  Suomen Kanuuna Oy
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.teragrep.rlo_13.framing;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Splits the bytes of a file into records. A Framer keeps the state of the frame in progress, so every reading
+ * thread uses its own instance, see {@link com.teragrep.rlo_13.StatefulFileReaderConfig#setFramerSupplier}.
+ */
+public interface Framer {
+
+    /**
+     * Moves bytes of the current frame from source to record, stopping at the end of the frame. Called again with
+     * the rest of source once the record is passed on. A frame that does not fit into record is passed on split when
+     * record is full, the rest of it is framed as a new record.
+     *
+     * @return true if record holds a complete frame
+     */
+    boolean frame(ByteBuffer source, ByteBuffer record);
+
+    /**
+     * @return bytes of the file consumed since the last record was passed on, including bytes of the frame not
+     * copied to the record such as length prefixes
+     */
+    long getFrameBytes();
+
+    /**
+     * Called after a record, complete or split, has been passed on.
+     */
+    void next();
+
+    /**
+     * Discards the frame in progress, the next byte framed starts a new frame.
+     */
+    void reset();
+}
@@ -0,0 +1,128 @@
+/*
+   Java Stateful File Reader rlo_13
+   Copyright (C) 2023  Suomen Kanuuna Oy
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.teragrep.rlo_13.framing;
+
+import java.nio.ByteBuffer;
+
+/**
+ * RFC 6587 octet-counted records, MSG-LEN SP MSG. The record holds MSG only and is copied without scanning it. A frame
+ * not starting with a valid MSG-LEN SP is framed as non-transparent instead, terminated by LF.
+ */
+public final class OctetCountingFramer implements Framer {
+
+    private static final int MAXIMUM_LENGTH_DIGITS = 9;
+
+    private enum State {
+        LENGTH, PAYLOAD, LINE
+    }
+
+    private final DelimiterFramer lineFeedFramer = DelimiterFramer.lineFeed();
+    private final byte[] lengthDigits = new byte[MAXIMUM_LENGTH_DIGITS];
+
+    private State state = State.LENGTH;
+    private int lengthDigitCount;
+    private int length;
+    private int remaining;
+    private long frameBytes;
+
+    @Override
+    public boolean frame(ByteBuffer source, ByteBuffer record) {
+        while (source.hasRemaining()) {
+            switch (state) {
+                case LENGTH:
+                    frameLength(source, record);
+                    if (state == State.PAYLOAD && remaining == 0) {
+                        state = State.LENGTH;
+                        return true;
+                    }
+                    break;
+                case PAYLOAD:
+                    int span = Math.min(remaining, Math.min(source.remaining(), record.remaining()));
+                    int limit = source.limit();
+                    source.limit(source.position() + span);
+                    record.put(source);
+                    source.limit(limit);
+                    remaining -= span;
+                    frameBytes += span;
+                    if (remaining == 0) {
+                        state = State.LENGTH;
+                        return true;
+                    }
+                    return false;
+                case LINE:
+                    int position = source.position();
+                    boolean complete = lineFeedFramer.frame(source, record);
+                    frameBytes += source.position() - position;
+                    lineFeedFramer.next();
+                    if (complete) {
+                        state = State.LENGTH;
+                    }
+                    return complete;
+                default:
+                    throw new IllegalStateException("Invalid state <" + state + ">");
+            }
+        }
+        return false;
+    }
+
+    private void frameLength(ByteBuffer source, ByteBuffer record) {
+        byte b = source.get(source.position());
+        if (b >= '0' && b <= '9' && lengthDigitCount < MAXIMUM_LENGTH_DIGITS) {
+            lengthDigits[lengthDigitCount++] = b;
+            length = length * 10 + (b - '0');
+        }
+        else if (b == ' ' && lengthDigitCount > 0) {
+            state = State.PAYLOAD;
+            remaining = length;
+            clearLength();
+        }
+        else {
+            // not octet-counted, digits consumed so far belong to the record, record is empty before MSG
+            state = State.LINE;
+            record.put(lengthDigits, 0, lengthDigitCount);
+            clearLength();
+            return;
+        }
+        source.position(source.position() + 1);
+        frameBytes++;
+    }
+
+    private void clearLength() {
+        lengthDigitCount = 0;
+        length = 0;
+    }
+
+    @Override
+    public long getFrameBytes() {
+        return frameBytes;
+    }
+
+    @Override
+    public void next() {
+        frameBytes = 0;
+    }
+
+    @Override
+    public void reset() {
+        state = State.LENGTH;
+        clearLength();
+        remaining = 0;
+        frameBytes = 0;
+        lineFeedFramer.reset();
+    }
+}
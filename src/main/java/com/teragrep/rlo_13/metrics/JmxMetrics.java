@@ -0,0 +1,211 @@
+/*
+   Java Stateful File Reader rlo_13
+   Copyright (C) 2023  Suomen Kanuuna Oy
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.teragrep.rlo_13.metrics;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics exported as an MBean named com.teragrep.rlo_13:type=StatefulFileReader,name=&lt;name&gt; on the platform
+ * MBeanServer. Registered on construction, unregistered on close.
+ */
+public class JmxMetrics implements Metrics, JmxMetricsMBean, AutoCloseable {
+
+    private final ObjectName objectName;
+
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder recordsEmitted = new LongAdder();
+    private final LongAdder recordsSplit = new LongAdder();
+    private final LongAdder channelCacheHits = new LongAdder();
+    private final LongAdder channelCacheMisses = new LongAdder();
+    private final LongAdder channelCacheEvictions = new LongAdder();
+    private final LongAdder openChannels = new LongAdder();
+
+    // by StateStoreOperation ordinal
+    private final LongAdder[] operationCounts = new LongAdder[StateStoreOperation.values().length];
+    private final LongAdder[] operationNanos = new LongAdder[StateStoreOperation.values().length];
+
+    public JmxMetrics(String name) {
+        for (int i = 0; i < operationCounts.length; i++) {
+            operationCounts[i] = new LongAdder();
+            operationNanos[i] = new LongAdder();
+        }
+        try {
+            this.objectName = new ObjectName(
+                    "com.teragrep.rlo_13:type=StatefulFileReader,name=" + ObjectName.quote(name)
+            );
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        }
+        catch (JMException jmException) {
+            throw new IllegalStateException("Unable to register metrics <" + name + ">", jmException);
+        }
+    }
+
+    public ObjectName getObjectName() {
+        return objectName;
+    }
+
+    @Override
+    public void bytesRead(long bytes) {
+        bytesRead.add(bytes);
+    }
+
+    @Override
+    public void recordEmitted() {
+        recordsEmitted.increment();
+    }
+
+    @Override
+    public void recordSplit() {
+        recordsSplit.increment();
+    }
+
+    @Override
+    public void channelCacheHit() {
+        channelCacheHits.increment();
+    }
+
+    @Override
+    public void channelCacheMiss() {
+        channelCacheMisses.increment();
+    }
+
+    @Override
+    public void channelCacheEviction() {
+        channelCacheEvictions.increment();
+    }
+
+    @Override
+    public void channelOpened() {
+        openChannels.increment();
+    }
+
+    @Override
+    public void channelClosed() {
+        openChannels.decrement();
+    }
+
+    @Override
+    public void stateStoreOperation(StateStoreOperation stateStoreOperation, long elapsedNanos) {
+        operationCounts[stateStoreOperation.ordinal()].increment();
+        operationNanos[stateStoreOperation.ordinal()].add(elapsedNanos);
+    }
+
+    @Override
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    @Override
+    public long getRecordsEmitted() {
+        return recordsEmitted.sum();
+    }
+
+    @Override
+    public long getRecordsSplit() {
+        return recordsSplit.sum();
+    }
+
+    @Override
+    public long getChannelCacheHits() {
+        return channelCacheHits.sum();
+    }
+
+    @Override
+    public long getChannelCacheMisses() {
+        return channelCacheMisses.sum();
+    }
+
+    @Override
+    public long getChannelCacheEvictions() {
+        return channelCacheEvictions.sum();
+    }
+
+    @Override
+    public long getOpenChannels() {
+        return openChannels.sum();
+    }
+
+    private long count(StateStoreOperation stateStoreOperation) {
+        return operationCounts[stateStoreOperation.ordinal()].sum();
+    }
+
+    private double averageMicros(StateStoreOperation stateStoreOperation) {
+        long count = count(stateStoreOperation);
+        if (count == 0) {
+            return 0;
+        }
+        return operationNanos[stateStoreOperation.ordinal()].sum() / 1000.0 / count;
+    }
+
+    @Override
+    public long getGetOffsetCount() {
+        return count(StateStoreOperation.GET_OFFSET);
+    }
+
+    @Override
+    public double getGetOffsetAverageMicros() {
+        return averageMicros(StateStoreOperation.GET_OFFSET);
+    }
+
+    @Override
+    public long getSetOffsetCount() {
+        return count(StateStoreOperation.SET_OFFSET);
+    }
+
+    @Override
+    public double getSetOffsetAverageMicros() {
+        return averageMicros(StateStoreOperation.SET_OFFSET);
+    }
+
+    @Override
+    public long getSetOffsetsCount() {
+        return count(StateStoreOperation.SET_OFFSETS);
+    }
+
+    @Override
+    public double getSetOffsetsAverageMicros() {
+        return averageMicros(StateStoreOperation.SET_OFFSETS);
+    }
+
+    @Override
+    public long getDeleteOffsetCount() {
+        return count(StateStoreOperation.DELETE_OFFSET);
+    }
+
+    @Override
+    public double getDeleteOffsetAverageMicros() {
+        return averageMicros(StateStoreOperation.DELETE_OFFSET);
+    }
+
+    @Override
+    public void close() {
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (mBeanServer.isRegistered(objectName)) {
+                mBeanServer.unregisterMBean(objectName);
+            }
+        }
+        catch (JMException jmException) {
+            throw new IllegalStateException("Unable to unregister metrics <" + objectName + ">", jmException);
+        }
+    }
+}
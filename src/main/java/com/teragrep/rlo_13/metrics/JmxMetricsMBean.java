@@ -0,0 +1,51 @@
+/*
+   Java Stateful File Reader rlo_13
+   Copyright (C) 2023  Suomen Kanuuna Oy
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.teragrep.rlo_13.metrics;
+
+public interface JmxMetricsMBean {
+
+    long getBytesRead();
+
+    long getRecordsEmitted();
+
+    long getRecordsSplit();
+
+    long getChannelCacheHits();
+
+    long getChannelCacheMisses();
+
+    long getChannelCacheEvictions();
+
+    long getOpenChannels();
+
+    long getGetOffsetCount();
+
+    double getGetOffsetAverageMicros();
+
+    long getSetOffsetCount();
+
+    double getSetOffsetAverageMicros();
+
+    long getSetOffsetsCount();
+
+    double getSetOffsetsAverageMicros();
+
+    long getDeleteOffsetCount();
+
+    double getDeleteOffsetAverageMicros();
+}
@@ -0,0 +1,80 @@
+/*
+   Java Stateful File Reader rlo_13
+   Copyright (C) 2023  Suomen Kanuuna Oy
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.teragrep.rlo_13.metrics;
+
+/**
+ * Instrumentation of the reader. Every method does nothing by default, implementations override what they export.
+ * Methods are called on the reading threads, so they must be thread safe and cheap. {@link #NOOP} is used when
+ * metrics are disabled, nothing is measured or allocated for it.
+ */
+public interface Metrics {
+
+    Metrics NOOP = new Metrics() {
+    };
+
+    /**
+     * Bytes read from files, by FileChannel reads and memory mapped windows.
+     */
+    default void bytesRead(long bytes) {
+
+    }
+
+    /**
+     * A record was passed on, either to the record consumer or to a batch.
+     */
+    default void recordEmitted() {
+
+    }
+
+    /**
+     * A record reached the maximum record size before the end of its frame and was passed on split.
+     */
+    default void recordSplit() {
+
+    }
+
+    default void channelCacheHit() {
+
+    }
+
+    default void channelCacheMiss() {
+
+    }
+
+    /**
+     * A cached FileChannel was evicted for size or expiry. It is closed once its last lease is released.
+     */
+    default void channelCacheEviction() {
+
+    }
+
+    default void channelOpened() {
+
+    }
+
+    default void channelClosed() {
+
+    }
+
+    /**
+     * A StateStore operation completed in elapsedNanos.
+     */
+    default void stateStoreOperation(StateStoreOperation stateStoreOperation, long elapsedNanos) {
+
+    }
+}
@@ -0,0 +1,373 @@
+/*
+   Java Stateful File Reader rlo_13
+   Copyright (C) 2023  Suomen Kanuuna Oy
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.teragrep.rlo_13.statestore;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Collects offsets of many paths and commits them with a single setOffsets call once batchSize paths are pending, and
+ * optionally every flushIntervalMillis. Pending offsets are visible to getOffset. Offsets not yet committed are lost
+ * on crash and will be re-read.
+ */
+public class BatchingStateStore implements StateStore {
+    private static final Logger LOGGER = LoggerFactory.getLogger(BatchingStateStore.class);
+
+    private final StateStore stateStore;
+    private final int batchSize;
+
+    // guarded by lock, which is never held while writing to the backing StateStore
+    private Map<Path, Long> pendingOffsets = new HashMap<>();
+    private Map<Path, Fingerprint> pendingFingerprints = new HashMap<>(); // committed with the offsets
+    private Map<Path, Long> committingOffsets = Collections.emptyMap();
+    private Map<Path, Fingerprint> committingFingerprints = Collections.emptyMap();
+    private final Lock lock = new ReentrantLock();
+
+    // one commit at a time so that an older batch never overwrites a newer one, taken before lock
+    private final Lock commitLock = new ReentrantLock();
+
+    private final ScheduledExecutorService flushExecutor; // null without a flush interval
+
+    public BatchingStateStore(StateStore stateStore, int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be positive, got <" + batchSize + ">");
+        }
+        this.stateStore = stateStore;
+        this.batchSize = batchSize;
+        this.flushExecutor = null;
+    }
+
+    /**
+     * Write-behind, pending offsets are committed also every flushIntervalMillis.
+     */
+    public BatchingStateStore(StateStore stateStore, int batchSize, long flushIntervalMillis) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be positive, got <" + batchSize + ">");
+        }
+        if (flushIntervalMillis < 1) {
+            throw new IllegalArgumentException(
+                    "flushIntervalMillis must be positive, got <" + flushIntervalMillis + ">"
+            );
+        }
+        this.stateStore = stateStore;
+        this.batchSize = batchSize;
+        this.flushExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "rlo_13-statestore-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.flushExecutor
+                .scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void flush() {
+        try {
+            commit();
+        }
+        catch (RuntimeException runtimeException) {
+            // offsets stay pending, retried on the next flush
+            LOGGER.error("Flush of pending offsets failed", runtimeException);
+        }
+    }
+
+    @Override
+    public void setOffset(Path path, long offset) {
+        boolean full;
+        lock.lock();
+        try {
+            pendingOffsets.put(path, offset);
+            full = pendingOffsets.size() >= batchSize;
+        }
+        finally {
+            lock.unlock();
+        }
+        if (full) {
+            commit();
+        }
+    }
+
+    @Override
+    public void setOffset(Path path, long offset, Fingerprint fingerprint) {
+        boolean full;
+        lock.lock();
+        try {
+            pendingOffsets.put(path, offset);
+            pendingFingerprints.put(path, fingerprint);
+            full = pendingOffsets.size() >= batchSize;
+        }
+        finally {
+            lock.unlock();
+        }
+        if (full) {
+            commit();
+        }
+    }
+
+    @Override
+    public void setOffsets(Map<Path, Long> offsets, Map<Path, Fingerprint> fingerprints) {
+        boolean full;
+        lock.lock();
+        try {
+            pendingOffsets.putAll(offsets);
+            pendingFingerprints.putAll(fingerprints);
+            full = pendingOffsets.size() >= batchSize;
+        }
+        finally {
+            lock.unlock();
+        }
+        if (full) {
+            commit();
+        }
+    }
+
+    @Override
+    public void setOffsets(Map<Path, Long> offsets) {
+        boolean full;
+        lock.lock();
+        try {
+            pendingOffsets.putAll(offsets);
+            full = pendingOffsets.size() >= batchSize;
+        }
+        finally {
+            lock.unlock();
+        }
+        if (full) {
+            commit();
+        }
+    }
+
+    /**
+     * Waits for a commit in progress, which could otherwise write the offset back after it is deleted.
+     */
+    @Override
+    public void deleteOffset(Path path) {
+        commitLock.lock();
+        try {
+            lock.lock();
+            try {
+                pendingOffsets.remove(path);
+                pendingFingerprints.remove(path);
+            }
+            finally {
+                lock.unlock();
+            }
+            stateStore.deleteOffset(path);
+        }
+        finally {
+            commitLock.unlock();
+        }
+    }
+
+    /**
+     * A path neither pending nor being committed is read from the backing StateStore without holding any lock. It
+     * can only have been committed there already, a concurrent commit can only make it newer.
+     */
+    @Override
+    public long getOffset(Path path) {
+        lock.lock();
+        try {
+            Long pendingOffset = pendingOffsets.get(path);
+            if (pendingOffset == null) {
+                pendingOffset = committingOffsets.get(path);
+            }
+            if (pendingOffset != null) {
+                return pendingOffset;
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+        return stateStore.getOffset(path);
+    }
+
+    /**
+     * Not batched, the head of the file it covers has been read whether its offset is committed or not. Fingerprints
+     * set with an offset are batched with it.
+     */
+    @Override
+    public void setFingerprint(Path path, Fingerprint fingerprint) {
+        commitLock.lock();
+        try {
+            lock.lock();
+            try {
+                pendingFingerprints.remove(path);
+            }
+            finally {
+                lock.unlock();
+            }
+            stateStore.setFingerprint(path, fingerprint);
+        }
+        finally {
+            commitLock.unlock();
+        }
+    }
+
+    @Override
+    public Fingerprint getFingerprint(Path path) {
+        lock.lock();
+        try {
+            Fingerprint pendingFingerprint = pendingFingerprints.get(path);
+            if (pendingFingerprint == null) {
+                pendingFingerprint = committingFingerprints.get(path);
+            }
+            if (pendingFingerprint != null) {
+                return pendingFingerprint;
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+        return stateStore.getFingerprint(path);
+    }
+
+    /**
+     * Commits pending offsets first, the offset of a renamed file is taken over from its committed former path.
+     */
+    @Override
+    public long resolveOffset(Path path, Object fileKey) {
+        commitLock.lock();
+        try {
+            commit();
+            return stateStore.resolveOffset(path, fileKey);
+        }
+        finally {
+            commitLock.unlock();
+        }
+    }
+
+    @Override
+    public void forEachOffset(BiConsumer<Path, Long> consumer) {
+        commit();
+        stateStore.forEachOffset(consumer);
+    }
+
+    @Override
+    public GarbageCollectionStep collectGarbage(
+            int maximumEntries,
+            Predicate<Path> isStale,
+            Consumer<Path> removedConsumer
+    ) {
+        // an offset set later is committed again after the removal, its file exists again
+        commit();
+        return stateStore.collectGarbage(maximumEntries, isStale, removedConsumer);
+    }
+
+    /**
+     * Not batched. A restart point ahead of the committed offset after a crash is ignored by the reader.
+     */
+    @Override
+    public void setRestartPoint(Path path, RestartPoint restartPoint) {
+        stateStore.setRestartPoint(path, restartPoint);
+    }
+
+    @Override
+    public RestartPoint getRestartPoint(Path path) {
+        return stateStore.getRestartPoint(path);
+    }
+
+    /**
+     * Commits all pending offsets to the backing StateStore. The pending offsets are swapped out under the lock and
+     * written after releasing it, offsets set meanwhile are collected into the next batch. Commits are serialized so
+     * a committed offset never goes backwards.
+     */
+    public void commit() {
+        commitLock.lock();
+        try {
+            Map<Path, Long> offsets;
+            Map<Path, Fingerprint> fingerprints;
+            lock.lock();
+            try {
+                if (pendingOffsets.isEmpty()) {
+                    return;
+                }
+                offsets = pendingOffsets;
+                fingerprints = pendingFingerprints;
+                committingOffsets = offsets;
+                committingFingerprints = fingerprints;
+                pendingOffsets = new HashMap<>();
+                pendingFingerprints = new HashMap<>();
+            }
+            finally {
+                lock.unlock();
+            }
+
+            boolean committed = false;
+            try {
+                if (LOGGER.isTraceEnabled()) {
+                    LOGGER.trace("Committing <{}> pending offsets", offsets.size());
+                }
+                if (fingerprints.isEmpty()) {
+                    stateStore.setOffsets(offsets);
+                }
+                else {
+                    stateStore.setOffsets(offsets, fingerprints);
+                }
+                committed = true;
+            }
+            finally {
+                lock.lock();
+                try {
+                    if (!committed) {
+                        // back to pending, offsets set during the failed commit are newer and win
+                        offsets.forEach(pendingOffsets::putIfAbsent);
+                        fingerprints.forEach(pendingFingerprints::putIfAbsent);
+                    }
+                    committingOffsets = Collections.emptyMap();
+                    committingFingerprints = Collections.emptyMap();
+                }
+                finally {
+                    lock.unlock();
+                }
+            }
+        }
+        finally {
+            commitLock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (flushExecutor != null) {
+            flushExecutor.shutdown();
+            try {
+                flushExecutor.awaitTermination(1, TimeUnit.MINUTES);
+            }
+            catch (InterruptedException interruptedException) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        try {
+            commit();
+        }
+        finally {
+            stateStore.close();
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+   Java Stateful File Reader rlo_13
+   Copyright (C) 2023  Suomen Kanuuna Oy
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.teragrep.rlo_13.statestore;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Read-through cache of offsets in front of another StateStore. Writes go through to the backing StateStore before
+ * the cache is updated, reads of cached paths do not touch it at all. Least recently used paths are evicted once
+ * maximumSize paths are cached. Only valid while this process is the only writer of the backing StateStore.
+ */
+public class CachingStateStore implements StateStore {
+
+    private final StateStore stateStore;
+    // loader built once, a hit allocates neither a loader nor a boxed offset
+    private final LoadingCache<Path, Long> offsetCache;
+
+    public CachingStateStore(StateStore stateStore, long maximumSize) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("maximumSize must be positive, got <" + maximumSize + ">");
+        }
+        this.stateStore = stateStore;
+        this.offsetCache = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .concurrencyLevel(16)
+                .build(new CacheLoader<Path, Long>() {
+                    @Override
+                    public Long load(Path path) {
+                        return stateStore.getOffset(path);
+                    }
+                });
+    }
+
+    @Override
+    public void setOffset(Path path, long offset) {
+        stateStore.setOffset(path, offset);
+        offsetCache.put(path, offset);
+    }
+
+    @Override
+    public void setOffsets(Map<Path, Long> offsets) {
+        stateStore.setOffsets(offsets);
+        offsetCache.putAll(offsets);
+    }
+
+    @Override
+    public void setOffset(Path path, long offset, Fingerprint fingerprint) {
+        stateStore.setOffset(path, offset, fingerprint);
+        offsetCache.put(path, offset);
+    }
+
+    @Override
+    public void setOffsets(Map<Path, Long> offsets, Map<Path, Fingerprint> fingerprints) {
+        stateStore.setOffsets(offsets, fingerprints);
+        offsetCache.putAll(offsets);
+    }
+
+    @Override
+    public void deleteOffset(Path path) {
+        stateStore.deleteOffset(path);
+        // absent offset reads as 0, no need to look it up again
+        offsetCache.put(path, 0L);
+    }
+
+    @Override
+    public long getOffset(Path path) {
+        Long offset = offsetCache.getIfPresent(path);
+        if (offset != null) {
+            return offset;
+        }
+        try {
+            return offsetCache.getUnchecked(path);
+        }
+        catch (UncheckedExecutionException uncheckedExecutionException) {
+            Throwable cause = uncheckedExecutionException.getCause();
+            if (cause instanceof RuntimeException) {
+                // same failure as without the cache
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException("Unable to load offset for path <[" + path + "]>", cause);
+        }
+    }
+
+    @Override
+    public void setFingerprint(Path path, Fingerprint fingerprint) {
+        stateStore.setFingerprint(path, fingerprint);
+    }
+
+    @Override
+    public Fingerprint getFingerprint(Path path) {
+        return stateStore.getFingerprint(path);
+    }
+
+    @Override
+    public long resolveOffset(Path path, Object fileKey) {
+        long offset = stateStore.resolveOffset(path, fileKey);
+        offsetCache.put(path, offset);
+        return offset;
+    }
+
+    @Override
+    public void forEachOffset(BiConsumer<Path, Long> consumer) {
+        stateStore.forEachOffset(consumer);
+    }
+
+    @Override
+    public GarbageCollectionStep collectGarbage(
+            int maximumEntries,
+            Predicate<Path> isStale,
+            Consumer<Path> removedConsumer
+    ) {
+        return stateStore.collectGarbage(maximumEntries, isStale, path -> {
+            offsetCache.invalidate(path);
+            removedConsumer.accept(path);
+        });
+    }
+
+    @Override
+    public void setRestartPoint(Path path, RestartPoint restartPoint) {
+        stateStore.setRestartPoint(path, restartPoint);
+    }
+
+    @Override
+    public RestartPoint getRestartPoint(Path path) {
+        return stateStore.getRestartPoint(path);
+    }
+
+    @Override
+    public void close() {
+        offsetCache.invalidateAll();
+        stateStore.close();
+    }
+}
@@ -0,0 +1,55 @@
+/*
+   Java Stateful File Reader rlo_13
+   Copyright (C) 2023  Suomen Kanuuna Oy
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.teragrep.rlo_13.statestore;
+
+/**
+ * Hash of the first bytes of a file. A file whose head no longer matches has been rewritten since its offset was
+ * stored, even if it has grown past the offset again.
+ */
+public final class Fingerprint {
+
+    private final int length;
+    private final long hash;
+
+    public Fingerprint(int length, long hash) {
+        if (length < 1) {
+            throw new IllegalArgumentException("length must be positive, got <" + length + ">");
+        }
+        this.length = length;
+        this.hash = hash;
+    }
+
+    /**
+     * @return count of bytes hashed from the beginning of the file
+     */
+    public int getLength() {
+        return length;
+    }
+
+    public long getHash() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return "Fingerprint{" +
+                "length=" + length +
+                ", hash=" + hash +
+                '}';
+    }
+}
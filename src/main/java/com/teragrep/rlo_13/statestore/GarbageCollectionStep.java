@@ -0,0 +1,64 @@
+/*
+   Java Stateful File Reader rlo_13
+   Copyright (C) 2023  Suomen Kanuuna Oy
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.teragrep.rlo_13.statestore;
+
+/**
+ * Result of one incremental garbage collection step of a StateStore.
+ */
+public final class GarbageCollectionStep {
+
+    private final int examined;
+    private final int removed;
+    private final boolean passComplete;
+
+    public GarbageCollectionStep(int examined, int removed, boolean passComplete) {
+        this.examined = examined;
+        this.removed = removed;
+        this.passComplete = passComplete;
+    }
+
+    /**
+     * @return number of entries examined by this step
+     */
+    public int getExamined() {
+        return examined;
+    }
+
+    /**
+     * @return number of entries removed by this step
+     */
+    public int getRemoved() {
+        return removed;
+    }
+
+    /**
+     * @return true if this step reached the last entry, the next step starts a new pass from the first one
+     */
+    public boolean isPassComplete() {
+        return passComplete;
+    }
+
+    @Override
+    public String toString() {
+        return "GarbageCollectionStep{" +
+                "examined=" + examined +
+                ", removed=" + removed +
+                ", passComplete=" + passComplete +
+                '}';
+    }
+}
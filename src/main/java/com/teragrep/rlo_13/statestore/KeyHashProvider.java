@@ -17,58 +17,56 @@
 
 package com.teragrep.rlo_13.statestore;
 
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
+import com.google.common.hash.Hashing;
 
 import java.nio.ByteBuffer;
-import java.nio.file.Path;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.TimeUnit;
 
 import static java.nio.ByteBuffer.allocateDirect;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
+/**
+ * Keys of the StateStore. Paths are keyed by their 128-bit murmur3 hash, the path itself is stored in the value to
+ * detect collisions. SHA-256 keys are used for paths colliding with another path and are the keys of version 1
+ * databases. File identities are murmur3 hashes of file keys. Returned buffers are reused by the calling thread.
+ */
 class KeyHashProvider {
+    static final int KEY_SIZE = 16;
+    static final int OVERFLOW_KEY_SIZE = 32;
 
-    private final LoadingCache<Path, ByteBuffer> cache;
-    KeyHashProvider() {
-        CacheLoader<Path, ByteBuffer> loader = new CacheLoader<Path, ByteBuffer>() {
-            @Override
-            public ByteBuffer load(Path path) {
-                byte[] pathHash = hash(path.toString().getBytes(UTF_8));
-                final ByteBuffer key = allocateDirect(pathHash.length); // env.getMaxKeySize()
-                key.put(pathHash).flip();
-                return key;
-            }
-        };
+    private final ThreadLocal<ByteBuffer> keyBuffer = ThreadLocal.withInitial(() -> allocateDirect(KEY_SIZE));
+    private final ThreadLocal<ByteBuffer> overflowKeyBuffer =
+            ThreadLocal.withInitial(() -> allocateDirect(OVERFLOW_KEY_SIZE));
 
-        this.cache = CacheBuilder
-                .newBuilder()
-                .maximumSize(512)
-                .expireAfterAccess(5, TimeUnit.MINUTES)
-                .build(loader);
+    ByteBuffer getKey(byte[] pathBytes) {
+        ByteBuffer key = keyBuffer.get();
+        key.clear();
+        key.put(Hashing.murmur3_128().hashBytes(pathBytes).asBytes()).flip();
+        return key;
     }
 
-    private byte[] hash(byte[] path) {
+    /**
+     * @return 128-bit murmur3 hash of the string form of fileKey, a new array
+     */
+    byte[] getIdentity(Object fileKey) {
+        return Hashing.murmur3_128().hashBytes(fileKey.toString().getBytes(UTF_8)).asBytes();
+    }
+
+    ByteBuffer getOverflowKey(byte[] pathBytes) {
+        ByteBuffer key = overflowKeyBuffer.get();
+        key.clear();
+        key.put(sha256(pathBytes)).flip();
+        return key;
+    }
+
+    private byte[] sha256(byte[] pathBytes) {
         try {
             MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
-            return sha256.digest(path);
+            return sha256.digest(pathBytes);
         }
         catch (NoSuchAlgorithmException noSuchAlgorithmException) {
             throw new RuntimeException(noSuchAlgorithmException);
         }
     }
-
-    ByteBuffer getKey(Path path) {
-        try {
-            ByteBuffer bytebuffer = cache.get(path);
-            bytebuffer.position(0);
-            return bytebuffer;
-        } catch (ExecutionException e) {
-            throw new RuntimeException(e);
-        }
-    }
 }
@@ -17,103 +17,880 @@
 
 package com.teragrep.rlo_13.statestore;
 
+import org.lmdbjava.Cursor;
+import org.lmdbjava.CursorIterable;
 import org.lmdbjava.Dbi;
 import org.lmdbjava.Env;
+import org.lmdbjava.EnvFlags;
+import org.lmdbjava.KeyRange;
+import org.lmdbjava.PutFlags;
 import org.lmdbjava.Txn;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.nio.ByteBuffer;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 import static java.nio.ByteBuffer.allocateDirect;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.lmdbjava.DbiFlags.MDB_CREATE;
 import static org.lmdbjava.Env.create;
 
+/**
+ * Offsets in LMDB. Version 4 keys paths by a 128-bit hash, see {@link KeyHashProvider}, and stores the value as the
+ * offset, the identity of the file, the offset and identity of the file previously at the path, the length and hash
+ * of the fingerprint, followed by the path. An all zero identity is not known, a zero length fingerprint is none.
+ * Version 3 values, without the fingerprint, and version 2 values, the offset followed by the path, are rewritten
+ * when the database is opened. Version 1 entries, keyed by SHA-256 with only the offset as the value, are still read and are
+ * rewritten on their next setOffset. Restart points are kept in a database of their own, keyed by SHA-256 of the
+ * path, and the latest path of each identity in another one. Whether any SHA-256 keyed entries exist is recorded
+ * next to the version, without them a path not found is not hashed again with SHA-256.
+ */
 public class LMDBStateStore implements StateStore {
     private static final Logger LOGGER = LoggerFactory.getLogger(LMDBStateStore.class);
 
+    private static final long VERSION = 4;
+
+    private static final int IDENTITY_POSITION = Long.BYTES;
+    private static final int PREVIOUS_OFFSET_POSITION = IDENTITY_POSITION + KeyHashProvider.KEY_SIZE;
+    private static final int PREVIOUS_IDENTITY_POSITION = PREVIOUS_OFFSET_POSITION + Long.BYTES;
+    private static final int FINGERPRINT_LENGTH_POSITION = PREVIOUS_IDENTITY_POSITION + KeyHashProvider.KEY_SIZE;
+    private static final int FINGERPRINT_HASH_POSITION = FINGERPRINT_LENGTH_POSITION + Integer.BYTES;
+    private static final int HEADER_SIZE = FINGERPRINT_HASH_POSITION + Long.BYTES;
+    private static final int VERSION_3_HEADER_SIZE = FINGERPRINT_LENGTH_POSITION;
+    private static final byte[] NO_IDENTITY = new byte[KeyHashProvider.KEY_SIZE];
+
     private final Env<ByteBuffer> env;
     private final Dbi<ByteBuffer> db;
+    private final Dbi<ByteBuffer> restartPointDb;
+    private final Dbi<ByteBuffer> fileKeyDb;
+    private final Dbi<ByteBuffer> versionDb;
+
+    // false while no SHA-256 keyed entries exist, misses then skip the overflow lookup. Recorded in the VersionStore.
+    private volatile boolean overflowKeys;
+    // the record was put by the write transaction of this thread, overflowKeys is set once it commits
+    private final ThreadLocal<boolean[]> overflowKeysMarked = ThreadLocal.withInitial(() -> new boolean[1]);
+
+    private final ScheduledExecutorService syncExecutor; // null when every commit is synced
 
     private final KeyHashProvider keyHashProvider = new KeyHashProvider();
+    private final ThreadLocal<ByteBuffer> valueBuffer = ThreadLocal.withInitial(() -> allocateDirect(512));
+    private final ThreadLocal<ByteBuffer> restartPointBuffer = ThreadLocal.withInitial(() -> allocateDirect(2 * Long.BYTES));
+    private final ThreadLocal<ByteBuffer> identityBuffer =
+            ThreadLocal.withInitial(() -> allocateDirect(KeyHashProvider.KEY_SIZE));
+
+    private final double mapGrowthFactor;
+    // transactions are run holding the read lock, the map is grown holding the write lock
+    private final ReadWriteLock mapLock = new ReentrantReadWriteLock();
+
+    private final Lock garbageCollectionLock = new ReentrantLock();
+    private ByteBuffer garbageCollectionResumeKey = null; // null starts a new pass
     public LMDBStateStore(Path stateStorePath) {
+        this(stateStorePath, StateStoreDurability.SYNC, 0);
+    }
+
+    public LMDBStateStore(Path stateStorePath, StateStoreDurability durability, long syncIntervalMillis) {
+        this(stateStorePath, durability, syncIntervalMillis, 64L * 1024 * 1024, 2.0);
+    }
+
+    /**
+     * @param durability SYNC, NO_META_SYNC or NO_SYNC, WRITE_BEHIND is provided by {@link BatchingStateStore}
+     * @param syncIntervalMillis interval of syncing the environment for NO_META_SYNC and NO_SYNC
+     * @param initialMapSize size of the map when created, an existing larger database keeps its size
+     * @param mapGrowthFactor the map is grown by this factor whenever it is full
+     */
+    public LMDBStateStore(
+            Path stateStorePath,
+            StateStoreDurability durability,
+            long syncIntervalMillis,
+            long initialMapSize,
+            double mapGrowthFactor
+    ) {
+        EnvFlags[] envFlags;
+        switch (durability) {
+            case SYNC:
+                envFlags = new EnvFlags[0];
+                break;
+            case NO_META_SYNC:
+                envFlags = new EnvFlags[] {EnvFlags.MDB_NOMETASYNC};
+                break;
+            case NO_SYNC:
+                envFlags = new EnvFlags[] {EnvFlags.MDB_NOSYNC};
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported durability <" + durability + "> for LMDBStateStore");
+        }
+        if (envFlags.length > 0 && syncIntervalMillis < 1) {
+            throw new IllegalArgumentException("syncIntervalMillis must be positive, got <" + syncIntervalMillis + ">");
+        }
+        if (initialMapSize < 1) {
+            throw new IllegalArgumentException("initialMapSize must be positive, got <" + initialMapSize + ">");
+        }
+        if (!(mapGrowthFactor > 1.0)) {
+            throw new IllegalArgumentException("mapGrowthFactor must be greater than 1, got <" + mapGrowthFactor + ">");
+        }
+        this.mapGrowthFactor = mapGrowthFactor;
+
         env =
                 Env.create()
-                        // 2 * 1024 * 1024 * 1024 / (64 (sha-256) + 8 (Long.BYTES) = 29M files
-                        .setMapSize((long) 2 * 1024 * 1024 * 1024) //
-                        .setMaxDbs(2)
-                        .open(stateStorePath.toFile());
+                        // grown when full, see growMap()
+                        .setMapSize(initialMapSize)
+                        .setMaxDbs(4)
+                        .open(stateStorePath.toFile(), envFlags);
 
         db = env.openDbi("StateStore", MDB_CREATE);
+        restartPointDb = env.openDbi("RestartPoints", MDB_CREATE);
+        fileKeyDb = env.openDbi("FileKeys", MDB_CREATE);
+        versionDb = env.openDbi("VersionStore", MDB_CREATE);
         getVersion();
+        overflowKeys = loadOverflowKeys();
+
+        if (envFlags.length > 0) {
+            syncExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "rlo_13-statestore-sync");
+                thread.setDaemon(true);
+                return thread;
+            });
+            syncExecutor.scheduleWithFixedDelay(this::sync, syncIntervalMillis, syncIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+        else {
+            syncExecutor = null;
+        }
     }
 
-    private long getVersion() {
-        Dbi<ByteBuffer> versionDb = env.openDbi("VersionStore", MDB_CREATE);
+    private void sync() {
+        mapLock.readLock().lock();
+        try {
+            env.sync(true);
+        }
+        catch (RuntimeException runtimeException) {
+            // keep the schedule running, the next sync covers these commits as well
+            LOGGER.error("Sync of StateStore failed", runtimeException);
+        }
+        finally {
+            mapLock.readLock().unlock();
+        }
+    }
 
+    private long getVersion() {
         byte[] versionStringBytes = "StateStoreVersion".getBytes(UTF_8);
         final ByteBuffer key = allocateDirect(env.getMaxKeySize());
         key.put(versionStringBytes).flip();
 
+        long version;
         try (Txn<ByteBuffer> txn = env.txnRead()) {
             final ByteBuffer found = versionDb.get(txn, key);
             if (found == null) {
-                // new DB
-                long version = 1;
-                LOGGER.trace("Created new StateStore with version <{}>", version);
-                ByteBuffer byteBuffer = ByteBuffer.allocateDirect(Long.BYTES);
-                byteBuffer.putLong(version).flip();
-                versionDb.put(key,byteBuffer);
-                return version;
+                version = 0;
             }
             else {
                 final ByteBuffer fetchedVal = txn.val();
-                long version = fetchedVal.getLong();
-                LOGGER.trace("Found existing StateStore with version <{}>", version);
-                return version;
+                version = fetchedVal.getLong();
+            }
+        }
+
+        if (version == 0) {
+            // new DB
+            LOGGER.trace("Created new StateStore with version <{}>", VERSION);
+            putVersion(versionDb, key, VERSION);
+            return VERSION;
+        }
+        else if (version < VERSION) {
+            // version 1 entries are migrated one by one on their next setOffset, their paths are not known before
+            LOGGER.info("Upgrading StateStore from version <{}> to <{}>", version, VERSION);
+            ByteBuffer versionValue = ByteBuffer.allocateDirect(Long.BYTES);
+            versionValue.putLong(VERSION).flip();
+            // together with the new version, an interrupted upgrade is run again from the beginning
+            write(txn -> {
+                upgradeValues(txn, version);
+                versionDb.put(txn, key, versionValue);
+            });
+            return VERSION;
+        }
+        else if (version > VERSION) {
+            throw new IllegalStateException(
+                    "StateStore version <" + version + "> is newer than supported version <" + VERSION + ">"
+            );
+        }
+        LOGGER.trace("Found existing StateStore with version <{}>", version);
+        return version;
+    }
+
+    private void upgradeValues(Txn<ByteBuffer> txn, long version) {
+        // version 2 has only the offset before the path, version 3 all but the fingerprint
+        int headerSize = version < 3 ? Long.BYTES : VERSION_3_HEADER_SIZE;
+        long upgraded = 0;
+        try (Cursor<ByteBuffer> cursor = db.openCursor(txn)) {
+            boolean found = cursor.first();
+            while (found) {
+                ByteBuffer val = cursor.val();
+                if (val.limit() > Long.BYTES) {
+                    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                    header.put(bytesOf(val, 0, headerSize)).clear();
+                    byte[] pathBytes = bytesOf(val, headerSize, val.limit() - headerSize);
+                    cursor.put(copyOf(cursor.key()), value(header, pathBytes), PutFlags.MDB_CURRENT);
+                    upgraded++;
+                }
+                found = cursor.next();
+            }
+        }
+        LOGGER.info("Upgraded <{}> StateStore values", upgraded);
+    }
+
+    /**
+     * @return true if the database may hold SHA-256 keyed entries, of colliding paths or of version 1. A database
+     * without the record, new or from before it, is scanned for them once.
+     */
+    private boolean loadOverflowKeys() {
+        ByteBuffer key = overflowKeysKey();
+        try (Txn<ByteBuffer> txn = env.txnRead()) {
+            ByteBuffer found = versionDb.get(txn, key);
+            if (found != null) {
+                return found.get(0) != 0;
+            }
+        }
+
+        boolean found = false;
+        try (Txn<ByteBuffer> txn = env.txnRead(); Cursor<ByteBuffer> cursor = db.openCursor(txn)) {
+            boolean next = cursor.first();
+            while (next && !found) {
+                found = cursor.key().remaining() == KeyHashProvider.OVERFLOW_KEY_SIZE;
+                next = cursor.next();
             }
         }
+        LOGGER.info("StateStore has overflow keys <{}>", found);
+        ByteBuffer val = allocateDirect(1);
+        val.put((byte) (found ? 1 : 0)).flip();
+        write(txn -> versionDb.put(txn, key, val));
+        return found;
+    }
+
+    /**
+     * Records that SHA-256 keyed entries exist, in the transaction storing the first one. Put again by every
+     * transaction until one of them commits, a transaction retried after MapFull must not lose the record.
+     */
+    private void markOverflowKeys(Txn<ByteBuffer> txn) {
+        if (!overflowKeys) {
+            ByteBuffer val = allocateDirect(1);
+            val.put((byte) 1).flip();
+            versionDb.put(txn, overflowKeysKey(), val);
+            overflowKeysMarked.get()[0] = true;
+        }
+    }
+
+    private ByteBuffer overflowKeysKey() {
+        byte[] keyBytes = "OverflowKeys".getBytes(UTF_8);
+        ByteBuffer key = allocateDirect(keyBytes.length);
+        key.put(keyBytes).flip();
+        return key;
+    }
+
+    /**
+     * @return entry of the path under its SHA-256 key, null if there is none. Not looked up while no such keys exist.
+     */
+    private ByteBuffer overflowOf(Txn<ByteBuffer> txn, byte[] pathBytes) {
+        if (!overflowKeys) {
+            return null;
+        }
+        return db.get(txn, keyHashProvider.getOverflowKey(pathBytes));
+    }
+
+    private void putVersion(Dbi<ByteBuffer> versionDb, ByteBuffer key, long version) {
+        ByteBuffer byteBuffer = ByteBuffer.allocateDirect(Long.BYTES);
+        byteBuffer.putLong(version).flip();
+        versionDb.put(key, byteBuffer);
+    }
+
+    /**
+     * Runs the operation in a write transaction and commits it. If the map is full it is grown and the operation is
+     * run again in a new transaction.
+     */
+    private void write(Consumer<Txn<ByteBuffer>> operation) {
+        boolean[] marked = overflowKeysMarked.get();
+        while (true) {
+            long mapSize;
+            marked[0] = false;
+            mapLock.readLock().lock();
+            try (Txn<ByteBuffer> txn = env.txnWrite()) {
+                operation.accept(txn);
+                txn.commit();
+                if (marked[0]) {
+                    overflowKeys = true;
+                }
+                return;
+            }
+            catch (Env.MapFullException mapFullException) {
+                mapSize = env.info().mapSize;
+            }
+            finally {
+                mapLock.readLock().unlock();
+            }
+            growMap(mapSize);
+        }
+    }
+
+    private void growMap(long fullMapSize) {
+        mapLock.writeLock().lock();
+        try {
+            // no transactions are open now
+            long mapSize = env.info().mapSize;
+            if (mapSize > fullMapSize) {
+                // already grown by another writer
+                return;
+            }
+            long newMapSize = (long) (mapSize * mapGrowthFactor);
+            LOGGER.info("StateStore map full, growing from <{}> to <{}> bytes", mapSize, newMapSize);
+            env.setMapSize(newMapSize);
+        }
+        finally {
+            mapLock.writeLock().unlock();
+        }
     }
 
     @Override
     public void setOffset(Path path, long offset) {
+        write(txn -> putOffset(txn, path, offset));
+    }
+
+    @Override
+    public void setOffsets(Map<Path, Long> offsets) {
+        if (offsets.isEmpty()) {
+            return;
+        }
 
-        final ByteBuffer val = allocateDirect(Long.BYTES);
-        val.putLong(offset).flip();
+        // single commit for the whole batch
+        write(txn -> {
+            for (Map.Entry<Path, Long> entry : offsets.entrySet()) {
+                putOffset(txn, entry.getKey(), entry.getValue());
+            }
+        });
+        LOGGER.trace("Committed <{}> offsets in one transaction", offsets.size());
+    }
 
-        ByteBuffer key = keyHashProvider.getKey(path);
-        db.put(key, val);
+    @Override
+    public void setOffset(Path path, long offset, Fingerprint fingerprint) {
+        write(txn -> update(txn, path, header -> {
+            header.putLong(0, offset);
+            putFingerprint(header, fingerprint);
+        }));
+    }
+
+    @Override
+    public void setOffsets(Map<Path, Long> offsets, Map<Path, Fingerprint> fingerprints) {
+        if (offsets.isEmpty() && fingerprints.isEmpty()) {
+            return;
+        }
+
+        write(txn -> {
+            for (Map.Entry<Path, Long> entry : offsets.entrySet()) {
+                Fingerprint fingerprint = fingerprints.get(entry.getKey());
+                if (fingerprint == null) {
+                    putOffset(txn, entry.getKey(), entry.getValue());
+                }
+                else {
+                    update(txn, entry.getKey(), header -> {
+                        header.putLong(0, entry.getValue());
+                        putFingerprint(header, fingerprint);
+                    });
+                }
+            }
+            for (Map.Entry<Path, Fingerprint> entry : fingerprints.entrySet()) {
+                if (!offsets.containsKey(entry.getKey())) {
+                    update(txn, entry.getKey(), header -> putFingerprint(header, entry.getValue()));
+                }
+            }
+        });
+        LOGGER.trace(
+                "Committed <{}> offsets and <{}> fingerprints in one transaction",
+                offsets.size(),
+                fingerprints.size()
+        );
+    }
+
+    private void putOffset(Txn<ByteBuffer> txn, Path path, long offset) {
+        // identities and fingerprint are kept as they are
+        update(txn, path, header -> header.putLong(0, offset));
+    }
+
+    private void putFingerprint(ByteBuffer header, Fingerprint fingerprint) {
+        header.putInt(FINGERPRINT_LENGTH_POSITION, fingerprint.getLength());
+        header.putLong(FINGERPRINT_HASH_POSITION, fingerprint.getHash());
+    }
+
+    /**
+     * Stores the value of path with its header changed by headerUpdate. A path not stored yet gets an all zero
+     * header before the update.
+     */
+    private void update(Txn<ByteBuffer> txn, Path path, Consumer<ByteBuffer> headerUpdate) {
+        byte[] pathBytes = path.toString().getBytes(UTF_8);
+        ByteBuffer key = keyHashProvider.getKey(pathBytes);
+
+        ByteBuffer found = db.get(txn, key);
+        if (found == null) {
+            ByteBuffer overflow = overflowOf(txn, pathBytes);
+            ByteBuffer header = headerOf(overflow);
+            headerUpdate.accept(header);
+            db.put(txn, key, value(header, pathBytes));
+            // an overflow or version 1 entry of the path must not come back once this one is deleted
+            if (overflow != null) {
+                db.delete(txn, keyHashProvider.getOverflowKey(pathBytes));
+            }
+        }
+        else if (isPathOf(found, pathBytes)) {
+            ByteBuffer header = headerOf(found);
+            headerUpdate.accept(header);
+            db.put(txn, key, value(header, pathBytes));
+        }
+        else {
+            LOGGER.warn("Hash collision of path <[{}]>, stored with an overflow key", path);
+            ByteBuffer header = headerOf(overflowOf(txn, pathBytes));
+            headerUpdate.accept(header);
+            markOverflowKeys(txn);
+            db.put(txn, keyHashProvider.getOverflowKey(pathBytes), value(header, pathBytes));
+        }
     }
 
     @Override
     public void deleteOffset(Path path) {
-        ByteBuffer key = keyHashProvider.getKey(path);
-        db.delete(key);
+        byte[] pathBytes = path.toString().getBytes(UTF_8);
+        ByteBuffer key = keyHashProvider.getKey(pathBytes);
+        ByteBuffer overflowKey = keyHashProvider.getOverflowKey(pathBytes);
+
+        write(txn -> {
+            ByteBuffer found = db.get(txn, key);
+            if (found != null && isPathOf(found, pathBytes)) {
+                List<byte[]> identities = identitiesOf(found);
+                db.delete(txn, key);
+                deleteIdentities(txn, identities, pathBytes);
+            }
+            ByteBuffer overflow = overflowOf(txn, pathBytes);
+            if (overflow != null) {
+                List<byte[]> identities = identitiesOf(overflow);
+                db.delete(txn, overflowKey);
+                deleteIdentities(txn, identities, pathBytes);
+            }
+            if (restartPointDb.get(txn, overflowKey) != null) {
+                restartPointDb.delete(txn, overflowKey);
+            }
+        });
     }
 
     @Override
     public long getOffset(Path path) {
-        ByteBuffer key = keyHashProvider.getKey(path);
+        byte[] pathBytes = path.toString().getBytes(UTF_8);
+        ByteBuffer key = keyHashProvider.getKey(pathBytes);
 
+        mapLock.readLock().lock();
         try (Txn<ByteBuffer> txn = env.txnRead()) {
             final ByteBuffer found = db.get(txn, key);
-            if (found == null) {
+            if (found != null && isPathOf(found, pathBytes)) {
+                return found.getLong(0);
+            }
+            // colliding path or not yet migrated version 1 entry, SHA-256 is trusted without checking the path
+            final ByteBuffer overflow = overflowOf(txn, pathBytes);
+            if (overflow == null) {
                 return 0;
             }
             else {
-                final ByteBuffer fetchedVal = txn.val();
-                return fetchedVal.getLong();
+                return overflow.getLong(0);
+            }
+        }
+        finally {
+            mapLock.readLock().unlock();
+        }
+
+    }
+
+    @Override
+    public void forEachOffset(BiConsumer<Path, Long> consumer) {
+        mapLock.readLock().lock();
+        try (Txn<ByteBuffer> txn = env.txnRead(); CursorIterable<ByteBuffer> cursorIterable = db.iterate(txn)) {
+            for (CursorIterable.KeyVal<ByteBuffer> keyVal : cursorIterable) {
+                ByteBuffer val = keyVal.val();
+                if (val.limit() > Long.BYTES) {
+                    consumer.accept(pathOf(val), val.getLong(0));
+                }
+            }
+        }
+        finally {
+            mapLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public GarbageCollectionStep collectGarbage(
+            int maximumEntries,
+            Predicate<Path> isStale,
+            Consumer<Path> removedConsumer
+    ) {
+        if (maximumEntries < 1) {
+            throw new IllegalArgumentException("maximumEntries must be positive, got <" + maximumEntries + ">");
+        }
+
+        garbageCollectionLock.lock();
+        try {
+            List<ByteBuffer> candidateKeys = new ArrayList<>();
+            List<Path> candidatePaths = new ArrayList<>();
+            List<Long> candidateOffsets = new ArrayList<>();
+            int examined = 0;
+            boolean passComplete;
+            ByteBuffer lastKey = null;
+
+            // short read transaction, the filesystem is checked only after it is closed
+            KeyRange<ByteBuffer> keyRange;
+            if (garbageCollectionResumeKey == null) {
+                keyRange = KeyRange.all();
+            }
+            else {
+                keyRange = KeyRange.greaterThan(garbageCollectionResumeKey);
+            }
+            mapLock.readLock().lock();
+            try (
+                    Txn<ByteBuffer> txn = env.txnRead();
+                    CursorIterable<ByteBuffer> cursorIterable = db.iterate(txn, keyRange)
+            ) {
+                Iterator<CursorIterable.KeyVal<ByteBuffer>> iterator = cursorIterable.iterator();
+                while (examined < maximumEntries && iterator.hasNext()) {
+                    CursorIterable.KeyVal<ByteBuffer> keyVal = iterator.next();
+                    examined++;
+                    lastKey = copyOf(keyVal.key());
+
+                    ByteBuffer val = keyVal.val();
+                    if (val.limit() > Long.BYTES) {
+                        candidateKeys.add(lastKey);
+                        candidatePaths.add(pathOf(val));
+                        candidateOffsets.add(val.getLong(0));
+                    }
+                }
+                passComplete = !iterator.hasNext();
+            }
+            finally {
+                mapLock.readLock().unlock();
+            }
+            garbageCollectionResumeKey = passComplete ? null : lastKey;
+
+            List<Integer> stale = new ArrayList<>();
+            for (int i = 0; i < candidatePaths.size(); i++) {
+                if (isStale.test(candidatePaths.get(i))) {
+                    stale.add(i);
+                }
+            }
+
+            List<Path> removedPaths = new ArrayList<>();
+            if (!stale.isEmpty()) {
+                write(txn -> {
+                    removedPaths.clear();
+                    for (int i : stale) {
+                        byte[] pathBytes = candidatePaths.get(i).toString().getBytes(UTF_8);
+                        // not removed if the path got a new offset meanwhile
+                        ByteBuffer found = db.get(txn, candidateKeys.get(i));
+                        if (
+                            found != null && isPathOf(found, pathBytes)
+                                    && found.getLong(0) == candidateOffsets.get(i)
+                        ) {
+                            List<byte[]> identities = identitiesOf(found);
+                            db.delete(txn, candidateKeys.get(i));
+                            deleteIdentities(txn, identities, pathBytes);
+                            ByteBuffer restartPointKey = keyHashProvider.getOverflowKey(pathBytes);
+                            if (restartPointDb.get(txn, restartPointKey) != null) {
+                                restartPointDb.delete(txn, restartPointKey);
+                            }
+                            removedPaths.add(candidatePaths.get(i));
+                        }
+                    }
+                });
+            }
+
+            for (Path removedPath : removedPaths) {
+                LOGGER.trace("Removed offset of vanished path <[{}]>", removedPath);
+                removedConsumer.accept(removedPath);
+            }
+            return new GarbageCollectionStep(examined, removedPaths.size(), passComplete);
+        }
+        finally {
+            garbageCollectionLock.unlock();
+        }
+    }
+
+    @Override
+    public long resolveOffset(Path path, Object fileKey) {
+        byte[] pathBytes = path.toString().getBytes(UTF_8);
+        byte[] identity = keyHashProvider.getIdentity(fileKey);
+        long[] offset = new long[1];
+        write(txn -> offset[0] = resolve(txn, path, pathBytes, identity));
+        return offset[0];
+    }
+
+    private long resolve(Txn<ByteBuffer> txn, Path path, byte[] pathBytes, byte[] identity) {
+        // copies, keys of other paths are looked up on the way
+        ByteBuffer key = copyOf(keyHashProvider.getKey(pathBytes));
+        ByteBuffer overflowKey = copyOf(keyHashProvider.getOverflowKey(pathBytes));
+
+        ByteBuffer found = db.get(txn, key);
+        boolean collision = found != null && !isPathOf(found, pathBytes);
+        boolean overflowed = false;
+        if (found == null || collision) {
+            found = overflowOf(txn, pathBytes);
+            overflowed = !collision && found != null;
+        }
+
+        ByteBuffer header;
+        if (found == null) {
+            header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putLong(0, renamedOffset(txn, path, pathBytes, identity));
+        }
+        else if (found.limit() == Long.BYTES || isIdentity(found, IDENTITY_POSITION, NO_IDENTITY)) {
+            // identity not known yet, the file is taken to be the one the offset was stored for
+            header = headerOf(found);
+        }
+        else if (isIdentity(found, IDENTITY_POSITION, identity)) {
+            return found.getLong(0);
+        }
+        else {
+            // another file at the path, the file the offset was stored for may have been renamed. Read before the
+            // lookup of the renamed offset, found is reused by the transaction.
+            header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putLong(PREVIOUS_OFFSET_POSITION, found.getLong(0));
+            header.position(PREVIOUS_IDENTITY_POSITION);
+            header.put(bytesOf(found, IDENTITY_POSITION, KeyHashProvider.KEY_SIZE));
+            header.putLong(0, renamedOffset(txn, path, pathBytes, identity));
+        }
+        header.position(IDENTITY_POSITION);
+        header.put(identity).clear();
+
+        ByteBuffer val = value(header, pathBytes);
+        if (collision) {
+            markOverflowKeys(txn);
+            db.put(txn, overflowKey, val);
+        }
+        else {
+            db.put(txn, key, val);
+            if (overflowed) {
+                db.delete(txn, overflowKey);
             }
         }
 
+        ByteBuffer pathValue = allocateDirect(pathBytes.length);
+        pathValue.put(pathBytes).flip();
+        fileKeyDb.put(txn, identityKey(identity), pathValue);
+        return header.getLong(0);
+    }
+
+    /**
+     * @return offset of the identity at the path it was last seen at, 0 if it is not known
+     */
+    private long renamedOffset(Txn<ByteBuffer> txn, Path path, byte[] pathBytes, byte[] identity) {
+        ByteBuffer indexed = fileKeyDb.get(txn, identityKey(identity));
+        if (indexed == null) {
+            return 0;
+        }
+        byte[] formerPathBytes = bytesOf(indexed, 0, indexed.limit());
+
+        ByteBuffer former = db.get(txn, keyHashProvider.getKey(formerPathBytes));
+        if (former == null || !isPathOf(former, formerPathBytes)) {
+            former = overflowOf(txn, formerPathBytes);
+        }
+        if (former == null || former.limit() == Long.BYTES) {
+            return 0;
+        }
+
+        long offset;
+        if (isIdentity(former, IDENTITY_POSITION, identity)) {
+            offset = former.getLong(0);
+        }
+        else if (isIdentity(former, PREVIOUS_IDENTITY_POSITION, identity)) {
+            offset = former.getLong(PREVIOUS_OFFSET_POSITION);
+        }
+        else {
+            // the former path has moved on to other files since
+            return 0;
+        }
+        if (!Arrays.equals(formerPathBytes, pathBytes)) {
+            LOGGER.debug(
+                    "Path <[{}]> continues from offset <{}> of renamed path <[{}]>", path, offset,
+                    new String(formerPathBytes, UTF_8)
+            );
+        }
+        return offset;
     }
 
+    private List<byte[]> identitiesOf(ByteBuffer value) {
+        List<byte[]> identities = new ArrayList<>(2);
+        if (value.limit() > Long.BYTES) {
+            identities.add(bytesOf(value, IDENTITY_POSITION, KeyHashProvider.KEY_SIZE));
+            identities.add(bytesOf(value, PREVIOUS_IDENTITY_POSITION, KeyHashProvider.KEY_SIZE));
+        }
+        return identities;
+    }
 
+    /**
+     * Deletes identities that were last seen at the path.
+     */
+    private void deleteIdentities(Txn<ByteBuffer> txn, List<byte[]> identities, byte[] pathBytes) {
+        for (byte[] identity : identities) {
+            if (Arrays.equals(identity, NO_IDENTITY)) {
+                continue;
+            }
+            ByteBuffer identityKey = identityKey(identity);
+            ByteBuffer indexed = fileKeyDb.get(txn, identityKey);
+            if (indexed != null && Arrays.equals(bytesOf(indexed, 0, indexed.limit()), pathBytes)) {
+                fileKeyDb.delete(txn, identityKey);
+            }
+        }
+    }
+
+    private ByteBuffer identityKey(byte[] identity) {
+        ByteBuffer key = identityBuffer.get();
+        key.clear();
+        key.put(identity).flip();
+        return key;
+    }
+
+    private boolean isIdentity(ByteBuffer value, int position, byte[] identity) {
+        for (int i = 0; i < identity.length; i++) {
+            if (value.get(position + i) != identity[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private byte[] bytesOf(ByteBuffer byteBuffer, int position, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = byteBuffer.get(position + i);
+        }
+        return bytes;
+    }
+
+    @Override
+    public void setFingerprint(Path path, Fingerprint fingerprint) {
+        write(txn -> update(txn, path, header -> putFingerprint(header, fingerprint)));
+    }
+
+    @Override
+    public Fingerprint getFingerprint(Path path) {
+        byte[] pathBytes = path.toString().getBytes(UTF_8);
+        ByteBuffer key = keyHashProvider.getKey(pathBytes);
+
+        mapLock.readLock().lock();
+        try (Txn<ByteBuffer> txn = env.txnRead()) {
+            ByteBuffer found = db.get(txn, key);
+            if (found == null || !isPathOf(found, pathBytes)) {
+                found = overflowOf(txn, pathBytes);
+            }
+            if (found == null || found.limit() == Long.BYTES || found.getInt(FINGERPRINT_LENGTH_POSITION) == 0) {
+                return null;
+            }
+            return new Fingerprint(found.getInt(FINGERPRINT_LENGTH_POSITION), found.getLong(FINGERPRINT_HASH_POSITION));
+        }
+        finally {
+            mapLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void setRestartPoint(Path path, RestartPoint restartPoint) {
+        ByteBuffer key = keyHashProvider.getOverflowKey(path.toString().getBytes(UTF_8));
+        ByteBuffer val = restartPointBuffer.get();
+        val.clear();
+        val.putLong(restartPoint.getCompressedOffset()).putLong(restartPoint.getUncompressedOffset()).flip();
+        write(txn -> restartPointDb.put(txn, key, val));
+    }
+
+    @Override
+    public RestartPoint getRestartPoint(Path path) {
+        ByteBuffer key = keyHashProvider.getOverflowKey(path.toString().getBytes(UTF_8));
+
+        mapLock.readLock().lock();
+        try (Txn<ByteBuffer> txn = env.txnRead()) {
+            ByteBuffer found = restartPointDb.get(txn, key);
+            if (found == null) {
+                return null;
+            }
+            return new RestartPoint(found.getLong(0), found.getLong(Long.BYTES));
+        }
+        finally {
+            mapLock.readLock().unlock();
+        }
+    }
+
+    private ByteBuffer copyOf(ByteBuffer byteBuffer) {
+        ByteBuffer copy = allocateDirect(byteBuffer.remaining());
+        copy.put(byteBuffer.duplicate()).flip();
+        return copy;
+    }
+
+    private Path pathOf(ByteBuffer value) {
+        return Paths.get(new String(bytesOf(value, HEADER_SIZE, value.limit() - HEADER_SIZE), UTF_8));
+    }
+
+    /**
+     * @return copy of the header of a stored value, all zero but the offset for a version 1 value and all zero for
+     * null
+     */
+    private ByteBuffer headerOf(ByteBuffer stored) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        if (stored != null && stored.limit() == Long.BYTES) {
+            header.putLong(0, stored.getLong(0));
+        }
+        else if (stored != null) {
+            header.put(bytesOf(stored, 0, HEADER_SIZE)).clear();
+        }
+        return header;
+    }
+
+    private ByteBuffer value(ByteBuffer header, byte[] pathBytes) {
+        ByteBuffer val = valueBuffer.get();
+        if (val.capacity() < HEADER_SIZE + pathBytes.length) {
+            val = allocateDirect(HEADER_SIZE + pathBytes.length);
+            valueBuffer.set(val);
+        }
+        val.clear();
+        val.put(header.duplicate()).put(pathBytes).flip();
+        return val;
+    }
+
+    private boolean isPathOf(ByteBuffer value, byte[] pathBytes) {
+        if (value.limit() != HEADER_SIZE + pathBytes.length) {
+            return false;
+        }
+        for (int i = 0; i < pathBytes.length; i++) {
+            if (value.get(HEADER_SIZE + i) != pathBytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
 
     @Override
     public void close() {
+        if (syncExecutor != null) {
+            syncExecutor.shutdown();
+            try {
+                syncExecutor.awaitTermination(1, TimeUnit.MINUTES);
+            }
+            catch (InterruptedException interruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            env.sync(true);
+        }
         env.close();
     }
 }
@@ -0,0 +1,131 @@
+/*
+   Java Stateful File Reader rlo_13
+   Copyright (C) 2023  Suomen Kanuuna Oy
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.teragrep.rlo_13.statestore;
+
+import com.teragrep.rlo_13.metrics.Metrics;
+import com.teragrep.rlo_13.metrics.StateStoreOperation;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Reports the latency of each operation of another StateStore to Metrics. Only used when metrics are enabled.
+ */
+public class MeteredStateStore implements StateStore {
+
+    private final StateStore stateStore;
+    private final Metrics metrics;
+
+    public MeteredStateStore(StateStore stateStore, Metrics metrics) {
+        this.stateStore = stateStore;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void setOffset(Path path, long offset) {
+        long start = System.nanoTime();
+        stateStore.setOffset(path, offset);
+        metrics.stateStoreOperation(StateStoreOperation.SET_OFFSET, System.nanoTime() - start);
+    }
+
+    @Override
+    public void setOffsets(Map<Path, Long> offsets) {
+        long start = System.nanoTime();
+        stateStore.setOffsets(offsets);
+        metrics.stateStoreOperation(StateStoreOperation.SET_OFFSETS, System.nanoTime() - start);
+    }
+
+    @Override
+    public void setOffset(Path path, long offset, Fingerprint fingerprint) {
+        long start = System.nanoTime();
+        stateStore.setOffset(path, offset, fingerprint);
+        metrics.stateStoreOperation(StateStoreOperation.SET_OFFSET, System.nanoTime() - start);
+    }
+
+    @Override
+    public void setOffsets(Map<Path, Long> offsets, Map<Path, Fingerprint> fingerprints) {
+        long start = System.nanoTime();
+        stateStore.setOffsets(offsets, fingerprints);
+        metrics.stateStoreOperation(StateStoreOperation.SET_OFFSETS, System.nanoTime() - start);
+    }
+
+    @Override
+    public void deleteOffset(Path path) {
+        long start = System.nanoTime();
+        stateStore.deleteOffset(path);
+        metrics.stateStoreOperation(StateStoreOperation.DELETE_OFFSET, System.nanoTime() - start);
+    }
+
+    @Override
+    public long getOffset(Path path) {
+        long start = System.nanoTime();
+        long offset = stateStore.getOffset(path);
+        metrics.stateStoreOperation(StateStoreOperation.GET_OFFSET, System.nanoTime() - start);
+        return offset;
+    }
+
+    @Override
+    public void setFingerprint(Path path, Fingerprint fingerprint) {
+        stateStore.setFingerprint(path, fingerprint);
+    }
+
+    @Override
+    public Fingerprint getFingerprint(Path path) {
+        return stateStore.getFingerprint(path);
+    }
+
+    @Override
+    public long resolveOffset(Path path, Object fileKey) {
+        long start = System.nanoTime();
+        long offset = stateStore.resolveOffset(path, fileKey);
+        metrics.stateStoreOperation(StateStoreOperation.GET_OFFSET, System.nanoTime() - start);
+        return offset;
+    }
+
+    @Override
+    public void forEachOffset(BiConsumer<Path, Long> consumer) {
+        stateStore.forEachOffset(consumer);
+    }
+
+    @Override
+    public GarbageCollectionStep collectGarbage(
+            int maximumEntries,
+            Predicate<Path> isStale,
+            Consumer<Path> removedConsumer
+    ) {
+        return stateStore.collectGarbage(maximumEntries, isStale, removedConsumer);
+    }
+
+    @Override
+    public void setRestartPoint(Path path, RestartPoint restartPoint) {
+        stateStore.setRestartPoint(path, restartPoint);
+    }
+
+    @Override
+    public RestartPoint getRestartPoint(Path path) {
+        return stateStore.getRestartPoint(path);
+    }
+
+    @Override
+    public void close() {
+        stateStore.close();
+    }
+}
@@ -0,0 +1,55 @@
+/*
+   Java Stateful File Reader rlo_13
+   Copyright (C) 2023  Suomen Kanuuna Oy
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.teragrep.rlo_13.statestore;
+
+/**
+ * Position in a compressed file from which decompression can start without the bytes before it, such as the start
+ * of a gzip member.
+ */
+public final class RestartPoint {
+
+    private final long compressedOffset;
+    private final long uncompressedOffset;
+
+    public RestartPoint(long compressedOffset, long uncompressedOffset) {
+        this.compressedOffset = compressedOffset;
+        this.uncompressedOffset = uncompressedOffset;
+    }
+
+    /**
+     * @return offset in the file
+     */
+    public long getCompressedOffset() {
+        return compressedOffset;
+    }
+
+    /**
+     * @return offset in the decompressed content, offsets of records are in these
+     */
+    public long getUncompressedOffset() {
+        return uncompressedOffset;
+    }
+
+    @Override
+    public String toString() {
+        return "RestartPoint{" +
+                "compressedOffset=" + compressedOffset +
+                ", uncompressedOffset=" + uncompressedOffset +
+                '}';
+    }
+}
@@ -17,14 +17,111 @@
 package com.teragrep.rlo_13.statestore;
 
 import java.nio.file.Path;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 public interface StateStore extends AutoCloseable {
     void setOffset(Path path, long offset);
 
+    /**
+     * Sets offsets of all given paths. Implementations should apply them together, one at a time by default.
+     */
+    default void setOffsets(Map<Path, Long> offsets) {
+        for (Map.Entry<Path, Long> entry : offsets.entrySet()) {
+            setOffset(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Sets the offset of path together with the fingerprint of the head of its file. Implementations should apply
+     * both in one commit, one after the other by default.
+     */
+    default void setOffset(Path path, long offset, Fingerprint fingerprint) {
+        setOffset(path, offset);
+        setFingerprint(path, fingerprint);
+    }
+
+    /**
+     * Sets offsets of all given paths together with fingerprints of some of them. Implementations should apply them
+     * in one commit, offsets first and then fingerprints one at a time by default.
+     */
+    default void setOffsets(Map<Path, Long> offsets, Map<Path, Fingerprint> fingerprints) {
+        setOffsets(offsets);
+        for (Map.Entry<Path, Fingerprint> entry : fingerprints.entrySet()) {
+            setFingerprint(entry.getKey(), entry.getValue());
+        }
+    }
+
     void deleteOffset(Path path);
 
     long getOffset(Path path);
 
+    /**
+     * Passes every stored path with its offset to the consumer. Entries without a recorded path, such as not yet
+     * migrated version 1 entries of LMDBStateStore, are skipped. Stores that can not enumerate pass nothing, the
+     * default.
+     */
+    default void forEachOffset(BiConsumer<Path, Long> consumer) {
+
+    }
+
+    /**
+     * Examines up to maximumEntries entries following the ones examined by the previous call and deletes those whose
+     * path isStale. Each call is short, so that a whole pass over a large store does not stall readers. Removed paths
+     * are passed to removedConsumer. Stores that can not enumerate examine nothing and report a complete pass, the
+     * default.
+     */
+    default GarbageCollectionStep collectGarbage(
+            int maximumEntries,
+            Predicate<Path> isStale,
+            Consumer<Path> removedConsumer
+    ) {
+        return new GarbageCollectionStep(0, 0, true);
+    }
+
+    /**
+     * Stores the latest restart point of a compressed file, removed with its offset. Not stored by default, compressed
+     * files are then decompressed from their beginning.
+     */
+    default void setRestartPoint(Path path, RestartPoint restartPoint) {
+
+    }
+
+    /**
+     * @return latest restart point of the path, null if there is none
+     */
+    default RestartPoint getRestartPoint(Path path) {
+        return null;
+    }
+
+    /**
+     * Stores the fingerprint of the head of the file at path, removed with its offset. Not stored by default, a
+     * rewritten file is then only detected while it is shorter than its offset.
+     */
+    default void setFingerprint(Path path, Fingerprint fingerprint) {
+
+    }
+
+    /**
+     * @return fingerprint of the path, null if there is none
+     */
+    default Fingerprint getFingerprint(Path path) {
+        return null;
+    }
+
+    /**
+     * Offset of the file now at path that has the file key fileKey, e.g. {@link
+     * java.nio.file.attribute.BasicFileAttributes#fileKey()}, recording fileKey as the identity of path. A file renamed
+     * from another path continues from the offset of that path, a new file at a known path starts from 0. The
+     * string form of fileKey must identify the file. Identities are ignored by default and the offset of path is
+     * returned.
+     */
+    default long resolveOffset(Path path, Object fileKey) {
+        return getOffset(path);
+    }
+
     @Override
     void close();
 }
@@ -0,0 +1,47 @@
+/*
+   Java Stateful File Reader rlo_13
+   Copyright (C) 2023  Suomen Kanuuna Oy
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.teragrep.rlo_13.statestore;
+
+/**
+ * How offsets are made durable. The windows below are the offsets that can be lost, so the records between the lost
+ * offset and the last delivered one are read and delivered again after restart. In every mode records delivered after
+ * the last setOffset are read again, see {@link com.teragrep.rlo_13.StatefulFileReaderConfig#setOffsetCommitBatchSize(int)}.
+ */
+public enum StateStoreDurability {
+    /**
+     * Every commit is synced to disk before it returns. Nothing committed is lost on process or system crash.
+     */
+    SYNC,
+    /**
+     * Commits sync data but not the LMDB meta page (MDB_NOMETASYNC), the environment is also synced every sync
+     * interval. A process crash loses nothing, a system crash can roll back the last commit.
+     */
+    NO_META_SYNC,
+    /**
+     * Commits are not synced (MDB_NOSYNC), the environment is synced every sync interval. A process crash loses
+     * nothing, a system crash loses the commits of up to one sync interval. Without MDB_WRITEMAP the database stays
+     * consistent as long as the filesystem preserves write order.
+     */
+    NO_SYNC,
+    /**
+     * Offsets are kept in memory and committed synchronously once offsetCommitBatchSize paths are pending or every
+     * sync interval, whichever comes first. A process or system crash loses up to one sync interval or
+     * offsetCommitBatchSize offsets.
+     */
+    WRITE_BEHIND
+}
@@ -0,0 +1,204 @@
+/*
+   Java Stateful File Reader rlo_13
+   Copyright (C) 2023  Suomen Kanuuna Oy
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.teragrep.rlo_13;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class FileChannelCacheTest {
+
+    private Path createTestFile(String name) throws IOException {
+        Path path = Paths.get("target/FileChannelCacheTest#" + name);
+        Files.write(path, "test\n".getBytes());
+        return path;
+    }
+
+    @Test
+    public void testAcquireCached() throws IOException {
+        Path path = createTestFile("testAcquireCached");
+        try (FileChannelCache fcc = new FileChannelCache()) {
+            FileChannel first;
+            try (FileChannelLease lease = fcc.acquire(path)) {
+                first = lease.getFileChannel();
+            }
+
+            FileChannel second;
+            try (FileChannelLease lease = fcc.acquire(path)) {
+                second = lease.getFileChannel();
+            }
+
+            Assertions.assertSame(first, second);
+            Assertions.assertTrue(second.isOpen());
+        }
+    }
+
+    @Test
+    public void testAcquireNonPresent() {
+        try (FileChannelCache fcc = new FileChannelCache()) {
+            Assertions.assertNull(fcc.acquire(Paths.get("target/FileChannelCacheTest#testAcquireNonPresent")));
+        }
+    }
+
+    @Test
+    public void testInvalidate() throws IOException {
+        Path path = createTestFile("testInvalidate");
+        try (FileChannelCache fcc = new FileChannelCache()) {
+            FileChannelLease lease = fcc.acquire(path);
+            FileChannel fileChannel = lease.getFileChannel();
+            lease.close();
+
+            fcc.invalidate(path);
+            Assertions.assertFalse(fileChannel.isOpen());
+
+            // opens a new one
+            try (FileChannelLease newLease = fcc.acquire(path)) {
+                Assertions.assertNotSame(fileChannel, newLease.getFileChannel());
+                Assertions.assertTrue(newLease.getFileChannel().isOpen());
+            }
+        }
+    }
+
+    @Test
+    public void testSharedLeases() throws IOException {
+        Path path = createTestFile("testSharedLeases");
+        try (FileChannelCache fcc = new FileChannelCache()) {
+            FileChannelLease first = fcc.acquire(path);
+            FileChannelLease second = fcc.acquire(path);
+            FileChannel fileChannel = first.getFileChannel();
+            Assertions.assertSame(fileChannel, second.getFileChannel());
+
+            // evicted while leased
+            fcc.invalidate(path);
+            Assertions.assertTrue(fileChannel.isOpen());
+
+            first.close();
+            first.close(); // repeated close releases only once
+            Assertions.assertTrue(fileChannel.isOpen());
+
+            second.close();
+            Assertions.assertFalse(fileChannel.isOpen());
+        }
+    }
+
+    @Test
+    public void testActiveNotClosedByEviction() throws IOException {
+        Path path = createTestFile("testActiveNotClosedByEviction");
+        FileChannelCache fcc = new FileChannelCache();
+        FileChannelLease lease = fcc.acquire(path);
+        FileChannel fileChannel = lease.getFileChannel();
+
+        // evicts everything
+        fcc.close();
+        Assertions.assertTrue(fileChannel.isOpen());
+
+        lease.close();
+        Assertions.assertFalse(fileChannel.isOpen());
+    }
+
+    @Test
+    public void testConcurrentAcquireRelease() throws Exception {
+        int threads = 8;
+        List<Path> paths = new ArrayList<>();
+        for (int i = 0; i < threads / 2; i++) {
+            paths.add(createTestFile("testConcurrentAcquireRelease" + i));
+        }
+
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        try (FileChannelCache fcc = new FileChannelCache()) {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                // two threads per path
+                Path path = paths.get(t % paths.size());
+                futures.add(executorService.submit(() -> {
+                    ByteBuffer byteBuffer = ByteBuffer.allocate(16);
+                    for (int i = 0; i < 10000; i++) {
+                        try (FileChannelLease lease = fcc.acquire(path)) {
+                            byteBuffer.clear();
+                            Assertions.assertEquals(5, lease.getFileChannel().read(byteBuffer, 0));
+                            if (i % 100 == 0) {
+                                fcc.invalidate(path);
+                            }
+                        }
+                        catch (IOException ioException) {
+                            throw new RuntimeException(ioException);
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(1, TimeUnit.MINUTES);
+            }
+        }
+        finally {
+            executorService.shutdown();
+        }
+    }
+
+    @Test
+    public void testConcurrentFirstAcquire() throws Exception {
+        Path path = createTestFile("testConcurrentFirstAcquire");
+        int threads = 8;
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        try (FileChannelCache fcc = new FileChannelCache()) {
+            List<Future<FileChannelLease>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(executorService.submit(() -> {
+                    start.await();
+                    return fcc.acquire(path);
+                }));
+            }
+            start.countDown();
+
+            List<FileChannelLease> leases = new ArrayList<>();
+            for (Future<FileChannelLease> future : futures) {
+                leases.add(future.get(1, TimeUnit.MINUTES));
+            }
+
+            // the channels opened by losing threads are closed, every lease shares the inserted one
+            FileChannel fileChannel = leases.get(0).getFileChannel();
+            for (FileChannelLease lease : leases) {
+                Assertions.assertSame(fileChannel, lease.getFileChannel());
+            }
+            Assertions.assertTrue(fileChannel.isOpen());
+
+            fcc.invalidate(path);
+            for (FileChannelLease lease : leases) {
+                lease.close();
+            }
+            Assertions.assertFalse(fileChannel.isOpen());
+        }
+        finally {
+            executorService.shutdown();
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/*
+   Java Stateful File Reader rlo_13
+   Copyright (C) 2023  Suomen Kanuuna Oy
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.teragrep.rlo_13;
+
+import com.teragrep.rlo_12.MonitoredFile;
+import com.teragrep.rlo_13.statestore.InMemoryStateStore;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+public class LaneDispatcherTest {
+
+    private static final class RecordingConsumer extends MonitoredFileConsumer {
+        private final Consumer<MonitoredFile> handler;
+
+        private RecordingConsumer(FileChannelCache fileChannelCache, Consumer<MonitoredFile> handler) {
+            super(fileChannelCache, new InMemoryStateStore(), fileRecord -> {});
+            this.handler = handler;
+        }
+
+        @Override
+        void handle(MonitoredFile monitoredFile) {
+            handler.accept(monitoredFile);
+        }
+    }
+
+    private static LaneDispatcher dispatcher(
+            int laneCount,
+            int queueCapacity,
+            FileChannelCache fileChannelCache,
+            Consumer<MonitoredFile> handler
+    ) {
+        return new LaneDispatcher(
+                laneCount,
+                queueCapacity,
+                LaneDispatcher.platformThreadFactory(),
+                () -> new RecordingConsumer(fileChannelCache, handler)
+        );
+    }
+
+    private static MonitoredFile event(Path path) {
+        return new MonitoredFile(path, MonitoredFile.Status.SYNC_MODIFIED);
+    }
+
+    @Test
+    public void testOrderPerPath() {
+        Map<Path, List<Integer>> handled = new ConcurrentHashMap<>();
+        List<Thread> threads = new CopyOnWriteArrayList<>();
+        Map<MonitoredFile, Integer> sequence = new ConcurrentHashMap<>();
+        List<Path> paths = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            paths.add(Paths.get("target/LaneDispatcherTest#testOrderPerPath-" + i));
+        }
+
+        try (FileChannelCache fcc = new FileChannelCache()) {
+            LaneDispatcher laneDispatcher = dispatcher(4, 8, fcc, monitoredFile -> {
+                handled.computeIfAbsent(monitoredFile.getPath(), path -> new CopyOnWriteArrayList<>())
+                        .add(sequence.get(monitoredFile));
+                if (!threads.contains(Thread.currentThread())) {
+                    threads.add(Thread.currentThread());
+                }
+            });
+            try {
+                for (int i = 0; i < 100; i++) {
+                    for (Path path : paths) {
+                        MonitoredFile monitoredFile = event(path);
+                        sequence.put(monitoredFile, i);
+                        laneDispatcher.accept(monitoredFile);
+                    }
+                }
+            }
+            finally {
+                laneDispatcher.close();
+            }
+        }
+
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            expected.add(i);
+        }
+        for (Path path : paths) {
+            Assertions.assertEquals(expected, handled.get(path));
+        }
+        Assertions.assertTrue(threads.size() > 1);
+    }
+
+    @Test
+    public void testFullQueueBlocksCaller() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<MonitoredFile> handled = new CopyOnWriteArrayList<>();
+        Path path = Paths.get("target/LaneDispatcherTest#testFullQueueBlocksCaller");
+
+        try (FileChannelCache fcc = new FileChannelCache()) {
+            LaneDispatcher laneDispatcher = dispatcher(1, 1, fcc, monitoredFile -> {
+                started.countDown();
+                try {
+                    release.await();
+                }
+                catch (InterruptedException interruptedException) {
+                    throw new IllegalStateException(interruptedException);
+                }
+                handled.add(monitoredFile);
+            });
+
+            laneDispatcher.accept(event(path));
+            Assertions.assertTrue(started.await(5, TimeUnit.SECONDS));
+            // lane is busy, this one fills the queue
+            laneDispatcher.accept(event(path));
+
+            AtomicBoolean accepted = new AtomicBoolean(false);
+            Thread producer = new Thread(() -> {
+                laneDispatcher.accept(event(path));
+                accepted.set(true);
+            });
+            producer.start();
+            producer.join(300);
+            Assertions.assertFalse(accepted.get());
+
+            release.countDown();
+            producer.join(5000);
+            Assertions.assertTrue(accepted.get());
+
+            laneDispatcher.close();
+            Assertions.assertEquals(3, handled.size());
+        }
+    }
+
+    @Test
+    public void testCloseFinishesQueuedEvents() {
+        List<MonitoredFile> handled = new CopyOnWriteArrayList<>();
+        Path path = Paths.get("target/LaneDispatcherTest#testCloseFinishesQueuedEvents");
+
+        try (FileChannelCache fcc = new FileChannelCache()) {
+            LaneDispatcher laneDispatcher = dispatcher(2, 100, fcc, handled::add);
+            for (int i = 0; i < 50; i++) {
+                laneDispatcher.accept(event(path));
+            }
+            laneDispatcher.close();
+            Assertions.assertEquals(50, handled.size());
+            Assertions.assertThrows(IllegalStateException.class, () -> laneDispatcher.accept(event(path)));
+        }
+    }
+
+    @Test
+    public void testFailingConsumer() {
+        List<MonitoredFile> handled = new CopyOnWriteArrayList<>();
+        Path runtimeFailure = Paths.get("target/LaneDispatcherTest#testFailingConsumer-runtime");
+        Path errorFailure = Paths.get("target/LaneDispatcherTest#testFailingConsumer-error");
+        Path path = Paths.get("target/LaneDispatcherTest#testFailingConsumer");
+
+        try (FileChannelCache fcc = new FileChannelCache()) {
+            LaneDispatcher laneDispatcher = dispatcher(1, 1, fcc, monitoredFile -> {
+                if (monitoredFile.getPath().equals(runtimeFailure)) {
+                    throw new IllegalStateException("sink failed");
+                }
+                if (monitoredFile.getPath().equals(errorFailure)) {
+                    throw new AssertionError("sink broke");
+                }
+                handled.add(monitoredFile);
+            });
+
+            // a RuntimeException only fails the event
+            MonitoredFile first = event(path);
+            laneDispatcher.accept(event(runtimeFailure));
+            laneDispatcher.accept(first);
+
+            // an Error kills the lane, later events fail fast instead of blocking on the full queue
+            IllegalStateException illegalStateException = Assertions.assertThrows(IllegalStateException.class, () -> {
+                // may already fail if the lane died before it returned
+                laneDispatcher.accept(event(errorFailure));
+                for (int i = 0; i < 100; i++) {
+                    laneDispatcher.accept(event(path));
+                }
+            });
+            Assertions.assertTrue(illegalStateException.getCause() instanceof AssertionError);
+
+            Assertions.assertTimeoutPreemptively(Duration.ofSeconds(5), laneDispatcher::close);
+            Assertions.assertEquals(Collections.singletonList(first), handled);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+   Java Stateful File Reader rlo_13
+   Copyright (C) 2023  Suomen Kanuuna Oy
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.teragrep.rlo_13;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ManualFileChannelCacheContentionTest {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ManualFileChannelCacheContentionTest.class);
+
+    @Test
+    @EnabledIfSystemProperty(named = "runManualFileChannelCacheContentionTest", matches = "true")
+    public void manualContentionTest() throws IOException, InterruptedException {
+        Path directory = Paths.get("target/ManualFileChannelCacheContentionTest");
+        Files.createDirectories(directory);
+
+        int pathCount = 1024; // above cache size, causes evictions too
+        List<Path> paths = new ArrayList<>();
+        for (int i = 0; i < pathCount; i++) {
+            Path path = directory.resolve(Integer.toString(i));
+            Files.write(path, "test\n".getBytes());
+            paths.add(path);
+        }
+
+        for (int threads = 1; threads <= Runtime.getRuntime().availableProcessors() * 2; threads = threads * 2) {
+            AtomicLong operations = new AtomicLong();
+            CountDownLatch done = new CountDownLatch(threads);
+            long durationNanos = TimeUnit.SECONDS.toNanos(5);
+
+            try (FileChannelCache fcc = new FileChannelCache()) {
+                for (int t = 0; t < threads; t++) {
+                    int thread = t;
+                    int finalThreads = threads;
+                    new Thread(() -> {
+                        long end = System.nanoTime() + durationNanos;
+                        long localOperations = 0;
+                        int i = thread;
+                        while (System.nanoTime() < end) {
+                            // each thread owns distinct paths
+                            Path path = paths.get(i % pathCount);
+                            fcc.acquire(path).close();
+                            localOperations++;
+                            i = i + finalThreads;
+                        }
+                        operations.addAndGet(localOperations);
+                        done.countDown();
+                    }).start();
+                }
+                done.await();
+            }
+
+            LOGGER.info(
+                    "threads <{}> acquire+release per second <{}>",
+                    threads,
+                    operations.get() / TimeUnit.NANOSECONDS.toSeconds(durationNanos)
+            );
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+   Java Stateful File Reader rlo_13
+   Copyright (C) 2023  Suomen Kanuuna Oy
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.teragrep.rlo_13;
+
+import com.teragrep.rlo_13.statestore.LMDBStateStore;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares reading many files on a fixed pool of platform threads with reading each file on its own virtual thread.
+ * The virtual thread round needs Java 21 and the multi-release classes, e.g. target/classes/META-INF/versions/21
+ * ahead of target/classes on the classpath, and is skipped otherwise.
+ */
+public class ManualVirtualThreadReadTest {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ManualVirtualThreadReadTest.class);
+
+    @Test
+    @EnabledIfSystemProperty(named = "runManualVirtualThreadReadTest", matches = "true")
+    public void manualVirtualThreadReadTest() throws Exception {
+        Path directory = Paths.get("target/ManualVirtualThreadReadTest");
+        Files.createDirectories(directory);
+
+        int pathCount = 4096;
+        int records = 100;
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < records; i++) {
+            content.append("record number ").append(i).append('\n');
+        }
+        List<Path> paths = new ArrayList<>();
+        for (int i = 0; i < pathCount; i++) {
+            Path path = directory.resolve(Integer.toString(i));
+            Files.write(path, content.toString().getBytes(StandardCharsets.UTF_8));
+            paths.add(path);
+        }
+
+        int platformThreads = Runtime.getRuntime().availableProcessors() * 2;
+        run(
+                "platform pool of " + platformThreads,
+                Executors.newFixedThreadPool(platformThreads),
+                paths,
+                records
+        );
+
+        if (VirtualThreads.isSupported()) {
+            ThreadFactory virtualThreadFactory = VirtualThreads.factory("virtual-read-");
+            // one new thread for every file that is not served by an already idle one
+            run("virtual threads", Executors.newCachedThreadPool(virtualThreadFactory), paths, records);
+        }
+        else {
+            LOGGER.warn("Virtual threads not supported by this runtime, skipping");
+        }
+    }
+
+    private void run(String name, ExecutorService executorService, List<Path> paths, int records)
+            throws Exception {
+        Path stateStorePath = Paths.get("target/ManualVirtualThreadReadTest-state-" + System.nanoTime());
+        Files.createDirectories(stateStorePath);
+
+        AtomicLong recordCounter = new AtomicLong();
+        ByteBufferPool readBufferPool = new ByteBufferPool(32 * 1024, 64);
+        ByteBufferPool recordBufferPool = new ByteBufferPool(1024 * 1024, 64);
+        StatefulFileReaderConfig config = new StatefulFileReaderConfig();
+
+        long start = System.nanoTime();
+        try (FileChannelCache fcc = new FileChannelCache(); LMDBStateStore stateStore = new LMDBStateStore(stateStorePath)) {
+            List<Future<?>> futures = new ArrayList<>(paths.size());
+            for (Path path : paths) {
+                futures.add(executorService.submit(() -> {
+                    MonitoredFileConsumer mfc = new MonitoredFileConsumer(
+                            fcc,
+                            stateStore,
+                            fileRecord -> recordCounter.incrementAndGet(),
+                            readBufferPool,
+                            recordBufferPool,
+                            config
+                    );
+                    mfc.readFile(path);
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        }
+        finally {
+            executorService.shutdown();
+            executorService.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        Assertions.assertEquals((long) paths.size() * records, recordCounter.get());
+        LOGGER.info(
+                "<{}> read <{}> files in <{}> ms, <{}> files per second",
+                name,
+                paths.size(),
+                elapsedMillis,
+                paths.size() * 1000L / Math.max(1, elapsedMillis)
+        );
+    }
+}
@@ -17,18 +17,43 @@
 
 package com.teragrep.rlo_13;
 
+import com.teragrep.rlo_12.MonitoredFile;
+import com.teragrep.rlo_13.framing.OctetCountingFramer;
+import com.teragrep.rlo_13.metrics.JmxMetrics;
+import com.teragrep.rlo_13.metrics.Metrics;
 import com.teragrep.rlo_13.statestore.InMemoryStateStore;
+import com.teragrep.rlo_13.statestore.LMDBStateStore;
 import com.teragrep.rlo_13.statestore.StateStore;
 import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
 import org.junit.jupiter.api.Test;
 
 import java.io.FileWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
 
 public class MonitoredFileConsumerTest {
     private void createTestFile(Path filePath, int records, boolean append) throws IOException {
@@ -178,4 +203,1054 @@ public class MonitoredFileConsumerTest {
 
         Assertions.assertEquals(records * 2, recordCounter.get());
     }
+
+    @Test
+    public void testReadOverMaximumRecordSize() throws IOException {
+        List<FileRecord> fileRecords = new ArrayList<>();
+        Path testFilePath = Paths.get("target/MonitoredFileConsumerTest#testReadOverMaximumRecordSize");
+
+        int longLineSize = 1536 * 1024;
+
+        try (FileWriter fileWriter = new FileWriter(testFilePath.toFile(), false)) {
+            fileWriter.write("a\n");
+            fileWriter.write(new String(new char[longLineSize]).replace("\0", "x"));
+            fileWriter.write("\n");
+            fileWriter.write("b\n");
+        }
+
+        try (FileChannelCache fcc = new FileChannelCache()) {
+
+            Consumer<FileRecord> frc = fileRecord -> {
+                FileRecord copy = new FileRecord(testFilePath);
+                copy.setStartOffset(fileRecord.getStartOffset());
+                copy.setEndOffset(fileRecord.getEndOffset());
+                copy.setRecord(fileRecord.getRecord());
+                fileRecords.add(copy);
+            };
+
+            StateStore stateStore = new InMemoryStateStore();
+
+            MonitoredFileConsumer mfc = new MonitoredFileConsumer(fcc, stateStore, frc);
+
+            mfc.readFile(testFilePath);
+
+            Assertions.assertEquals(longLineSize + 5, stateStore.getOffset(testFilePath));
+        }
+
+        Assertions.assertEquals(4, fileRecords.size());
+
+        long[][] expectedOffsets = {
+                {0, 2},
+                {2, 2 + 1024 * 1024},
+                {2 + 1024 * 1024, longLineSize + 3},
+                {longLineSize + 3, longLineSize + 5}
+        };
+        for (int i = 0; i < expectedOffsets.length; i++) {
+            FileRecord fileRecord = fileRecords.get(i);
+            Assertions.assertEquals(expectedOffsets[i][0], fileRecord.getStartOffset());
+            Assertions.assertEquals(expectedOffsets[i][1], fileRecord.getEndOffset());
+            Assertions.assertEquals(
+                    fileRecord.getEndOffset() - fileRecord.getStartOffset(),
+                    fileRecord.getRecord().length
+            );
+        }
+        Assertions.assertEquals("a\n", new String(fileRecords.get(0).getRecord(), StandardCharsets.UTF_8));
+        Assertions.assertEquals('\n', fileRecords.get(2).getRecord()[fileRecords.get(2).getRecord().length - 1]);
+        Assertions.assertEquals("b\n", new String(fileRecords.get(3).getRecord(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testBufferPoolReuse() throws IOException {
+        AtomicLong recordCounter = new AtomicLong();
+        Path testFilePath = Paths.get("target/MonitoredFileConsumerTest#testBufferPoolReuse");
+
+        int records = 10;
+
+        ByteBufferPool readBufferPool = new ByteBufferPool(32*1024, 4);
+        ByteBufferPool recordBufferPool = new ByteBufferPool(1024*1024, 4);
+
+        try (FileChannelCache fcc = new FileChannelCache()) {
+
+            Consumer<FileRecord> frc = fileRecord -> recordCounter.incrementAndGet();
+
+            StateStore stateStore = new InMemoryStateStore();
+
+            MonitoredFileConsumer mfc = new MonitoredFileConsumer(
+                    fcc,
+                    stateStore,
+                    frc,
+                    readBufferPool,
+                    recordBufferPool,
+                    new StatefulFileReaderConfig()
+            );
+
+            createTestFile(testFilePath, records, false);
+            for (int i = 0; i < 5; i++) {
+                mfc.readFile(testFilePath);
+                createTestFile(testFilePath, records, true);
+            }
+        }
+
+        Assertions.assertEquals(records * 5, recordCounter.get());
+
+        ByteBufferPoolStatistics readStatistics = readBufferPool.getStatistics();
+        Assertions.assertEquals(1, readStatistics.getAllocated());
+        Assertions.assertEquals(5, readStatistics.getAcquired());
+        Assertions.assertEquals(5, readStatistics.getReleased());
+        Assertions.assertEquals(1, readStatistics.getPooled());
+
+        ByteBufferPoolStatistics recordStatistics = recordBufferPool.getStatistics();
+        Assertions.assertEquals(1, recordStatistics.getAllocated());
+        Assertions.assertEquals(0, recordStatistics.getDiscarded());
+    }
+
+    private List<FileRecord> readRecords(Path testFilePath, StatefulFileReaderConfig config) {
+        List<FileRecord> fileRecords = new ArrayList<>();
+        try (FileChannelCache fcc = new FileChannelCache()) {
+
+            Consumer<FileRecord> frc = fileRecord -> {
+                FileRecord copy = new FileRecord(testFilePath);
+                copy.setStartOffset(fileRecord.getStartOffset());
+                copy.setEndOffset(fileRecord.getEndOffset());
+                copy.setRecord(fileRecord.getRecord());
+                fileRecords.add(copy);
+            };
+
+            MonitoredFileConsumer mfc = new MonitoredFileConsumer(
+                    fcc,
+                    new InMemoryStateStore(),
+                    frc,
+                    new ByteBufferPool(32*1024, 1),
+                    new ByteBufferPool(1024*1024, 1),
+                    config
+            );
+            mfc.readFile(testFilePath);
+        }
+        return fileRecords;
+    }
+
+    @Test
+    public void testReadMappedMatchesChannelRead() throws IOException {
+        Path testFilePath = Paths.get("target/MonitoredFileConsumerTest#testReadMappedMatchesChannelRead");
+
+        try (FileWriter fileWriter = new FileWriter(testFilePath.toFile(), false)) {
+            for (int i = 0; i < 2000; i++) {
+                fileWriter.write(new String(new char[i % 97]).replace("\0", "y"));
+                fileWriter.write("\n");
+            }
+            fileWriter.write(new String(new char[1100 * 1024]).replace("\0", "z"));
+            fileWriter.write("\npartial");
+        }
+
+        StatefulFileReaderConfig channelConfig = new StatefulFileReaderConfig();
+        channelConfig.setMmapThreshold(Long.MAX_VALUE);
+        List<FileRecord> channelRecords = readRecords(testFilePath, channelConfig);
+
+        StatefulFileReaderConfig mappedConfig = new StatefulFileReaderConfig();
+        mappedConfig.setMmapThreshold(0);
+        mappedConfig.setMmapWindowSize(4093); // records span windows
+        List<FileRecord> mappedRecords = readRecords(testFilePath, mappedConfig);
+
+        Assertions.assertEquals(2002, channelRecords.size());
+        Assertions.assertEquals(channelRecords.size(), mappedRecords.size());
+        for (int i = 0; i < channelRecords.size(); i++) {
+            Assertions.assertEquals(channelRecords.get(i).getStartOffset(), mappedRecords.get(i).getStartOffset());
+            Assertions.assertEquals(channelRecords.get(i).getEndOffset(), mappedRecords.get(i).getEndOffset());
+            Assertions.assertArrayEquals(channelRecords.get(i).getRecord(), mappedRecords.get(i).getRecord());
+        }
+    }
+
+    @Test
+    public void testMappedReadSinkInternalError() throws IOException {
+        Path testFilePath = Paths.get("target/MonitoredFileConsumerTest#testMappedReadSinkInternalError");
+        Files.write(testFilePath, "first\nsecond\nthird\n".getBytes(StandardCharsets.UTF_8));
+
+        StatefulFileReaderConfig config = new StatefulFileReaderConfig();
+        config.setMmapThreshold(0);
+
+        AtomicInteger failures = new AtomicInteger();
+        List<String> records = new ArrayList<>();
+        try (FileChannelCache fcc = new FileChannelCache()) {
+            MonitoredFileConsumer mfc = new MonitoredFileConsumer(
+                    fcc,
+                    new InMemoryStateStore(),
+                    fileRecord -> {
+                        String record = new String(fileRecord.getRecord(), StandardCharsets.UTF_8);
+                        if (record.startsWith("second") && failures.getAndIncrement() == 0) {
+                            throw new InternalError("sink failed");
+                        }
+                        records.add(record);
+                    },
+                    new ByteBufferPool(32 * 1024, 1),
+                    new ByteBufferPool(1024 * 1024, 1),
+                    config
+            );
+            // not mistaken for a mapping fault, the window is not read again through the channel
+            InternalError internalError = Assertions.assertThrows(InternalError.class, () -> mfc.readFile(testFilePath));
+            Assertions.assertEquals("sink failed", internalError.getMessage());
+            Assertions.assertEquals(Collections.singletonList("first\n"), records);
+        }
+    }
+
+    @Test
+    public void testRecordBufferView() throws IOException {
+        List<String> viewRecords = new ArrayList<>();
+        Path testFilePath = Paths.get("target/MonitoredFileConsumerTest#testRecordBufferView");
+
+        int records = 100;
+
+        try (FileChannelCache fcc = new FileChannelCache()) {
+
+            Consumer<FileRecord> frc = fileRecord -> {
+                ByteBuffer recordBuffer = fileRecord.getRecordBuffer();
+                Assertions.assertTrue(recordBuffer.isReadOnly());
+                Assertions.assertEquals(fileRecord.getEndOffset() - fileRecord.getStartOffset(), recordBuffer.remaining());
+
+                byte[] bytes = new byte[recordBuffer.remaining()];
+                recordBuffer.get(bytes);
+                viewRecords.add(new String(bytes, StandardCharsets.UTF_8));
+
+                // copy is still available after the view was consumed
+                Assertions.assertArrayEquals(bytes, fileRecord.getRecord());
+            };
+
+            MonitoredFileConsumer mfc = new MonitoredFileConsumer(fcc, new InMemoryStateStore(), frc);
+
+            createTestFile(testFilePath, records, false);
+            mfc.readFile(testFilePath);
+        }
+
+        Assertions.assertEquals(records, viewRecords.size());
+        for (int i = 0; i < records; i++) {
+            Assertions.assertEquals(i + "\n", viewRecords.get(i));
+        }
+    }
+
+    @Test
+    public void testReadBatches() throws IOException {
+        List<String> records = new ArrayList<>();
+        List<Integer> batchSizes = new ArrayList<>();
+        AtomicLong expectedStartOffset = new AtomicLong();
+        Path testFilePath = Paths.get("target/MonitoredFileConsumerTest#testReadBatches");
+
+        StatefulFileReaderConfig config = new StatefulFileReaderConfig();
+        config.setBatchMaximumRecords(7);
+
+        FileRecordBatchConsumer frbc = fileRecordBatch -> {
+            // contiguous with the previous batch
+            Assertions.assertEquals(expectedStartOffset.get(), fileRecordBatch.getStartOffset());
+            Assertions.assertEquals(
+                    fileRecordBatch.getEndOffset() - fileRecordBatch.getStartOffset(),
+                    fileRecordBatch.getBuffer().remaining()
+            );
+            for (int i = 0; i < fileRecordBatch.size(); i++) {
+                records.add(new String(fileRecordBatch.getRecord(i), StandardCharsets.UTF_8));
+            }
+            batchSizes.add(fileRecordBatch.size());
+            expectedStartOffset.set(fileRecordBatch.getEndOffset());
+        };
+
+        StateStore stateStore = new InMemoryStateStore();
+        try (FileChannelCache fcc = new FileChannelCache()) {
+            MonitoredFileConsumer mfc = new MonitoredFileConsumer(
+                    fcc,
+                    stateStore,
+                    frbc,
+                    new ByteBufferPool(32*1024, 1),
+                    new ByteBufferPool(1024*1024, 1),
+                    new ByteBufferPool(1024*1024, 1),
+                    config
+            );
+
+            createTestFile(testFilePath, 100, false);
+            mfc.readFile(testFilePath);
+        }
+
+        Assertions.assertEquals(15, batchSizes.size());
+        Assertions.assertEquals(2, batchSizes.get(14));
+        Assertions.assertEquals(100, records.size());
+        for (int i = 0; i < records.size(); i++) {
+            Assertions.assertEquals(i + "\n", records.get(i));
+        }
+        Assertions.assertEquals(expectedStartOffset.get(), stateStore.getOffset(testFilePath));
+    }
+
+    @Test
+    public void testUnacknowledgedBatchIsReadAgain() throws IOException {
+        AtomicLong batchCounter = new AtomicLong();
+        AtomicLong secondBatchEnd = new AtomicLong();
+        Path testFilePath = Paths.get("target/MonitoredFileConsumerTest#testUnacknowledgedBatchIsReadAgain");
+
+        StatefulFileReaderConfig config = new StatefulFileReaderConfig();
+        config.setBatchMaximumRecords(10);
+
+        FileRecordBatchConsumer frbc = fileRecordBatch -> {
+            long batch = batchCounter.incrementAndGet();
+            if (batch == 2) {
+                secondBatchEnd.set(fileRecordBatch.getEndOffset());
+            }
+            else if (batch == 3) {
+                throw new IllegalStateException("sink unavailable");
+            }
+        };
+
+        StateStore stateStore = new InMemoryStateStore();
+        try (FileChannelCache fcc = new FileChannelCache()) {
+            MonitoredFileConsumer mfc = new MonitoredFileConsumer(
+                    fcc,
+                    stateStore,
+                    frbc,
+                    new ByteBufferPool(32*1024, 1),
+                    new ByteBufferPool(1024*1024, 1),
+                    new ByteBufferPool(1024*1024, 1),
+                    config
+            );
+
+            createTestFile(testFilePath, 100, false);
+            Assertions.assertThrows(IllegalStateException.class, () -> mfc.readFile(testFilePath));
+        }
+
+        Assertions.assertEquals(secondBatchEnd.get(), stateStore.getOffset(testFilePath));
+    }
+
+    @Test
+    public void testBoundedReadSlices() throws IOException {
+        List<FileRecord> fileRecords = new ArrayList<>();
+        Path testFilePath = Paths.get("target/MonitoredFileConsumerTest#testBoundedReadSlices");
+
+        StatefulFileReaderConfig config = new StatefulFileReaderConfig();
+        config.setReadSliceBytes(64 * 1024);
+
+        try (FileWriter fileWriter = new FileWriter(testFilePath.toFile(), false)) {
+            for (int i = 0; i < 10000; i++) {
+                fileWriter.write(i + new String(new char[90]).replace("\0", "s") + "\n");
+            }
+        }
+        long fileSize = Files.size(testFilePath);
+
+        StateStore stateStore = new InMemoryStateStore();
+        int slices = 0;
+        try (FileChannelCache fcc = new FileChannelCache()) {
+            Consumer<FileRecord> frc = fileRecord -> {
+                FileRecord copy = new FileRecord(testFilePath);
+                copy.setStartOffset(fileRecord.getStartOffset());
+                copy.setEndOffset(fileRecord.getEndOffset());
+                copy.setRecord(fileRecord.getRecord());
+                fileRecords.add(copy);
+            };
+
+            MonitoredFileConsumer mfc = new MonitoredFileConsumer(
+                    fcc,
+                    stateStore,
+                    frc,
+                    new ByteBufferPool(32*1024, 1),
+                    new ByteBufferPool(1024*1024, 1),
+                    config
+            );
+
+            boolean complete = false;
+            while (!complete) {
+                long sliceStart = stateStore.getOffset(testFilePath);
+                complete = mfc.readFile(testFilePath, true);
+                slices++;
+
+                // budget plus at most one read buffer
+                Assertions.assertTrue(stateStore.getOffset(testFilePath) - sliceStart <= 64 * 1024 + 32 * 1024);
+            }
+        }
+
+        Assertions.assertTrue(slices > 10);
+        Assertions.assertEquals(fileSize, stateStore.getOffset(testFilePath));
+        Assertions.assertEquals(10000, fileRecords.size());
+        long expectedStart = 0;
+        for (FileRecord fileRecord : fileRecords) {
+            // no gaps or duplicates across slices
+            Assertions.assertEquals(expectedStart, fileRecord.getStartOffset());
+            expectedStart = fileRecord.getEndOffset();
+        }
+    }
+
+    @Test
+    public void testBoundedReadSliceCompletesRecordLongerThanBudget() throws IOException {
+        Path testFilePath = Paths.get("target/MonitoredFileConsumerTest#testBoundedReadSliceCompletesRecordLongerThanBudget");
+        AtomicLong recordCounter = new AtomicLong();
+
+        StatefulFileReaderConfig config = new StatefulFileReaderConfig();
+        config.setReadSliceBytes(10);
+
+        try (FileWriter fileWriter = new FileWriter(testFilePath.toFile(), false)) {
+            fileWriter.write(new String(new char[100 * 1024]).replace("\0", "l") + "\n");
+            fileWriter.write(new String(new char[40 * 1024]).replace("\0", "m") + "\n");
+        }
+
+        StateStore stateStore = new InMemoryStateStore();
+        try (FileChannelCache fcc = new FileChannelCache()) {
+            MonitoredFileConsumer mfc = new MonitoredFileConsumer(
+                    fcc,
+                    stateStore,
+                    fileRecord -> recordCounter.incrementAndGet(),
+                    new ByteBufferPool(32*1024, 1),
+                    new ByteBufferPool(1024*1024, 1),
+                    config
+            );
+
+            Assertions.assertFalse(mfc.readFile(testFilePath, true));
+            Assertions.assertEquals(1, recordCounter.get());
+            Assertions.assertEquals(100 * 1024 + 1, stateStore.getOffset(testFilePath));
+
+            Assertions.assertTrue(mfc.readFile(testFilePath, true));
+            Assertions.assertEquals(2, recordCounter.get());
+        }
+    }
+
+    @Test
+    public void testMetrics() throws IOException {
+        Path testFilePath = Paths.get("target/MonitoredFileConsumerTest#testMetrics");
+
+        int longLineSize = 1536 * 1024;
+
+        try (FileWriter fileWriter = new FileWriter(testFilePath.toFile(), false)) {
+            fileWriter.write("a\n");
+            fileWriter.write(new String(new char[longLineSize]).replace("\0", "x"));
+            fileWriter.write("\n");
+            fileWriter.write("b\n");
+        }
+
+        try (JmxMetrics metrics = new JmxMetrics("MonitoredFileConsumerTest#testMetrics")) {
+            StatefulFileReaderConfig config = new StatefulFileReaderConfig();
+            config.setMetrics(metrics);
+
+            try (FileChannelCache fcc = new FileChannelCache(metrics)) {
+                MonitoredFileConsumer mfc = new MonitoredFileConsumer(
+                        fcc,
+                        new InMemoryStateStore(),
+                        fileRecord -> {},
+                        new ByteBufferPool(32 * 1024, 1),
+                        new ByteBufferPool(1024 * 1024, 1),
+                        config
+                );
+                mfc.readFile(testFilePath);
+                mfc.readFile(testFilePath);
+
+                Assertions.assertEquals(longLineSize + 5, metrics.getBytesRead());
+                Assertions.assertEquals(4, metrics.getRecordsEmitted());
+                Assertions.assertEquals(1, metrics.getRecordsSplit());
+                Assertions.assertEquals(1, metrics.getChannelCacheMisses());
+                Assertions.assertEquals(1, metrics.getChannelCacheHits());
+                Assertions.assertEquals(1, metrics.getOpenChannels());
+            }
+
+            Assertions.assertEquals(0, metrics.getOpenChannels());
+        }
+    }
+
+    @Test
+    public void testLagSnapshot() throws IOException {
+        Path bigFilePath = Paths.get("target/MonitoredFileConsumerTest#testLagSnapshot-big");
+        Path smallFilePath = Paths.get("target/MonitoredFileConsumerTest#testLagSnapshot-small");
+        Path doneFilePath = Paths.get("target/MonitoredFileConsumerTest#testLagSnapshot-done");
+
+        String line = new String(new char[1023]).replace("\0", "x") + "\n";
+        try (FileWriter fileWriter = new FileWriter(bigFilePath.toFile(), false)) {
+            for (int i = 0; i < 100; i++) {
+                fileWriter.write(line);
+            }
+        }
+        try (FileWriter fileWriter = new FileWriter(smallFilePath.toFile(), false)) {
+            for (int i = 0; i < 20; i++) {
+                fileWriter.write(line);
+            }
+        }
+        createTestFile(doneFilePath, 10, false);
+
+        StatefulFileReaderConfig config = new StatefulFileReaderConfig();
+        config.setReadSliceBytes(10 * 1024);
+
+        LagTracker lagTracker = new LagTracker();
+        try (FileChannelCache fcc = new FileChannelCache()) {
+            MonitoredFileConsumer mfc = new MonitoredFileConsumer(
+                    fcc,
+                    new InMemoryStateStore(),
+                    fileRecord -> {},
+                    new ByteBufferPool(1024, 1),
+                    new ByteBufferPool(1024 * 1024, 1),
+                    config,
+                    lagTracker
+            );
+            Assertions.assertFalse(mfc.readFile(bigFilePath, true));
+            Assertions.assertFalse(mfc.readFile(smallFilePath, true));
+            Assertions.assertTrue(mfc.readFile(doneFilePath, true));
+        }
+
+        LagSnapshot lagSnapshot = lagTracker.snapshot(2);
+        Assertions.assertEquals(3, lagSnapshot.getFileCount());
+        Assertions.assertEquals(90 * 1024 + 10 * 1024, lagSnapshot.getTotalBacklogBytes());
+        Assertions.assertEquals(2, lagSnapshot.getWorstFiles().size());
+
+        FileLag worst = lagSnapshot.getWorstFiles().get(0);
+        Assertions.assertEquals(bigFilePath, worst.getPath());
+        Assertions.assertEquals(100 * 1024, worst.getSize());
+        Assertions.assertEquals(10 * 1024, worst.getOffset());
+        Assertions.assertEquals(90 * 1024, worst.getLag());
+        Assertions.assertEquals(smallFilePath, lagSnapshot.getWorstFiles().get(1).getPath());
+
+        lagTracker.remove(bigFilePath);
+        Assertions.assertEquals(10 * 1024, lagTracker.snapshot(0).getTotalBacklogBytes());
+        Assertions.assertTrue(lagTracker.snapshot(0).getWorstFiles().isEmpty());
+    }
+
+    @Test
+    public void testLagOnReceive() throws IOException {
+        Path readFilePath = Paths.get("target/MonitoredFileConsumerTest#testLagOnReceive-read");
+        Path queuedFilePath = Paths.get("target/MonitoredFileConsumerTest#testLagOnReceive-queued");
+        createTestFile(readFilePath, 10, false); // 20 bytes
+        createTestFile(queuedFilePath, 50, false); // 140 bytes
+
+        InMemoryStateStore stateStore = new InMemoryStateStore();
+        stateStore.setOffset(queuedFilePath, 40);
+        LagTracker lagTracker = new LagTracker(stateStore::getOffset);
+        try (FileChannelCache fcc = new FileChannelCache()) {
+            MonitoredFileConsumer mfc = new MonitoredFileConsumer(
+                    fcc,
+                    stateStore,
+                    fileRecord -> {},
+                    new ByteBufferPool(1024, 1),
+                    new ByteBufferPool(1024 * 1024, 1),
+                    new StatefulFileReaderConfig(),
+                    lagTracker
+            );
+            mfc.readFile(readFilePath);
+        }
+        Assertions.assertEquals(0, lagTracker.snapshot(0).getTotalBacklogBytes());
+
+        // appended and received, but not read yet
+        createTestFile(readFilePath, 5, true);
+        lagTracker.received(new MonitoredFile(readFilePath, MonitoredFile.Status.SYNC_MODIFIED));
+        lagTracker.received(new MonitoredFile(queuedFilePath, MonitoredFile.Status.SYNC_NEW));
+
+        LagSnapshot lagSnapshot = lagTracker.snapshot(2);
+        Assertions.assertEquals(2, lagSnapshot.getFileCount());
+        Assertions.assertEquals(10 + 100, lagSnapshot.getTotalBacklogBytes());
+        FileLag worst = lagSnapshot.getWorstFiles().get(0);
+        Assertions.assertEquals(queuedFilePath, worst.getPath());
+        Assertions.assertEquals(140, worst.getSize());
+        Assertions.assertEquals(40, worst.getOffset());
+        Assertions.assertEquals(readFilePath, lagSnapshot.getWorstFiles().get(1).getPath());
+        Assertions.assertEquals(20, lagSnapshot.getWorstFiles().get(1).getOffset());
+    }
+
+    @Test
+    public void testOctetCountingFramingByPath() throws IOException {
+        Path octetFilePath = Paths.get("target/MonitoredFileConsumerTest#testOctetCountingFramingByPath.octet");
+        Path lineFilePath = Paths.get("target/MonitoredFileConsumerTest#testOctetCountingFramingByPath.log");
+
+        StringBuilder octetContent = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            String message = "<14>message " + i + "\nwith newline";
+            octetContent.append(message.length()).append(' ').append(message);
+        }
+        octetContent.append("30 <14>partial"); // unfinished frame is left for the next read
+        Files.write(octetFilePath, octetContent.toString().getBytes(StandardCharsets.UTF_8));
+        createTestFile(lineFilePath, 10, false);
+
+        StatefulFileReaderConfig config = new StatefulFileReaderConfig();
+        config.setBatchMaximumRecords(7);
+        config.setFramerSupplier("glob:**.octet", OctetCountingFramer::new);
+
+        List<String> records = new ArrayList<>();
+        List<Long> recordEndOffsets = new ArrayList<>();
+        FileRecordBatchConsumer frbc = fileRecordBatch -> {
+            for (int i = 0; i < fileRecordBatch.size(); i++) {
+                records.add(new String(fileRecordBatch.getRecord(i), StandardCharsets.UTF_8));
+                recordEndOffsets.add(fileRecordBatch.getRecordEndOffset(i));
+            }
+        };
+
+        StateStore stateStore = new InMemoryStateStore();
+        try (FileChannelCache fcc = new FileChannelCache()) {
+            MonitoredFileConsumer mfc = new MonitoredFileConsumer(
+                    fcc,
+                    stateStore,
+                    frbc,
+                    new ByteBufferPool(64, 1),
+                    new ByteBufferPool(1024 * 1024, 1),
+                    new ByteBufferPool(1024 * 1024, 1),
+                    config
+            );
+            mfc.readFile(octetFilePath);
+            mfc.readFile(lineFilePath);
+        }
+
+        Assertions.assertEquals(110, records.size());
+        long frameEnd = 0;
+        for (int i = 0; i < 100; i++) {
+            String message = "<14>message " + i + "\nwith newline";
+            frameEnd += Integer.toString(message.length()).length() + 1 + message.length();
+            Assertions.assertEquals(message, records.get(i));
+            Assertions.assertEquals(frameEnd, recordEndOffsets.get(i));
+        }
+        Assertions.assertEquals(frameEnd, stateStore.getOffset(octetFilePath));
+        for (int i = 0; i < 10; i++) {
+            Assertions.assertEquals(i + "\n", records.get(100 + i));
+        }
+    }
+
+    @Test
+    public void testMultiLine() throws IOException {
+        Path testFilePath = Paths.get("target/MonitoredFileConsumerTest#testMultiLine");
+        String first = "2023-01-01 first\njava.lang.Exception: failed\n\tat Foo.bar(Foo.java:1)\n\tat Baz.qux(Baz.java:2)\n";
+        String second = "2023-01-01 second\n";
+        String third = "2023-01-01 third\n\tat Pending.line(Pending.java:3)\n";
+        Files.write(testFilePath, (first + second + third).getBytes(StandardCharsets.UTF_8));
+
+        StatefulFileReaderConfig config = new StatefulFileReaderConfig();
+        config.setMultiLineStartPattern("\\d{4}-\\d{2}-\\d{2} ");
+        config.setMultiLineFlushMillis(0);
+
+        List<String> records = new ArrayList<>();
+        List<Long> recordEndOffsets = new ArrayList<>();
+        StateStore stateStore = new InMemoryStateStore();
+        try (FileChannelCache fcc = new FileChannelCache()) {
+            MonitoredFileConsumer mfc = new MonitoredFileConsumer(
+                    fcc,
+                    stateStore,
+                    fileRecord -> {
+                        records.add(new String(fileRecord.getRecord(), StandardCharsets.UTF_8));
+                        recordEndOffsets.add(fileRecord.getEndOffset());
+                    },
+                    new ByteBufferPool(16, 1),
+                    new ByteBufferPool(1024 * 1024, 1),
+                    config
+            );
+
+            mfc.readFile(testFilePath);
+            Assertions.assertEquals(2, records.size());
+            Assertions.assertEquals(first, records.get(0));
+            Assertions.assertEquals(second, records.get(1));
+            Assertions.assertEquals((long) first.length() + second.length(), recordEndOffsets.get(1));
+            // last event may still be continued
+            Assertions.assertEquals(first.length() + second.length(), stateStore.getOffset(testFilePath));
+            Assertions.assertEquals(0, mfc.nanosUntilFlush());
+
+            String more = "\tat More.line(More.java:4)\n";
+            Files.write(testFilePath, more.getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+            mfc.readFile(testFilePath);
+            Assertions.assertEquals(2, records.size());
+
+            // not grown since the flush timeout started
+            mfc.flushPendingEvents();
+            Assertions.assertEquals(3, records.size());
+            Assertions.assertEquals(third + more, records.get(2));
+            Assertions.assertEquals(Files.size(testFilePath), stateStore.getOffset(testFilePath));
+            Assertions.assertEquals(Long.MAX_VALUE, mfc.nanosUntilFlush());
+        }
+    }
+
+    @Test
+    public void testMultiLineMaximumBytes() throws IOException {
+        Path testFilePath = Paths.get("target/MonitoredFileConsumerTest#testMultiLineMaximumBytes");
+        Files.write(testFilePath, "start\n cont1\n cont2\n cont3\nstart\n".getBytes(StandardCharsets.UTF_8));
+
+        StatefulFileReaderConfig config = new StatefulFileReaderConfig();
+        config.setMultiLineContinuationPattern(" ");
+        config.setMultiLineMaximumBytes(16);
+        config.setMultiLineFlushMillis(0);
+
+        List<String> records = new ArrayList<>();
+        try (FileChannelCache fcc = new FileChannelCache()) {
+            MonitoredFileConsumer mfc = new MonitoredFileConsumer(
+                    fcc,
+                    new InMemoryStateStore(),
+                    fileRecord -> records.add(new String(fileRecord.getRecord(), StandardCharsets.UTF_8)),
+                    new ByteBufferPool(32 * 1024, 1),
+                    new ByteBufferPool(1024 * 1024, 1),
+                    config
+            );
+            mfc.readFile(testFilePath);
+            // last event flushed by the read after the flush timeout
+            mfc.readFile(testFilePath);
+        }
+
+        Assertions.assertEquals(3, records.size());
+        Assertions.assertEquals("start\n cont1\n", records.get(0));
+        Assertions.assertEquals(" cont2\n cont3\n", records.get(1));
+        Assertions.assertEquals("start\n", records.get(2));
+    }
+
+    /**
+     * Writes a gzip member of the lines with every optional header field set, like GZIPOutputStream leaves out.
+     */
+    private void writeGzipMember(Path path, List<String> lines) throws IOException {
+        byte[] content = String.join("", lines).getBytes(StandardCharsets.UTF_8);
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(content);
+        deflater.finish();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        while (!deflater.finished()) {
+            compressed.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+        CRC32 crc32 = new CRC32();
+        crc32.update(content);
+
+        ByteArrayOutputStream member = new ByteArrayOutputStream();
+        // magic, deflate, FHCRC FEXTRA FNAME FCOMMENT, mtime, xfl, os
+        member.write(new byte[] {0x1F, (byte) 0x8B, 8, 2 | 4 | 8 | 16, 0, 0, 0, 0, 0, 3});
+        member.write(new byte[] {3, 0, 'a', 'b', 'c'});
+        member.write("name\0comment\0".getBytes(StandardCharsets.UTF_8));
+        member.write(new byte[] {0, 0});
+        compressed.writeTo(member);
+        ByteBuffer trailer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        trailer.putInt((int) crc32.getValue()).putInt(content.length);
+        member.write(trailer.array());
+
+        Files.write(path, member.toByteArray(), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    @Test
+    public void testGzip() throws IOException {
+        Path testFilePath = Paths.get("target/MonitoredFileConsumerTest#testGzip.gz");
+        Path stateStorePath = Paths.get("target/MonitoredFileConsumerTest#testGzip-state");
+        Files.createDirectories(stateStorePath);
+        Files.deleteIfExists(testFilePath);
+
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            lines.add("line " + i + "\n");
+        }
+        try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(Files.newOutputStream(testFilePath))) {
+            gzipOutputStream.write(String.join("", lines.subList(0, 1000)).getBytes(StandardCharsets.UTF_8));
+        }
+        writeGzipMember(testFilePath, lines.subList(1000, 2000));
+        long secondMemberEnd = Files.size(testFilePath);
+        long uncompressedSize = String.join("", lines.subList(0, 2000)).length();
+
+        StatefulFileReaderConfig config = new StatefulFileReaderConfig();
+        config.setGzipPattern("glob:**.gz");
+        config.setGzipRestartPointInterval(1);
+
+        List<String> records = new ArrayList<>();
+        try (FileChannelCache fcc = new FileChannelCache(); LMDBStateStore stateStore = new LMDBStateStore(stateStorePath)) {
+            MonitoredFileConsumer mfc = new MonitoredFileConsumer(
+                    fcc,
+                    stateStore,
+                    fileRecord -> records.add(new String(fileRecord.getRecord(), StandardCharsets.UTF_8)),
+                    new ByteBufferPool(32 * 1024, 1),
+                    new ByteBufferPool(1024 * 1024, 1),
+                    config
+            );
+            mfc.readFile(testFilePath);
+            Assertions.assertEquals(lines.subList(0, 2000), records);
+            Assertions.assertEquals(uncompressedSize, stateStore.getOffset(testFilePath));
+            // end of the last member
+            Assertions.assertEquals(secondMemberEnd, stateStore.getRestartPoint(testFilePath).getCompressedOffset());
+            Assertions.assertEquals(uncompressedSize, stateStore.getRestartPoint(testFilePath).getUncompressedOffset());
+
+            writeGzipMember(testFilePath, lines.subList(2000, 3000));
+            fcc.invalidate(testFilePath);
+            mfc.readFile(testFilePath);
+            Assertions.assertEquals(lines, records);
+            Assertions.assertEquals(Files.size(testFilePath), stateStore.getRestartPoint(testFilePath).getCompressedOffset());
+        }
+    }
+
+    @Test
+    public void testGzipGrowingMember() throws IOException {
+        Path testFilePath = Paths.get("target/MonitoredFileConsumerTest#testGzipGrowingMember.gz");
+        Files.deleteIfExists(testFilePath);
+
+        AtomicLong bytesRead = new AtomicLong();
+        StatefulFileReaderConfig config = new StatefulFileReaderConfig();
+        config.setGzipPattern("glob:**.gz");
+        config.setMetrics(new Metrics() {
+            @Override
+            public void bytesRead(long bytes) {
+                bytesRead.addAndGet(bytes);
+            }
+        });
+
+        List<String> lines = new ArrayList<>();
+        List<String> records = new ArrayList<>();
+        try (
+                GZIPOutputStream gzipOutputStream = new GZIPOutputStream(Files.newOutputStream(testFilePath), true);
+                FileChannelCache fcc = new FileChannelCache()
+        ) {
+            MonitoredFileConsumer mfc = new MonitoredFileConsumer(
+                    fcc,
+                    new InMemoryStateStore(),
+                    fileRecord -> records.add(new String(fileRecord.getRecord(), StandardCharsets.UTF_8)),
+                    new ByteBufferPool(32 * 1024, 1),
+                    new ByteBufferPool(1024 * 1024, 1),
+                    config
+            );
+            for (int i = 0; i < 50; i++) {
+                // one member that keeps growing, the partial line is completed by the next write
+                for (int j = 0; j < 100; j++) {
+                    String line = "line " + i + " " + j + "\n";
+                    lines.add(line);
+                    gzipOutputStream.write(line.getBytes(StandardCharsets.UTF_8));
+                }
+                // longer than the decompression buffer every tenth time
+                String partial = i % 10 == 0 ? String.join("", Collections.nCopies(10000, "partial ")) : "partial ";
+                gzipOutputStream.write(partial.getBytes(StandardCharsets.UTF_8));
+                gzipOutputStream.flush();
+                mfc.readFile(testFilePath);
+                Assertions.assertEquals(lines, records);
+
+                lines.add(partial + "line " + i + "\n");
+                gzipOutputStream.write(("line " + i + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+            gzipOutputStream.flush();
+            mfc.readFile(testFilePath);
+            Assertions.assertEquals(lines, records);
+        }
+
+        // every compressed byte is read once, not again from the start of the member on every read
+        Assertions.assertTrue(
+                bytesRead.get() <= Files.size(testFilePath),
+                "read <" + bytesRead.get() + "> of <" + Files.size(testFilePath) + "> bytes"
+        );
+    }
+
+    @Test
+    public void testFileIdentity() throws IOException {
+        Path testFilePath = Paths.get("target/MonitoredFileConsumerTest#testFileIdentity.log");
+        Path rotatedFilePath = Paths.get("target/MonitoredFileConsumerTest#testFileIdentity.log.1");
+        Path stateStorePath = Paths.get("target/MonitoredFileConsumerTest#testFileIdentity-state-" + System.nanoTime());
+        Files.createDirectories(stateStorePath);
+        Files.deleteIfExists(rotatedFilePath);
+        Files.write(testFilePath, "first\n".getBytes(StandardCharsets.UTF_8));
+
+        StatefulFileReaderConfig config = new StatefulFileReaderConfig();
+        config.setFileIdentity(true);
+
+        List<String> records = new ArrayList<>();
+        try (
+                FileChannelCache fcc = new FileChannelCache(Metrics.NOOP, true);
+                LMDBStateStore stateStore = new LMDBStateStore(stateStorePath)
+        ) {
+            Assumptions.assumeTrue(Files.readAttributes(testFilePath, BasicFileAttributes.class).fileKey() != null);
+            MonitoredFileConsumer mfc = new MonitoredFileConsumer(
+                    fcc,
+                    stateStore,
+                    fileRecord -> records.add(new String(fileRecord.getRecord(), StandardCharsets.UTF_8)),
+                    new ByteBufferPool(32 * 1024, 1),
+                    new ByteBufferPool(1024 * 1024, 1),
+                    config
+            );
+            mfc.readFile(testFilePath);
+            Assertions.assertEquals(Collections.singletonList("first\n"), records);
+
+            // logrotate create mode
+            Files.write(testFilePath, "second\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+            Files.move(testFilePath, rotatedFilePath);
+            Files.write(testFilePath, "third\n".getBytes(StandardCharsets.UTF_8));
+            fcc.invalidate(testFilePath);
+
+            mfc.readFile(rotatedFilePath);
+            Assertions.assertEquals(Arrays.asList("first\n", "second\n"), records);
+            mfc.readFile(testFilePath);
+            Assertions.assertEquals(Arrays.asList("first\n", "second\n", "third\n"), records);
+        }
+    }
+
+    @Test
+    public void testFingerprint() throws IOException {
+        Path testFilePath = Paths.get("target/MonitoredFileConsumerTest#testFingerprint.log");
+        Path stateStorePath = Paths.get("target/MonitoredFileConsumerTest#testFingerprint-state-" + System.nanoTime());
+        Files.createDirectories(stateStorePath);
+        Files.write(testFilePath, "aaaa\nbbbb\n".getBytes(StandardCharsets.UTF_8));
+
+        StatefulFileReaderConfig config = new StatefulFileReaderConfig();
+        config.setFingerprintBytes(8);
+
+        List<String> records = new ArrayList<>();
+        try (FileChannelCache fcc = new FileChannelCache(); LMDBStateStore stateStore = new LMDBStateStore(stateStorePath)) {
+            MonitoredFileConsumer mfc = new MonitoredFileConsumer(
+                    fcc,
+                    stateStore,
+                    fileRecord -> records.add(new String(fileRecord.getRecord(), StandardCharsets.UTF_8)),
+                    new ByteBufferPool(32 * 1024, 1),
+                    new ByteBufferPool(1024 * 1024, 1),
+                    config
+            );
+            mfc.readFile(testFilePath);
+            Assertions.assertEquals(Arrays.asList("aaaa\n", "bbbb\n"), records);
+            Assertions.assertEquals(8, stateStore.getFingerprint(testFilePath).getLength());
+
+            // appended, read from the offset
+            Files.write(testFilePath, "cccc\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+            mfc.readFile(testFilePath);
+            Assertions.assertEquals(Arrays.asList("aaaa\n", "bbbb\n", "cccc\n"), records);
+
+            // truncated and refilled past the offset before it was read
+            records.clear();
+            Files.write(testFilePath, "dddd\neeee\nffff\ngggg\n".getBytes(StandardCharsets.UTF_8));
+            mfc.readFile(testFilePath);
+            Assertions.assertEquals(Arrays.asList("dddd\n", "eeee\n", "ffff\n", "gggg\n"), records);
+            Assertions.assertEquals(20, stateStore.getOffset(testFilePath));
+        }
+    }
+
+    @Test
+    public void testReadAhead() throws IOException {
+        Path testFilePath = Paths.get("target/MonitoredFileConsumerTest#testReadAhead.log");
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            lines.add("line " + i + "\n");
+        }
+        Files.write(testFilePath, String.join("", lines).getBytes(StandardCharsets.UTF_8));
+
+        StatefulFileReaderConfig config = new StatefulFileReaderConfig();
+        config.setReadAheadBuffers(2);
+        config.setReadAheadThresholdBytes(0);
+        config.setReadSliceBytes(10000);
+
+        ByteBufferPool readBufferPool = new ByteBufferPool(1024, 4);
+        List<String> records = new ArrayList<>();
+        int slices = 0;
+        ExecutorService readAheadExecutor = Executors.newSingleThreadExecutor();
+        try (FileChannelCache fcc = new FileChannelCache()) {
+            MonitoredFileConsumer mfc = new MonitoredFileConsumer(
+                    fcc,
+                    new InMemoryStateStore(),
+                    fileRecord -> records.add(new String(fileRecord.getRecord(), StandardCharsets.UTF_8)),
+                    readBufferPool,
+                    new ByteBufferPool(1024 * 1024, 1),
+                    config,
+                    new LagTracker(),
+                    readAheadExecutor
+            );
+            // the read stage is stopped with each slice and started again with the next one
+            while (!mfc.readFile(testFilePath, true)) {
+                slices++;
+            }
+            Assertions.assertTrue(slices > 5);
+            Assertions.assertEquals(lines, records);
+        }
+        finally {
+            readAheadExecutor.shutdown();
+        }
+        // the read stage has buffers of its own, pipelined reads take none from the pool
+        Assertions.assertEquals(0, readBufferPool.getStatistics().getAcquired());
+    }
+
+    @Test
+    public void testReadAheadThreshold() throws IOException {
+        Path testFilePath = Paths.get("target/MonitoredFileConsumerTest#testReadAheadThreshold.log");
+        Files.write(testFilePath, "first\n".getBytes(StandardCharsets.UTF_8));
+
+        StatefulFileReaderConfig config = new StatefulFileReaderConfig();
+        config.setReadAheadBuffers(2);
+        config.setReadAheadThresholdBytes(1024);
+
+        AtomicInteger readStages = new AtomicInteger();
+        ExecutorService readAheadExecutor =
+                new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new LinkedBlockingQueue<>()) {
+                    @Override
+                    protected void beforeExecute(Thread thread, Runnable runnable) {
+                        readStages.incrementAndGet();
+                    }
+                };
+        List<String> records = new ArrayList<>();
+        try (FileChannelCache fcc = new FileChannelCache()) {
+            MonitoredFileConsumer mfc = new MonitoredFileConsumer(
+                    fcc,
+                    new InMemoryStateStore(),
+                    fileRecord -> records.add(new String(fileRecord.getRecord(), StandardCharsets.UTF_8)),
+                    new ByteBufferPool(256, 1),
+                    new ByteBufferPool(1024 * 1024, 1),
+                    config,
+                    new LagTracker(),
+                    readAheadExecutor
+            );
+            // a few appended bytes are read on the calling thread
+            mfc.readFile(testFilePath);
+            Assertions.assertEquals(0, readStages.get());
+
+            StringBuilder backlog = new StringBuilder();
+            for (int i = 0; i < 1000; i++) {
+                backlog.append("line ").append(i).append('\n');
+            }
+            Files.write(testFilePath, backlog.toString().getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+            mfc.readFile(testFilePath);
+            Assertions.assertEquals(1, readStages.get());
+            Assertions.assertEquals(1001, records.size());
+        }
+        finally {
+            readAheadExecutor.shutdown();
+        }
+    }
+
+    @Test
+    public void testReadSlicesWithoutFurtherEvents() throws IOException {
+        Path testFilePath = Paths.get("target/MonitoredFileConsumerTest#testReadSlicesWithoutFurtherEvents");
+        Path otherFilePath = Paths.get("target/MonitoredFileConsumerTest#testReadSlicesWithoutFurtherEvents-other");
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            lines.add("line " + i + "\n");
+        }
+        Files.write(testFilePath, String.join("", lines).getBytes(StandardCharsets.UTF_8));
+        Files.write(otherFilePath, String.join("", lines).getBytes(StandardCharsets.UTF_8));
+
+        StatefulFileReaderConfig config = new StatefulFileReaderConfig();
+        config.setReadSliceBytes(1024);
+
+        AtomicLong recordCounter = new AtomicLong();
+        StateStore stateStore = new InMemoryStateStore();
+        try (FileChannelCache fcc = new FileChannelCache()) {
+            MonitoredFileConsumer mfc = new MonitoredFileConsumer(
+                    fcc,
+                    stateStore,
+                    fileRecord -> recordCounter.incrementAndGet(),
+                    new ByteBufferPool(32 * 1024, 1),
+                    new ByteBufferPool(1024 * 1024, 1),
+                    config
+            );
+            // one event each and nothing after them, the backlogs must still be read to their end
+            mfc.accept(new MonitoredFile(testFilePath, MonitoredFile.Status.SYNC_NEW));
+            mfc.accept(new MonitoredFile(otherFilePath, MonitoredFile.Status.SYNC_NEW));
+
+            Assertions.assertFalse(mfc.hasContinuations());
+            Assertions.assertEquals(2L * lines.size(), recordCounter.get());
+            Assertions.assertEquals(Files.size(testFilePath), stateStore.getOffset(testFilePath));
+            Assertions.assertEquals(Files.size(otherFilePath), stateStore.getOffset(otherFilePath));
+        }
+    }
+
+    @Test
+    public void testMultiLineFailedFlushBacksOff() throws IOException {
+        Path testFilePath = Paths.get("target/MonitoredFileConsumerTest#testMultiLineFailedFlushBacksOff");
+        Files.write(testFilePath, "2023-01-01 first\n2023-01-01 second\n\tat Pending.line(Pending.java:3)\n".getBytes(StandardCharsets.UTF_8));
+
+        StatefulFileReaderConfig config = new StatefulFileReaderConfig();
+        config.setMultiLineStartPattern("\\d{4}-\\d{2}-\\d{2} ");
+        config.setMultiLineFlushMillis(0);
+
+        List<String> records = new ArrayList<>();
+        try (FileChannelCache fcc = new FileChannelCache()) {
+            MonitoredFileConsumer mfc = new MonitoredFileConsumer(
+                    fcc,
+                    new InMemoryStateStore(),
+                    fileRecord -> {
+                        String record = new String(fileRecord.getRecord(), StandardCharsets.UTF_8);
+                        if (record.contains("second")) {
+                            throw new IllegalStateException("sink failed");
+                        }
+                        records.add(record);
+                    },
+                    new ByteBufferPool(32 * 1024, 1),
+                    new ByteBufferPool(1024 * 1024, 1),
+                    config
+            );
+            mfc.readFile(testFilePath);
+            Assertions.assertEquals(Collections.singletonList("2023-01-01 first\n"), records);
+            Assertions.assertEquals(0, mfc.nanosUntilFlush());
+
+            // failure is not retried on the next pass
+            Assertions.assertDoesNotThrow(mfc::flushPendingEvents);
+            Assertions.assertTrue(mfc.nanosUntilFlush() > TimeUnit.MILLISECONDS.toNanos(500));
+        }
+    }
 }
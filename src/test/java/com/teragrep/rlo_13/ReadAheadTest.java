@@ -0,0 +1,111 @@
+/*
+   Java Stateful File Reader rlo_13
+   Copyright (C) 2023  Suomen Kanuuna Oy
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.teragrep.rlo_13;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class ReadAheadTest {
+
+    @Test
+    public void testSlowConsumerHoldsReadingBack() throws IOException, InterruptedException {
+        Path path = Paths.get("target/ReadAheadTest#testSlowConsumerHoldsReadingBack");
+        byte[] content = new byte[64 * 1024];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+        Files.write(path, content);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ReadAhead readAhead = new ReadAhead(executor, 1024, 4);
+            readAhead.start(fileChannel, 0);
+
+            // consumer is stuck on the first buffer, the read stage may only fill the remaining ones
+            ByteBuffer held = readAhead.take();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (readAhead.getReadPosition() < 4 * 1024 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            Assertions.assertEquals(4 * 1024, readAhead.getReadPosition());
+            // every buffer is filled, the read stage waits for one to be released instead of reading further
+            Thread.sleep(50);
+            Assertions.assertEquals(4 * 1024, readAhead.getReadPosition());
+
+            byte[] read = new byte[content.length];
+            int position = 0;
+            ByteBuffer byteBuffer = held;
+            while (byteBuffer != null) {
+                int length = byteBuffer.remaining();
+                byteBuffer.get(read, position, length);
+                position = position + length;
+                readAhead.release(byteBuffer);
+                byteBuffer = readAhead.take();
+            }
+            readAhead.stop();
+            Assertions.assertArrayEquals(content, read);
+            Assertions.assertEquals(content.length, readAhead.getReadPosition());
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testStopMidFile() throws IOException {
+        Path path = Paths.get("target/ReadAheadTest#testStopMidFile");
+        byte[] content = new byte[64 * 1024];
+        Arrays.fill(content, (byte) 'x');
+        Files.write(path, content);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ReadAhead readAhead = new ReadAhead(executor, 1024, 2);
+            readAhead.start(fileChannel, 0);
+            readAhead.release(readAhead.take());
+            readAhead.stop();
+
+            // buffers are reused by the next read
+            readAhead.start(fileChannel, 60 * 1024);
+            int bytes = 0;
+            ByteBuffer byteBuffer = readAhead.take();
+            while (byteBuffer != null) {
+                bytes = bytes + byteBuffer.remaining();
+                readAhead.release(byteBuffer);
+                byteBuffer = readAhead.take();
+            }
+            readAhead.stop();
+            Assertions.assertEquals(4 * 1024, bytes);
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+}
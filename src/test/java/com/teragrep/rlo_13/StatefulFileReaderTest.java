@@ -18,13 +18,29 @@
 package com.teragrep.rlo_13;
 
 import com.teragrep.rlo_12.DirectoryEventWatcher;
+import com.teragrep.rlo_12.MonitoredFile;
+import com.teragrep.rlo_13.metrics.Metrics;
+import com.teragrep.rlo_13.metrics.StateStoreOperation;
+import com.teragrep.rlo_13.statestore.LMDBStateStore;
+import com.teragrep.rlo_13.statestore.StateStoreDurability;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 import java.util.regex.Pattern;
@@ -57,4 +73,106 @@ public class StatefulFileReaderTest {
             throw new RuntimeException(e);
         }
     }
+
+    @Test
+    public void testMultiLineFlushWithoutLanes() throws Exception {
+        Path testFilePath = Paths.get("target/StatefulFileReaderTest#testMultiLineFlushWithoutLanes");
+        Path stateStorePath = Paths.get("target/StatefulFileReaderTest#testMultiLineFlushWithoutLanes-state-" + System.nanoTime());
+        Files.createDirectories(stateStorePath);
+        String first = "2023-01-01 first\n";
+        String last = "2023-01-01 last\n\tat Quiet.file(Quiet.java:1)\n";
+        Files.write(testFilePath, (first + last).getBytes(StandardCharsets.UTF_8));
+
+        StatefulFileReaderConfig config = new StatefulFileReaderConfig();
+        config.setMultiLineStartPattern("\\d{4}-\\d{2}-\\d{2} ");
+        config.setMultiLineFlushMillis(50);
+
+        List<String> records = new CopyOnWriteArrayList<>();
+        List<String> threads = new CopyOnWriteArrayList<>();
+        Supplier<Consumer<FileRecord>> consumerSupplier = () -> fileRecord -> {
+            records.add(new String(fileRecord.getRecord(), StandardCharsets.UTF_8));
+            threads.add(Thread.currentThread().getName());
+        };
+        try (StatefulFileReader statefulFileReader = new StatefulFileReader(stateStorePath, consumerSupplier, config)) {
+            // referenced while the flush is awaited, consumers the caller has dropped are not flushed
+            Consumer<MonitoredFile> monitoredFileConsumer = statefulFileReader.get();
+            monitoredFileConsumer.accept(new MonitoredFile(testFilePath, MonitoredFile.Status.SYNC_NEW));
+            Assertions.assertEquals(Collections.singletonList(first), records);
+
+            // the file stays quiet, no further event arrives
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (records.size() < 2 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            Assertions.assertEquals(Arrays.asList(first, last), records);
+            // flushed on the thread of the reader, not the caller's
+            Assertions.assertEquals("rlo_13-multiline-flush", threads.get(1));
+        }
+    }
+
+    @Test
+    public void testWriteBehindDefersCommits() throws Exception {
+        Path stateStorePath = Paths.get("target/StatefulFileReaderTest#testWriteBehindDefersCommits-state-" + System.nanoTime());
+        Files.createDirectories(stateStorePath);
+        List<Path> paths = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Path path = Paths.get("target/StatefulFileReaderTest#testWriteBehindDefersCommits-" + i);
+            Files.write(path, "first\nsecond\n".getBytes(StandardCharsets.UTF_8));
+            paths.add(path);
+        }
+
+        AtomicInteger commits = new AtomicInteger();
+        StatefulFileReaderConfig config = new StatefulFileReaderConfig();
+        config.setStateStoreDurability(StateStoreDurability.WRITE_BEHIND);
+        config.setStateStoreSyncMillis(60000);
+        config.setMetrics(new Metrics() {
+            @Override
+            public void stateStoreOperation(StateStoreOperation stateStoreOperation, long elapsedNanos) {
+                switch (stateStoreOperation) {
+                    case SET_OFFSET:
+                    case SET_OFFSETS:
+                        commits.incrementAndGet();
+                        break;
+                    default:
+                        break;
+                }
+            }
+        });
+
+        List<String> records = new CopyOnWriteArrayList<>();
+        Supplier<Consumer<FileRecord>> consumerSupplier =
+                () -> fileRecord -> records.add(new String(fileRecord.getRecord(), StandardCharsets.UTF_8));
+        try (StatefulFileReader statefulFileReader = new StatefulFileReader(stateStorePath, consumerSupplier, config)) {
+            Consumer<MonitoredFile> consumer = statefulFileReader.get();
+            for (Path path : paths) {
+                consumer.accept(new MonitoredFile(path, MonitoredFile.Status.SYNC_NEW));
+            }
+            Assertions.assertEquals(6, records.size());
+            // offsets wait in memory for the batch or the sync interval
+            Assertions.assertEquals(0, commits.get());
+        }
+        Assertions.assertEquals(1, commits.get());
+
+        try (LMDBStateStore lmdbStateStore = new LMDBStateStore(stateStorePath)) {
+            for (Path path : paths) {
+                Assertions.assertEquals(Files.size(path), lmdbStateStore.getOffset(path));
+            }
+        }
+    }
+
+    @Test
+    public void testWriteBehindRejectsSingleOffsetBatches() throws IOException {
+        Path stateStorePath = Paths.get("target/StatefulFileReaderTest#testWriteBehindRejectsSingleOffsetBatches-state");
+        Files.createDirectories(stateStorePath);
+        StatefulFileReaderConfig config = new StatefulFileReaderConfig();
+        config.setStateStoreDurability(StateStoreDurability.WRITE_BEHIND);
+        Assertions.assertEquals(1024, config.getOffsetCommitBatchSize());
+        config.setOffsetCommitBatchSize(1);
+
+        Supplier<Consumer<FileRecord>> consumerSupplier = () -> fileRecord -> {};
+        Assertions.assertThrows(
+                IllegalArgumentException.class,
+                () -> new StatefulFileReader(stateStorePath, consumerSupplier, config)
+        );
+    }
 }
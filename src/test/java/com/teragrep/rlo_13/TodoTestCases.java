@@ -42,10 +42,6 @@ public class TodoTestCases {
         // test line over 32KB (default buffer size)
     }
 
-    public void testStateStoreOverflow() {
-        // statestore declares .setMapSize(10_485_760) this can be overflowed
-    }
-
     public void testStateStoreVersioning () {
         // test reading statestore version
     }
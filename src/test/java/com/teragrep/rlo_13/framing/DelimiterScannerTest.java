@@ -0,0 +1,93 @@
+/*
+   Java Stateful File Reader rlo_13
+   Copyright (C) 2023  Suomen Kanuuna Oy
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.teragrep.rlo_13.framing;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+public class DelimiterScannerTest {
+
+    private int naiveIndexOf(ByteBuffer buffer, int from, int to, byte delimiter) {
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) == delimiter) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void compareWithNaive(ByteOrder byteOrder, byte delimiter) {
+        DelimiterScanner delimiterScanner = new DelimiterScanner(delimiter);
+        Random random = new Random(1234);
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(256).order(byteOrder);
+        for (int round = 0; round < 10000; round++) {
+            buffer.clear();
+            while (buffer.hasRemaining()) {
+                // sparse delimiters and plenty of bytes near it and with the high bit set
+                int r = random.nextInt(64);
+                if (r == 0) {
+                    buffer.put(delimiter);
+                }
+                else if (r < 8) {
+                    buffer.put((byte) (delimiter ^ (1 << random.nextInt(8))));
+                }
+                else {
+                    buffer.put((byte) random.nextInt(256));
+                }
+            }
+
+            int from = random.nextInt(buffer.capacity());
+            int to = from + random.nextInt(buffer.capacity() - from + 1);
+
+            Assertions.assertEquals(
+                    naiveIndexOf(buffer, from, to, delimiter),
+                    delimiterScanner.indexOf(buffer, from, to),
+                    "from <" + from + "> to <" + to + ">"
+            );
+        }
+    }
+
+    @Test
+    public void testIndexOfNewline() {
+        compareWithNaive(ByteOrder.BIG_ENDIAN, (byte) '\n');
+        compareWithNaive(ByteOrder.LITTLE_ENDIAN, (byte) '\n');
+    }
+
+    @Test
+    public void testIndexOfHighBitDelimiter() {
+        compareWithNaive(ByteOrder.BIG_ENDIAN, (byte) 0xFF);
+        compareWithNaive(ByteOrder.LITTLE_ENDIAN, (byte) 0x80);
+    }
+
+    @Test
+    public void testIndexOfKeepsPosition() {
+        DelimiterScanner delimiterScanner = new DelimiterScanner((byte) '\n');
+        ByteBuffer buffer = ByteBuffer.wrap("abcdefghij\nklm\n".getBytes());
+        buffer.position(3);
+
+        Assertions.assertEquals(10, delimiterScanner.indexOf(buffer, 3, buffer.limit()));
+        Assertions.assertEquals(14, delimiterScanner.indexOf(buffer, 11, buffer.limit()));
+        Assertions.assertEquals(-1, delimiterScanner.indexOf(buffer, 11, 14));
+        Assertions.assertEquals(3, buffer.position());
+    }
+}
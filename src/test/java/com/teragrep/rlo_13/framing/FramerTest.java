@@ -0,0 +1,109 @@
+/*
+   Java Stateful File Reader rlo_13
+   Copyright (C) 2023  Suomen Kanuuna Oy
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.teragrep.rlo_13.framing;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class FramerTest {
+
+    /**
+     * Frames input fed in chunks of chunkSize bytes, records are "record@frameEnd".
+     */
+    private List<String> frame(Framer framer, String input, int chunkSize, int recordSize) {
+        byte[] bytes = input.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer record = ByteBuffer.allocate(recordSize);
+        List<String> records = new ArrayList<>();
+        long frameEnd = 0;
+        for (int chunkStart = 0; chunkStart < bytes.length; chunkStart += chunkSize) {
+            ByteBuffer source = ByteBuffer.wrap(bytes, chunkStart, Math.min(chunkSize, bytes.length - chunkStart));
+            while (source.hasRemaining()) {
+                boolean complete = framer.frame(source, record);
+                if (complete || !record.hasRemaining()) {
+                    frameEnd += framer.getFrameBytes();
+                    records.add(new String(record.array(), 0, record.position(), StandardCharsets.UTF_8) + "@" + frameEnd);
+                    record.clear();
+                    framer.next();
+                }
+            }
+        }
+        return records;
+    }
+
+    private void assertFrames(Framer framer, String input, int recordSize, String... expected) {
+        for (int chunkSize = 1; chunkSize <= input.length(); chunkSize++) {
+            framer.reset();
+            Assertions.assertEquals(
+                    Arrays.asList(expected),
+                    frame(framer, input, chunkSize, recordSize),
+                    "chunkSize <" + chunkSize + ">"
+            );
+        }
+    }
+
+    @Test
+    public void testLineFeed() {
+        assertFrames(DelimiterFramer.lineFeed(), "a\nbc\n\nd", 16, "a\n@2", "bc\n@5", "\n@6");
+    }
+
+    @Test
+    public void testNul() {
+        assertFrames(DelimiterFramer.nul(), "a\nb\0c\0d", 16, "a\nb\0@4", "c\0@6");
+    }
+
+    @Test
+    public void testCrLf() {
+        assertFrames(new CrLfFramer(), "a\r\nb\nc\r\n\r\nd\r", 16, "a\r\n@3", "b\nc\r\n@8", "\r\n@10");
+    }
+
+    @Test
+    public void testCrLfSplit() {
+        assertFrames(new CrLfFramer(), "abc\nde\r\n", 4, "abc\n@4", "de\r\n@8");
+    }
+
+    @Test
+    public void testOctetCounting() {
+        assertFrames(
+                new OctetCountingFramer(),
+                "5 a\nb\nc3 xyz0 12 0123456789ab4 ",
+                16,
+                "a\nb\nc@7", "xyz@12", "@14", "0123456789ab@29"
+        );
+    }
+
+    @Test
+    public void testOctetCountingSplit() {
+        assertFrames(new OctetCountingFramer(), "10 0123456789", 4, "0123@7", "4567@11", "89@13");
+    }
+
+    @Test
+    public void testOctetCountingNonTransparent() {
+        assertFrames(
+                new OctetCountingFramer(),
+                "<14>a b\n12x\n3 abc",
+                16,
+                "<14>a b\n@8", "12x\n@12", "abc@17"
+        );
+    }
+}
@@ -0,0 +1,53 @@
+/*
+   Java Stateful File Reader rlo_13
+   Copyright (C) 2023  Suomen Kanuuna Oy
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.teragrep.rlo_13.metrics;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import java.lang.management.ManagementFactory;
+
+public class JmxMetricsTest {
+
+    @Test
+    public void testRegistration() throws JMException {
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+
+        JmxMetrics jmxMetrics = new JmxMetrics("JmxMetricsTest#testRegistration");
+        try {
+            jmxMetrics.bytesRead(100);
+            jmxMetrics.stateStoreOperation(StateStoreOperation.GET_OFFSET, 1000);
+            jmxMetrics.stateStoreOperation(StateStoreOperation.GET_OFFSET, 3000);
+
+            Assertions.assertEquals(100L, mBeanServer.getAttribute(jmxMetrics.getObjectName(), "BytesRead"));
+            Assertions.assertEquals(2L, mBeanServer.getAttribute(jmxMetrics.getObjectName(), "GetOffsetCount"));
+            Assertions.assertEquals(
+                    2.0,
+                    mBeanServer.getAttribute(jmxMetrics.getObjectName(), "GetOffsetAverageMicros")
+            );
+            Assertions.assertEquals(0L, mBeanServer.getAttribute(jmxMetrics.getObjectName(), "SetOffsetCount"));
+        }
+        finally {
+            jmxMetrics.close();
+        }
+
+        Assertions.assertFalse(mBeanServer.isRegistered(jmxMetrics.getObjectName()));
+    }
+}
@@ -0,0 +1,215 @@
+/*
+   Java Stateful File Reader rlo_13
+   Copyright (C) 2023  Suomen Kanuuna Oy
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package com.teragrep.rlo_13.statestore;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class BatchingStateStoreTest {
+
+    @Test
+    public void testCommitOnBatchSize() {
+        InMemoryStateStore backingStore = new InMemoryStateStore();
+        Path pathA = Paths.get("/some/testCommitOnBatchSize/a");
+        Path pathB = Paths.get("/some/testCommitOnBatchSize/b");
+        Path pathC = Paths.get("/some/testCommitOnBatchSize/c");
+
+        try (BatchingStateStore bss = new BatchingStateStore(backingStore, 3)) {
+            bss.setOffset(pathA, 10);
+            bss.setOffset(pathB, 20);
+            bss.setOffset(pathA, 30);
+
+            // pending, visible only through the batching store
+            Assertions.assertEquals(30, bss.getOffset(pathA));
+            Assertions.assertEquals(0, backingStore.getOffset(pathA));
+
+            bss.setOffset(pathC, 40);
+
+            Assertions.assertEquals(30, backingStore.getOffset(pathA));
+            Assertions.assertEquals(20, backingStore.getOffset(pathB));
+            Assertions.assertEquals(40, backingStore.getOffset(pathC));
+        }
+    }
+
+    @Test
+    public void testFingerprintCommittedWithOffset() {
+        AtomicInteger fingerprintCommits = new AtomicInteger();
+        AtomicInteger offsetCommits = new AtomicInteger();
+        Map<Path, Fingerprint> committedFingerprints = new HashMap<>();
+        InMemoryStateStore backingStore = new InMemoryStateStore() {
+            @Override
+            public void setOffsets(Map<Path, Long> offsets, Map<Path, Fingerprint> fingerprints) {
+                offsetCommits.incrementAndGet();
+                super.setOffsets(offsets);
+                committedFingerprints.putAll(fingerprints);
+            }
+
+            @Override
+            public void setFingerprint(Path path, Fingerprint fingerprint) {
+                fingerprintCommits.incrementAndGet();
+            }
+        };
+        Path pathA = Paths.get("/some/testFingerprintCommittedWithOffset/a");
+        Path pathB = Paths.get("/some/testFingerprintCommittedWithOffset/b");
+
+        try (BatchingStateStore bss = new BatchingStateStore(backingStore, 2)) {
+            bss.setOffset(pathA, 10, new Fingerprint(10, 1234));
+            // pending, visible only through the batching store
+            Assertions.assertEquals(1234, bss.getFingerprint(pathA).getHash());
+            Assertions.assertTrue(committedFingerprints.isEmpty());
+
+            bss.setOffset(pathB, 20);
+            Assertions.assertEquals(1, offsetCommits.get());
+            Assertions.assertEquals(0, fingerprintCommits.get());
+            Assertions.assertEquals(10, backingStore.getOffset(pathA));
+            Assertions.assertEquals(1234, committedFingerprints.get(pathA).getHash());
+            Assertions.assertFalse(committedFingerprints.containsKey(pathB));
+        }
+    }
+
+    @Test
+    public void testDeleteAndCloseCommit() {
+        InMemoryStateStore backingStore = new InMemoryStateStore();
+        Path pathA = Paths.get("/some/testDeleteAndCloseCommit/a");
+        Path pathB = Paths.get("/some/testDeleteAndCloseCommit/b");
+
+        try (BatchingStateStore bss = new BatchingStateStore(backingStore, 100)) {
+            bss.setOffset(pathA, 10);
+            bss.setOffset(pathB, 20);
+            bss.deleteOffset(pathA);
+
+            Assertions.assertEquals(0, bss.getOffset(pathA));
+            Assertions.assertEquals(0, backingStore.getOffset(pathB));
+        }
+
+        // committed on close
+        Assertions.assertEquals(0, backingStore.getOffset(pathA));
+        Assertions.assertEquals(20, backingStore.getOffset(pathB));
+    }
+
+    @Test
+    public void testFlushInterval() throws InterruptedException {
+        InMemoryStateStore backingStore = new ConcurrentInMemoryStateStore();
+        Path pathA = Paths.get("/some/testFlushInterval/a");
+
+        try (BatchingStateStore bss = new BatchingStateStore(backingStore, 100, 10)) {
+            bss.setOffset(pathA, 10);
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (backingStore.getOffset(pathA) != 10 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            Assertions.assertEquals(10, backingStore.getOffset(pathA));
+        }
+    }
+
+    @Test
+    public void testCommitOutsideLock() throws Exception {
+        CountDownLatch committing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        InMemoryStateStore backingStore = new ConcurrentInMemoryStateStore() {
+            @Override
+            public void setOffsets(Map<Path, Long> offsets) {
+                committing.countDown();
+                try {
+                    release.await();
+                }
+                catch (InterruptedException interruptedException) {
+                    throw new IllegalStateException(interruptedException);
+                }
+                super.setOffsets(offsets);
+            }
+        };
+        Path pathA = Paths.get("/some/testCommitOutsideLock/a");
+        Path pathB = Paths.get("/some/testCommitOutsideLock/b");
+        Path pathC = Paths.get("/some/testCommitOutsideLock/c");
+
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try (BatchingStateStore bss = new BatchingStateStore(backingStore, 2)) {
+            bss.setOffset(pathA, 10);
+            Future<?> commit = executorService.submit(() -> bss.setOffset(pathB, 20));
+            Assertions.assertTrue(committing.await(10, TimeUnit.SECONDS));
+
+            // the commit is blocked in the backing store, offsets are still readable and settable
+            Assertions.assertEquals(10, bss.getOffset(pathA));
+            Assertions.assertEquals(0, bss.getOffset(pathC));
+            bss.setOffset(pathA, 30);
+            Assertions.assertEquals(30, bss.getOffset(pathA));
+
+            release.countDown();
+            commit.get(10, TimeUnit.SECONDS);
+            Assertions.assertEquals(10, backingStore.getOffset(pathA));
+            Assertions.assertEquals(20, backingStore.getOffset(pathB));
+            Assertions.assertEquals(30, bss.getOffset(pathA));
+        }
+        finally {
+            executorService.shutdown();
+        }
+
+        // the offset set during the commit went into the next batch
+        Assertions.assertEquals(30, backingStore.getOffset(pathA));
+    }
+
+    @Test
+    public void testFailedCommitStaysPending() {
+        AtomicInteger failures = new AtomicInteger(1);
+        InMemoryStateStore backingStore = new InMemoryStateStore() {
+            @Override
+            public void setOffsets(Map<Path, Long> offsets) {
+                if (failures.getAndDecrement() > 0) {
+                    throw new IllegalStateException("testFailedCommitStaysPending");
+                }
+                super.setOffsets(offsets);
+            }
+        };
+        Path pathA = Paths.get("/some/testFailedCommitStaysPending/a");
+
+        try (BatchingStateStore bss = new BatchingStateStore(backingStore, 100)) {
+            bss.setOffset(pathA, 10);
+            Assertions.assertThrows(IllegalStateException.class, bss::commit);
+            Assertions.assertEquals(10, bss.getOffset(pathA));
+            Assertions.assertEquals(0, backingStore.getOffset(pathA));
+        }
+
+        // committed on close
+        Assertions.assertEquals(10, backingStore.getOffset(pathA));
+    }
+
+    private static class ConcurrentInMemoryStateStore extends InMemoryStateStore {
+
+        @Override
+        public synchronized void setOffset(Path path, long offset) {
+            super.setOffset(path, offset);
+        }
+
+        @Override
+        public synchronized long getOffset(Path path) {
+            return super.getOffset(path);
+        }
+    }
+}
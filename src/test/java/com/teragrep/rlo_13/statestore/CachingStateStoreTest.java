@@ -0,0 +1,85 @@
+/*
+   Java Stateful File Reader rlo_13
+   Copyright (C) 2023  Suomen Kanuuna Oy
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.teragrep.rlo_13.statestore;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class CachingStateStoreTest {
+
+    @Test
+    public void testReadThrough() {
+        AtomicInteger backingReads = new AtomicInteger();
+        InMemoryStateStore backingStore = new InMemoryStateStore() {
+            @Override
+            public long getOffset(Path path) {
+                backingReads.incrementAndGet();
+                return super.getOffset(path);
+            }
+        };
+        Path pathA = Paths.get("/some/testReadThrough/a");
+        Path pathB = Paths.get("/some/testReadThrough/b");
+        backingStore.setOffset(pathA, 10);
+
+        try (CachingStateStore css = new CachingStateStore(backingStore, 100)) {
+            Assertions.assertEquals(10, css.getOffset(pathA));
+            Assertions.assertEquals(10, css.getOffset(pathA));
+            Assertions.assertEquals(1, backingReads.get());
+
+            // written through
+            css.setOffset(pathB, 20);
+            Assertions.assertEquals(20, backingStore.getOffset(pathB));
+            backingReads.set(0);
+            Assertions.assertEquals(20, css.getOffset(pathB));
+            Assertions.assertEquals(0, backingReads.get());
+
+            css.deleteOffset(pathA);
+            Assertions.assertEquals(0, backingStore.getOffset(pathA));
+            backingReads.set(0);
+            Assertions.assertEquals(0, css.getOffset(pathA));
+            Assertions.assertEquals(0, backingReads.get());
+        }
+    }
+
+    @Test
+    public void testEviction() {
+        AtomicInteger backingReads = new AtomicInteger();
+        InMemoryStateStore backingStore = new InMemoryStateStore() {
+            @Override
+            public long getOffset(Path path) {
+                backingReads.incrementAndGet();
+                return super.getOffset(path);
+            }
+        };
+
+        try (CachingStateStore css = new CachingStateStore(backingStore, 10)) {
+            for (int i = 0; i < 100; i++) {
+                css.setOffset(Paths.get("/some/testEviction/" + i), i);
+            }
+            // evicted paths are read from the backing store
+            for (int i = 0; i < 100; i++) {
+                Assertions.assertEquals(i, css.getOffset(Paths.get("/some/testEviction/" + i)));
+            }
+            Assertions.assertTrue(backingReads.get() >= 90, "backing reads <" + backingReads.get() + ">");
+        }
+    }
+}
@@ -18,11 +18,22 @@ package com.teragrep.rlo_13.statestore;
 
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
+import org.lmdbjava.Dbi;
+import org.lmdbjava.DbiFlags;
+import org.lmdbjava.Env;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 public class LMDBStateStoreTest {
 
@@ -111,4 +122,379 @@ public class LMDBStateStoreTest {
             Assertions.assertEquals(0,lss.getOffset(testPath));
         } // closes
     }
+
+    @Test
+    public void testSetOffsets() throws IOException {
+        Path storePath = Paths.get("target/LMDBStateStoreTest#BatchStore");
+
+        Files.createDirectories(storePath);
+
+        Map<Path, Long> offsets = new HashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            offsets.put(Paths.get("/some/testSetOffsets/" + i), (long) i * 10);
+        }
+
+        try (LMDBStateStore lss = new LMDBStateStore(storePath)) {
+            lss.setOffsets(offsets);
+        }
+
+        try (LMDBStateStore lss = new LMDBStateStore(storePath)) {
+            for (Map.Entry<Path, Long> entry : offsets.entrySet()) {
+                Assertions.assertEquals(entry.getValue(), lss.getOffset(entry.getKey()));
+            }
+        }
+    }
+
+    @Test
+    public void testNoSyncDurability() throws IOException {
+        Path storePath = Paths.get("target/LMDBStateStoreTest#testNoSyncDurability");
+
+        Files.createDirectories(storePath);
+
+        Path testPath = Paths.get("/some/testNoSyncDurability");
+        for (StateStoreDurability durability : new StateStoreDurability[] {
+                StateStoreDurability.NO_META_SYNC, StateStoreDurability.NO_SYNC
+        }) {
+            try (LMDBStateStore lss = new LMDBStateStore(storePath, durability, 10)) {
+                lss.setOffset(testPath, durability.ordinal());
+            }
+
+            // synced on close
+            try (LMDBStateStore lss = new LMDBStateStore(storePath)) {
+                Assertions.assertEquals(durability.ordinal(), lss.getOffset(testPath));
+            }
+        }
+
+        Assertions.assertThrows(
+                IllegalArgumentException.class,
+                () -> new LMDBStateStore(storePath, StateStoreDurability.WRITE_BEHIND, 10)
+        );
+    }
+
+    private void putRaw(Path storePath, String dbName, ByteBuffer key, ByteBuffer value) {
+        try (Env<ByteBuffer> env = Env.create().setMapSize(1024 * 1024).setMaxDbs(2).open(storePath.toFile())) {
+            Dbi<ByteBuffer> dbi = env.openDbi(dbName, DbiFlags.MDB_CREATE);
+            dbi.put(key, value);
+        }
+    }
+
+    @Test
+    public void testVersionOneUpgrade() throws IOException {
+        Path storePath = Paths.get("target/LMDBStateStoreTest#testVersionOneUpgrade");
+        Files.createDirectories(storePath);
+
+        Path testPath = Paths.get("/some/testVersionOneUpgrade");
+        byte[] pathBytes = testPath.toString().getBytes(StandardCharsets.UTF_8);
+
+        // version 1 layout, SHA-256 key and offset only
+        ByteBuffer versionKey = ByteBuffer.allocateDirect(64);
+        versionKey.put("StateStoreVersion".getBytes(StandardCharsets.UTF_8)).flip();
+        ByteBuffer version = ByteBuffer.allocateDirect(Long.BYTES);
+        version.putLong(1).flip();
+        putRaw(storePath, "VersionStore", versionKey, version);
+        ByteBuffer offset = ByteBuffer.allocateDirect(Long.BYTES);
+        offset.putLong(1234).flip();
+        putRaw(storePath, "StateStore", new KeyHashProvider().getOverflowKey(pathBytes), offset);
+
+        try (LMDBStateStore lss = new LMDBStateStore(storePath)) {
+            Assertions.assertEquals(1234, lss.getOffset(testPath));
+
+            lss.setOffset(testPath, 5678);
+            Assertions.assertEquals(5678, lss.getOffset(testPath));
+
+            // the version 1 entry does not come back
+            lss.deleteOffset(testPath);
+            Assertions.assertEquals(0, lss.getOffset(testPath));
+        }
+    }
+
+    @Test
+    public void testVersionTwoUpgrade() throws IOException {
+        Path storePath = Paths.get("target/LMDBStateStoreTest#testVersionTwoUpgrade-" + System.nanoTime());
+        Files.createDirectories(storePath);
+
+        Path testPath = Paths.get("/some/testVersionTwoUpgrade");
+        byte[] pathBytes = testPath.toString().getBytes(StandardCharsets.UTF_8);
+
+        // version 2 layout, offset followed by the path
+        ByteBuffer versionKey = ByteBuffer.allocateDirect(64);
+        versionKey.put("StateStoreVersion".getBytes(StandardCharsets.UTF_8)).flip();
+        ByteBuffer version = ByteBuffer.allocateDirect(Long.BYTES);
+        version.putLong(2).flip();
+        putRaw(storePath, "VersionStore", versionKey, version);
+        ByteBuffer value = ByteBuffer.allocateDirect(Long.BYTES + pathBytes.length);
+        value.putLong(1234).put(pathBytes).flip();
+        putRaw(storePath, "StateStore", new KeyHashProvider().getKey(pathBytes), value);
+
+        try (LMDBStateStore lss = new LMDBStateStore(storePath)) {
+            Assertions.assertEquals(1234, lss.getOffset(testPath));
+            Map<Path, Long> offsets = new HashMap<>();
+            lss.forEachOffset(offsets::put);
+            Assertions.assertEquals(Collections.singletonMap(testPath, 1234L), offsets);
+
+            // identity not known before, taken over
+            Assertions.assertEquals(1234, lss.resolveOffset(testPath, "inode"));
+        }
+    }
+
+    @Test
+    public void testResolveOffset() throws IOException {
+        Path storePath = Paths.get("target/LMDBStateStoreTest#testResolveOffset-" + System.nanoTime());
+        Files.createDirectories(storePath);
+
+        Path log = Paths.get("/some/app.log");
+        Path rotated = Paths.get("/some/app.log.1");
+        try (LMDBStateStore lss = new LMDBStateStore(storePath)) {
+            Assertions.assertEquals(0, lss.resolveOffset(log, "A"));
+            lss.setOffset(log, 100);
+            Assertions.assertEquals(100, lss.resolveOffset(log, "A"));
+
+            // renamed, then recreated
+            Assertions.assertEquals(100, lss.resolveOffset(rotated, "A"));
+            Assertions.assertEquals(0, lss.resolveOffset(log, "B"));
+            lss.setOffset(log, 50);
+
+            // recreated, then renamed
+            Assertions.assertEquals(0, lss.resolveOffset(log, "C"));
+            Assertions.assertEquals(50, lss.resolveOffset(rotated, "B"));
+            Assertions.assertEquals(50, lss.getOffset(rotated));
+
+            // deleted along with the path
+            lss.deleteOffset(log);
+            Assertions.assertEquals(0, lss.resolveOffset(Paths.get("/some/app.log.2"), "C"));
+        }
+    }
+
+    @Test
+    public void testFingerprint() throws IOException {
+        Path storePath = Paths.get("target/LMDBStateStoreTest#testFingerprint-" + System.nanoTime());
+        Files.createDirectories(storePath);
+
+        Path testPath = Paths.get("/some/testFingerprint");
+        try (LMDBStateStore lss = new LMDBStateStore(storePath)) {
+            Assertions.assertNull(lss.getFingerprint(testPath));
+
+            lss.setOffset(testPath, 10);
+            lss.setFingerprint(testPath, new Fingerprint(10, 1234));
+            lss.setOffset(testPath, 20);
+            Assertions.assertEquals(20, lss.getOffset(testPath));
+            Assertions.assertEquals(10, lss.getFingerprint(testPath).getLength());
+            Assertions.assertEquals(1234, lss.getFingerprint(testPath).getHash());
+
+            // another file at the path
+            lss.resolveOffset(testPath, "inode");
+            Assertions.assertEquals(10, lss.getFingerprint(testPath).getLength());
+            lss.resolveOffset(testPath, "other inode");
+            Assertions.assertNull(lss.getFingerprint(testPath));
+
+            lss.setFingerprint(testPath, new Fingerprint(5, 99));
+            lss.deleteOffset(testPath);
+            Assertions.assertNull(lss.getFingerprint(testPath));
+        }
+    }
+
+    @Test
+    public void testOffsetWithFingerprint() throws IOException {
+        Path storePath = Paths.get("target/LMDBStateStoreTest#testOffsetWithFingerprint-" + System.nanoTime());
+        Files.createDirectories(storePath);
+
+        Path pathA = Paths.get("/some/testOffsetWithFingerprint/a");
+        Path pathB = Paths.get("/some/testOffsetWithFingerprint/b");
+        try (LMDBStateStore lss = new LMDBStateStore(storePath)) {
+            lss.setOffset(pathA, 10, new Fingerprint(10, 1234));
+            Assertions.assertEquals(10, lss.getOffset(pathA));
+            Assertions.assertEquals(1234, lss.getFingerprint(pathA).getHash());
+
+            Map<Path, Long> offsets = new HashMap<>();
+            offsets.put(pathA, 30L);
+            offsets.put(pathB, 40L);
+            lss.setOffsets(offsets, Collections.singletonMap(pathB, new Fingerprint(20, 5678)));
+            Assertions.assertEquals(30, lss.getOffset(pathA));
+            Assertions.assertEquals(40, lss.getOffset(pathB));
+            // kept when set without one
+            Assertions.assertEquals(1234, lss.getFingerprint(pathA).getHash());
+            Assertions.assertEquals(20, lss.getFingerprint(pathB).getLength());
+            Assertions.assertEquals(5678, lss.getFingerprint(pathB).getHash());
+        }
+    }
+
+    @Test
+    public void testHashCollision() throws IOException {
+        Path storePath = Paths.get("target/LMDBStateStoreTest#testHashCollision");
+        Files.createDirectories(storePath);
+
+        Path testPath = Paths.get("/some/testHashCollision");
+        byte[] pathBytes = testPath.toString().getBytes(StandardCharsets.UTF_8);
+
+        try (LMDBStateStore lss = new LMDBStateStore(storePath)) {
+            lss.setOffset(testPath, 1);
+        }
+
+        // another path with the same key
+        byte[] otherPathBytes = "/some/other".getBytes(StandardCharsets.UTF_8);
+        ByteBuffer otherValue = ByteBuffer.allocateDirect(60 + otherPathBytes.length);
+        otherValue.putLong(999).put(new byte[52]).put(otherPathBytes).flip();
+        putRaw(storePath, "StateStore", new KeyHashProvider().getKey(pathBytes), otherValue);
+
+        try (LMDBStateStore lss = new LMDBStateStore(storePath)) {
+            Assertions.assertEquals(0, lss.getOffset(testPath));
+
+            lss.setOffset(testPath, 42);
+            Assertions.assertEquals(42, lss.getOffset(testPath));
+        }
+
+        // overflow keys are recorded, the colliding path is still looked up
+        try (LMDBStateStore lss = new LMDBStateStore(storePath)) {
+            Assertions.assertEquals(42, lss.getOffset(testPath));
+
+            lss.deleteOffset(testPath);
+            Assertions.assertEquals(0, lss.getOffset(testPath));
+        }
+    }
+
+    @Test
+    public void testHashCollisionMapFull() throws IOException {
+        Path storePath = Paths.get("target/LMDBStateStoreTest#testHashCollisionMapFull");
+        Files.createDirectories(storePath);
+
+        Path testPath = Paths.get("/some/testHashCollisionMapFull");
+        byte[] pathBytes = testPath.toString().getBytes(StandardCharsets.UTF_8);
+
+        try (LMDBStateStore lss = new LMDBStateStore(storePath, StateStoreDurability.SYNC, 0, 64 * 1024, 1.5)) {
+            lss.setOffset(testPath, 1);
+        }
+
+        // another path with the same key
+        byte[] otherPathBytes = "/some/other".getBytes(StandardCharsets.UTF_8);
+        ByteBuffer otherValue = ByteBuffer.allocateDirect(60 + otherPathBytes.length);
+        otherValue.putLong(999).put(new byte[52]).put(otherPathBytes).flip();
+        putRaw(storePath, "StateStore", new KeyHashProvider().getKey(pathBytes), otherValue);
+
+        // the colliding path is stored first, the batch then fills the map and the transaction is retried
+        Map<Path, Long> offsets = new LinkedHashMap<>();
+        offsets.put(testPath, 42L);
+        for (int i = 0; i < 20000; i++) {
+            offsets.put(Paths.get("/some/testHashCollisionMapFull/a/rather/long/directory/name/" + i), (long) i);
+        }
+        try (LMDBStateStore lss = new LMDBStateStore(storePath, StateStoreDurability.SYNC, 0, 64 * 1024, 1.5)) {
+            lss.setOffsets(offsets);
+            Assertions.assertEquals(42, lss.getOffset(testPath));
+        }
+
+        // overflow keys are recorded by the retried transaction
+        try (LMDBStateStore lss = new LMDBStateStore(storePath)) {
+            Assertions.assertEquals(42, lss.getOffset(testPath));
+        }
+    }
+
+    @Test
+    public void testRestartPoint() throws IOException {
+        Path storePath = Paths.get("target/LMDBStateStoreTest#testRestartPoint");
+        Files.createDirectories(storePath);
+
+        Path testPath = Paths.get("/some/testRestartPoint.gz");
+        Path vanishedPath = Paths.get("target/LMDBStateStoreTest#testRestartPoint-vanished.gz");
+        try (LMDBStateStore lss = new LMDBStateStore(storePath)) {
+            Assertions.assertNull(lss.getRestartPoint(testPath));
+            lss.setOffset(testPath, 3000);
+            lss.setRestartPoint(testPath, new RestartPoint(100, 2000));
+            lss.setOffset(vanishedPath, 30);
+            lss.setRestartPoint(vanishedPath, new RestartPoint(10, 20));
+        }
+
+        try (LMDBStateStore lss = new LMDBStateStore(storePath)) {
+            RestartPoint restartPoint = lss.getRestartPoint(testPath);
+            Assertions.assertEquals(100, restartPoint.getCompressedOffset());
+            Assertions.assertEquals(2000, restartPoint.getUncompressedOffset());
+
+            lss.deleteOffset(testPath);
+            Assertions.assertNull(lss.getRestartPoint(testPath));
+
+            // removed with the offset of a vanished file
+            Assertions.assertNotNull(lss.getRestartPoint(vanishedPath));
+            Assertions.assertEquals(1, lss.collectGarbage(10, Files::notExists, path -> {}).getRemoved());
+            Assertions.assertNull(lss.getRestartPoint(vanishedPath));
+        }
+    }
+
+    @Test
+    public void testCollectGarbage() throws IOException {
+        Path storePath = Paths.get("target/LMDBStateStoreTest#testCollectGarbage");
+        Files.createDirectories(storePath);
+
+        Path existingDirectory = Paths.get("target/LMDBStateStoreTest#testCollectGarbage-files");
+        Files.createDirectories(existingDirectory);
+
+        try (LMDBStateStore lss = new LMDBStateStore(storePath)) {
+            for (int i = 0; i < 10; i++) {
+                Path existingPath = existingDirectory.resolve("existing-" + i);
+                Files.write(existingPath, new byte[0]);
+                lss.setOffset(existingPath, i);
+                lss.setOffset(existingDirectory.resolve("vanished-" + i), i);
+            }
+
+            Map<Path, Long> offsets = new HashMap<>();
+            lss.forEachOffset(offsets::put);
+            Assertions.assertEquals(20, offsets.size());
+            Assertions.assertEquals(3L, offsets.get(existingDirectory.resolve("vanished-3")));
+
+            List<Path> removedPaths = new ArrayList<>();
+            int removed = 0;
+            int steps = 0;
+            GarbageCollectionStep step;
+            do {
+                step = lss.collectGarbage(3, Files::notExists, removedPaths::add);
+                Assertions.assertTrue(step.getExamined() <= 3);
+                removed += step.getRemoved();
+                steps++;
+            }
+            while (!step.isPassComplete());
+
+            Assertions.assertEquals(7, steps);
+            Assertions.assertEquals(10, removed);
+            Assertions.assertEquals(10, removedPaths.size());
+
+            offsets.clear();
+            lss.forEachOffset(offsets::put);
+            Assertions.assertEquals(10, offsets.size());
+            for (int i = 0; i < 10; i++) {
+                Assertions.assertEquals(i, lss.getOffset(existingDirectory.resolve("existing-" + i)));
+                Assertions.assertEquals(0, lss.getOffset(existingDirectory.resolve("vanished-" + i)));
+            }
+        }
+    }
+
+    @Test
+    public void testMapGrowth() throws IOException {
+        Path storePath = Paths.get("target/LMDBStateStoreTest#testMapGrowth");
+        Files.createDirectories(storePath);
+
+        int paths = 20000;
+        try (
+                LMDBStateStore lss = new LMDBStateStore(
+                        storePath,
+                        StateStoreDurability.NO_SYNC,
+                        1000,
+                        64 * 1024,
+                        1.5
+                )
+        ) {
+            Map<Path, Long> offsets = new HashMap<>();
+            for (int i = 0; i < paths; i++) {
+                Path testPath = Paths.get("/some/testMapGrowth/a/rather/long/directory/name/" + i);
+                if (i % 2 == 0) {
+                    lss.setOffset(testPath, i);
+                }
+                else {
+                    offsets.put(testPath, (long) i);
+                }
+            }
+            lss.setOffsets(offsets);
+
+            for (int i = 0; i < paths; i++) {
+                Path testPath = Paths.get("/some/testMapGrowth/a/rather/long/directory/name/" + i);
+                Assertions.assertEquals(i, lss.getOffset(testPath));
+            }
+        }
+    }
 }
@@ -0,0 +1,73 @@
+/*
+   Java Stateful File Reader rlo_13
+   Copyright (C) 2023  Suomen Kanuuna Oy
+
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package com.teragrep.rlo_13.statestore;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+public class ManualStateStoreDurabilityTest {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ManualStateStoreDurabilityTest.class);
+
+    @Test
+    @EnabledIfSystemProperty(named = "runManualStateStoreDurabilityTest", matches = "true")
+    public void manualDurabilityTest() throws IOException {
+        int pathCount = 1024;
+        Path[] paths = new Path[pathCount];
+        for (int i = 0; i < pathCount; i++) {
+            paths[i] = Paths.get("/some/manualDurabilityTest/" + i);
+        }
+        long durationNanos = TimeUnit.SECONDS.toNanos(5);
+        long syncMillis = 1000;
+
+        for (StateStoreDurability durability : StateStoreDurability.values()) {
+            Path storePath = Paths.get("target/ManualStateStoreDurabilityTest-" + durability);
+            Files.createDirectories(storePath);
+
+            StateStore stateStore;
+            if (durability == StateStoreDurability.WRITE_BEHIND) {
+                stateStore = new BatchingStateStore(new LMDBStateStore(storePath), 1024, syncMillis);
+            }
+            else {
+                stateStore = new LMDBStateStore(storePath, durability, syncMillis);
+            }
+
+            long setOffsets = 0;
+            try (StateStore closedStateStore = stateStore) {
+                long end = System.nanoTime() + durationNanos;
+                while (System.nanoTime() < end) {
+                    closedStateStore.setOffset(paths[(int) (setOffsets % pathCount)], setOffsets);
+                    setOffsets++;
+                }
+            }
+
+            LOGGER.info(
+                    "durability <{}> setOffset per second <{}>",
+                    durability,
+                    setOffsets / TimeUnit.NANOSECONDS.toSeconds(durationNanos)
+            );
+        }
+    }
+}